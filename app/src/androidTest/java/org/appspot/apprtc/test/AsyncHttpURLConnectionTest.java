@@ -0,0 +1,153 @@
+package org.appspot.apprtc.test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.appspot.apprtc.util.AsyncHttpURLConnection;
+import org.appspot.apprtc.util.AsyncHttpURLConnection.Backend;
+import org.appspot.apprtc.util.RetryPolicy;
+
+import android.test.InstrumentationTestCase;
+
+public class AsyncHttpURLConnectionTest extends InstrumentationTestCase {
+  private static final int WAIT_TIMEOUT = 10000;
+
+  // Local HTTP server answering every request with the same status.
+  private static class StatusServer implements Runnable {
+    final ServerSocket serverSocket;
+    final int status;
+    final AtomicInteger requests = new AtomicInteger();
+
+    StatusServer(int status) throws IOException {
+      this.status = status;
+      serverSocket = new ServerSocket(0);
+      startDaemon(this);
+    }
+
+    String getUrl() {
+      return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/message";
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          final Socket socket = serverSocket.accept();
+          startDaemon(new Runnable() {
+            @Override
+            public void run() {
+              serve(socket);
+            }
+          });
+        }
+      } catch (IOException e) {
+        // Closed.
+      }
+    }
+
+    // Answers the requests of a keep-alive connection.
+    private void serve(Socket socket) {
+      try {
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(socket.getInputStream(), "UTF-8"));
+        OutputStream out = socket.getOutputStream();
+        String line;
+        while ((line = in.readLine()) != null) {
+          int contentLength = 0;
+          while (line != null && line.length() > 0) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+              contentLength = Integer.parseInt(
+                  line.substring("content-length:".length()).trim());
+            }
+            line = in.readLine();
+          }
+          // The test bodies are ASCII, so chars are bytes.
+          for (int i = 0; i < contentLength; i++) {
+            in.read();
+          }
+          requests.incrementAndGet();
+          out.write(("HTTP/1.1 " + status + " Status\r\n"
+              + "Content-Length: 0\r\n\r\n").getBytes("UTF-8"));
+          out.flush();
+        }
+        socket.close();
+      } catch (IOException e) {
+        // Closed by the client.
+      }
+    }
+
+    void close() throws IOException {
+      serverSocket.close();
+    }
+
+    // Keep-alive connections may outlive the test.
+    private static void startDaemon(Runnable runnable) {
+      Thread thread = new Thread(runnable);
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  // Records the outcome of a request.
+  private static class RecordingEvents
+      implements AsyncHttpURLConnection.AsyncHttpEvents {
+    final CountDownLatch done = new CountDownLatch(1);
+    String error;
+
+    @Override
+    public void OnHttpError(String errorMessage) {
+      error = errorMessage;
+      done.countDown();
+    }
+
+    @Override
+    public void OnHttpComplete(String response) {
+      done.countDown();
+    }
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    AsyncHttpURLConnection.setBackend(Backend.URL_CONNECTION);
+    super.tearDown();
+  }
+
+  // Sends an idempotent request to a server answering |status| on |backend|
+  // and returns the number of attempts made.
+  private int attemptsFor(Backend backend, int status) throws Exception {
+    StatusServer server = new StatusServer(status);
+    try {
+      AsyncHttpURLConnection.setBackend(backend);
+      RecordingEvents events = new RecordingEvents();
+      AsyncHttpURLConnection connection = new AsyncHttpURLConnection(
+          "POST", server.getUrl(), "{}", events);
+      connection.setRetryPolicy(RetryPolicy.ICE_CANDIDATES);
+      connection.send();
+      assertTrue(events.done.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+      assertNotNull(backend + " " + status, events.error);
+      assertEquals(connection.getAttempts(), server.requests.get());
+      return connection.getAttempts();
+    } finally {
+      server.close();
+    }
+  }
+
+  public void testNotFoundIsNotRetried() throws Exception {
+    // Both backends apply the same status rules, even for requests the
+    // policy would retry.
+    assertEquals(1, attemptsFor(Backend.NETTY, 404));
+    assertEquals(1, attemptsFor(Backend.URL_CONNECTION, 404));
+  }
+
+  public void testServiceUnavailableIsRetried() throws Exception {
+    assertTrue(attemptsFor(Backend.NETTY, 503) > 1);
+    assertTrue(attemptsFor(Backend.URL_CONNECTION, 503) > 1);
+  }
+}
@@ -0,0 +1,65 @@
+package org.appspot.apprtc.test;
+
+import java.util.Map;
+
+import org.appspot.apprtc.sdp.BandwidthPolicyTransform;
+import org.appspot.apprtc.sdp.SdpMediaSection;
+import org.appspot.apprtc.sdp.SdpSession;
+import org.appspot.apprtc.util.BandwidthPolicy;
+import org.appspot.apprtc.util.BandwidthPolicy.NetworkClass;
+
+import android.test.InstrumentationTestCase;
+
+public class BandwidthPolicyTest extends InstrumentationTestCase {
+  private Map<String, String> corpus;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    corpus = SdpCorpus.load(getInstrumentation().getContext());
+  }
+
+  public void testWritesLimits() {
+    SdpSession session = SdpSession.parse(corpus.get("chrome_offer.sdp"));
+    new BandwidthPolicyTransform(32, 50, 250, 500).apply(session);
+    // Applying twice replaces rather than duplicates.
+    new BandwidthPolicyTransform(48, 100, 300, 1000).apply(session);
+    session = SdpSession.parse(session.toString());
+
+    SdpMediaSection audio = session.getMediaSection("audio");
+    assertEquals("c=IN IP4 0.0.0.0", audio.getLines().get(0));
+    assertEquals("b=AS:48", audio.getLines().get(1));
+    assertEquals("b=TIAS:48000", audio.getLines().get(2));
+    assertNull(audio.getFmtp("103"));
+
+    SdpMediaSection video = session.getMediaSection("video");
+    assertEquals("b=AS:1000", video.getLines().get(1));
+    assertEquals("b=TIAS:1000000", video.getLines().get(2));
+    String expected = "x-google-min-bitrate=100;x-google-start-bitrate=300;"
+        + "x-google-max-bitrate=1000";
+    assertEquals(expected, video.getFmtp("100"));
+    assertEquals(expected, video.getFmtp("101"));
+    assertEquals("apt=100", video.getFmtp("96"));
+    assertNull(video.getFmtp("116"));
+  }
+
+  public void testZeroLimitsAreLeftOut() {
+    String sdp = corpus.get("chrome_offer.sdp");
+    SdpSession session = SdpSession.parse(sdp);
+    new BandwidthPolicyTransform(0, 0, 0, 0).apply(session);
+    assertEquals(sdp, session.toString());
+  }
+
+  public void testStartsBelowLastAchievedBitrate() {
+    assertEquals(1000, BandwidthPolicy.getLimits(NetworkClass.WIFI, 0)
+        .getVideoStartKbps());
+    assertEquals(900, BandwidthPolicy.getLimits(NetworkClass.WIFI, 1000)
+        .getVideoStartKbps());
+    // Clamped to the limits of the network class.
+    assertEquals(500, BandwidthPolicy.getLimits(NetworkClass.CELL_3G, 2000)
+        .getVideoStartKbps());
+    assertEquals(150, BandwidthPolicy.getLimits(NetworkClass.LTE, 20)
+        .getVideoStartKbps());
+    assertEquals(NetworkClass.UNKNOWN, BandwidthPolicy.getNetworkClass(null));
+  }
+}
@@ -0,0 +1,54 @@
+package org.appspot.apprtc.test;
+
+import org.appspot.apprtc.util.CallTimeline;
+import org.appspot.apprtc.util.CallTimeline.Phase;
+import org.appspot.apprtc.util.MetricsRegistry;
+
+import android.test.InstrumentationTestCase;
+
+public class CallTimelineTest extends InstrumentationTestCase {
+
+  public void testMarksPhasesOnce() throws InterruptedException {
+    MetricsRegistry metrics = MetricsRegistry.getInstance();
+    long uidCount = metrics.histogram(Phase.UID_RECEIVED.getMetric())
+        .getCount();
+    CallTimeline timeline = new CallTimeline();
+    assertEquals(-1, timeline.getPhaseMs(Phase.UID_RECEIVED));
+    assertTrue(timeline.mark(Phase.UID_RECEIVED));
+    Thread.sleep(20);
+    assertTrue(timeline.mark(Phase.OFFER_RECEIVED));
+    assertFalse(timeline.mark(Phase.UID_RECEIVED));
+    assertEquals(uidCount + 1,
+        metrics.histogram(Phase.UID_RECEIVED.getMetric()).getCount());
+    assertTrue(timeline.getPhaseMs(Phase.OFFER_RECEIVED)
+        >= timeline.getPhaseMs(Phase.UID_RECEIVED) + 20);
+
+    String description = timeline.toString();
+    assertTrue(description, description.startsWith(
+        "trace=" + timeline.getTraceId() + " uid=+"));
+    assertTrue(description, description.indexOf(" offer_received=+")
+        > description.indexOf(" uid=+"));
+    assertTrue(description, description.endsWith(" slowest=offer_received"));
+  }
+
+  public void testTraceIds() {
+    CallTimeline timeline = new CallTimeline();
+    assertEquals(16, timeline.getTraceId().length());
+    assertFalse(timeline.getTraceId().equals(new CallTimeline().getTraceId()));
+    timeline.setTraceId("0123456789abcdef");
+    assertEquals("0123456789abcdef", timeline.getTraceId());
+  }
+
+  public void testSpans() throws InterruptedException {
+    CallTimeline timeline = new CallTimeline();
+    timeline.startSpan("t.1");
+    Thread.sleep(10);
+    assertTrue(timeline.endSpan("t.1", CallTimeline.METRIC_OFFER_TO_ANSWER)
+        >= 10);
+    // Each span ends once.
+    assertEquals(-1,
+        timeline.endSpan("t.1", CallTimeline.METRIC_OFFER_TO_ANSWER));
+    assertEquals(-1,
+        timeline.endSpan("t.2", CallTimeline.METRIC_OFFER_TO_ANSWER));
+  }
+}
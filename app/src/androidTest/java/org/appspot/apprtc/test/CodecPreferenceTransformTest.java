@@ -0,0 +1,76 @@
+package org.appspot.apprtc.test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.appspot.apprtc.sdp.CodecPreferenceTransform;
+import org.appspot.apprtc.sdp.SdpMediaSection;
+import org.appspot.apprtc.sdp.SdpSession;
+
+import android.test.InstrumentationTestCase;
+
+public class CodecPreferenceTransformTest extends InstrumentationTestCase {
+  private static final List<String> NONE = Collections.emptyList();
+
+  private Map<String, String> corpus;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    corpus = SdpCorpus.load(getInstrumentation().getContext());
+  }
+
+  private SdpMediaSection apply(String name, String media,
+      List<String> preferred, List<String> stripped) {
+    SdpSession session = SdpSession.parse(corpus.get(name));
+    new CodecPreferenceTransform(media, preferred, stripped).apply(session);
+    return SdpSession.parse(session.toString()).getMediaSection(media);
+  }
+
+  public void testParseCodecList() {
+    assertEquals(NONE, CodecPreferenceTransform.parseCodecList(null));
+    assertEquals(NONE, CodecPreferenceTransform.parseCodecList(" "));
+    assertEquals(Arrays.asList("opus", "ISAC/16000"),
+        CodecPreferenceTransform.parseCodecList(" opus ,ISAC/16000,"));
+  }
+
+  public void testReordersInPreferenceOrder() {
+    SdpMediaSection video = apply("firefox_offer.sdp", "video",
+        Arrays.asList("H264", "AV1"), NONE);
+    assertEquals(Arrays.asList("126", "97", "120"), video.getFormats());
+
+    SdpMediaSection audio = apply("chrome_offer.sdp", "audio",
+        Arrays.asList("PCMA", "isac/16000", "PCMU"), NONE);
+    assertEquals(Arrays.asList("8", "103", "0", "111", "104", "9", "106",
+        "105", "13", "126"), audio.getFormats());
+  }
+
+  public void testStripsCodecAndItsRetransmission() {
+    SdpMediaSection video = apply("chrome_offer.sdp", "video",
+        Arrays.asList("VP8"), Arrays.asList("VP9"));
+    assertEquals(Arrays.asList("100", "116", "117", "96", "98"),
+        video.getFormats());
+    for (String line : video.getLines()) {
+      assertFalse(line, line.startsWith("a=rtpmap:101 ")
+          || line.startsWith("a=fmtp:97 ")
+          || line.startsWith("a=rtcp-fb:101 "));
+    }
+    assertEquals("apt=100", video.getFmtp("96"));
+  }
+
+  public void testKeepsLastCodec() {
+    SdpMediaSection video = apply("firefox_offer.sdp", "video", NONE,
+        Arrays.asList("VP8", "H264"));
+    assertEquals(Arrays.asList("120", "126", "97"), video.getFormats());
+  }
+
+  public void testLeavesOtherMediaAlone() {
+    String sdp = corpus.get("chrome_offer.sdp");
+    SdpSession session = SdpSession.parse(sdp);
+    new CodecPreferenceTransform("video", Arrays.asList("opus"),
+        Arrays.asList("ISAC")).apply(session);
+    assertEquals(sdp, session.toString());
+  }
+}
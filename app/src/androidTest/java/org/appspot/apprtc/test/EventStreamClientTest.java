@@ -0,0 +1,162 @@
+package org.appspot.apprtc.test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.appspot.apprtc.util.EventStreamClient;
+
+import android.test.InstrumentationTestCase;
+
+import com.github.eventsource.client.EventSourceHandler;
+import com.github.eventsource.client.MessageEvent;
+
+public class EventStreamClientTest extends InstrumentationTestCase {
+  private static final int WAIT_TIMEOUT = 10000;
+  // Time given to a reconnect that must not happen.
+  private static final int RECONNECT_WAIT_MS = 1000;
+
+  // Runs handler callbacks on the calling thread.
+  private static final Executor DIRECT_EXECUTOR = new Executor() {
+    @Override
+    public void execute(Runnable runnable) {
+      runnable.run();
+    }
+  };
+
+  // Local HTTP server answering every stream request with the same response
+  // head and closing the connection.
+  private static class StreamServer implements Runnable {
+    final ServerSocket serverSocket;
+    final String responseHead;
+    final AtomicInteger requests = new AtomicInteger();
+
+    StreamServer(String responseHead) throws IOException {
+      this.responseHead = responseHead;
+      serverSocket = new ServerSocket(0);
+      Thread thread = new Thread(this);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    URI getUri() {
+      return URI.create(
+          "http://127.0.0.1:" + serverSocket.getLocalPort() + "/events");
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          Socket socket = serverSocket.accept();
+          BufferedReader in = new BufferedReader(
+              new InputStreamReader(socket.getInputStream(), "UTF-8"));
+          String line;
+          while ((line = in.readLine()) != null && line.length() > 0) {
+          }
+          requests.incrementAndGet();
+          OutputStream out = socket.getOutputStream();
+          out.write((responseHead + "Content-Length: 12\r\n\r\n"
+              + "data: test\n\n").getBytes("UTF-8"));
+          out.flush();
+          socket.close();
+        }
+      } catch (IOException e) {
+        // Closed.
+      }
+    }
+
+    void close() throws IOException {
+      serverSocket.close();
+    }
+  }
+
+  // Records the errors and the close of a stream.
+  private static class RecordingHandler implements EventSourceHandler {
+    final CountDownLatch closed = new CountDownLatch(1);
+    volatile Throwable error;
+    volatile boolean reconnect;
+    volatile int messages;
+
+    @Override
+    public void onConnect() {
+    }
+
+    @Override
+    public void onMessage(String event, MessageEvent message) {
+      messages++;
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+    }
+
+    @Override
+    public void onClosed(boolean willReconnect) {
+      reconnect = willReconnect;
+      closed.countDown();
+    }
+  }
+
+  // Opens a stream on a server answering |responseHead| and checks that it
+  // fails for good after one request.
+  private void assertFailsWithoutReconnect(String responseHead)
+      throws Exception {
+    StreamServer server = new StreamServer(responseHead);
+    RecordingHandler handler = new RecordingHandler();
+    EventStreamClient client = new EventStreamClient(
+        DIRECT_EXECUTOR, 100, server.getUri(), handler);
+    try {
+      client.connect();
+      assertTrue(handler.closed.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+      assertFalse(handler.reconnect);
+      assertTrue(String.valueOf(handler.error),
+          handler.error instanceof EventStreamClient.StreamFailedException);
+      assertEquals(0, handler.messages);
+      Thread.sleep(RECONNECT_WAIT_MS);
+      assertEquals(1, server.requests.get());
+      assertEquals(EventStreamClient.CLOSED, client.getReadyState());
+    } finally {
+      client.close();
+      server.close();
+    }
+  }
+
+  public void testNotFoundIsNotRetried() throws Exception {
+    assertFailsWithoutReconnect("HTTP/1.1 404 Not Found\r\n"
+        + "Content-Type: text/event-stream\r\n");
+  }
+
+  public void testWrongContentTypeIsNotRetried() throws Exception {
+    assertFailsWithoutReconnect("HTTP/1.1 200 OK\r\n"
+        + "Content-Type: text/html\r\n");
+  }
+
+  public void testEndedStreamIsRetried() throws Exception {
+    StreamServer server = new StreamServer("HTTP/1.1 200 OK\r\n"
+        + "Content-Type: text/event-stream; charset=utf-8\r\n");
+    RecordingHandler handler = new RecordingHandler();
+    EventStreamClient client = new EventStreamClient(
+        DIRECT_EXECUTOR, 100, server.getUri(), handler);
+    try {
+      client.connect();
+      assertTrue(handler.closed.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+      assertTrue(handler.reconnect);
+      assertTrue(handler.messages > 0);
+      Thread.sleep(RECONNECT_WAIT_MS);
+      assertTrue(server.requests.get() > 1);
+    } finally {
+      client.close();
+      server.close();
+    }
+  }
+}
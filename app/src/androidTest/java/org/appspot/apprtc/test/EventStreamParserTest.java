@@ -0,0 +1,68 @@
+package org.appspot.apprtc.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.appspot.apprtc.util.EventStreamParser;
+
+import android.test.InstrumentationTestCase;
+
+public class EventStreamParserTest extends InstrumentationTestCase {
+  // BOM, comment, CRLF, CR and LF line endings, multi-line data, an event
+  // without data value and a retry field.
+  private static final String STREAM = "\uFEFF: keep-alive\r\n"
+      + "event: uid\r\ndata: {\"uid\":\"r\u00e9mi\"}\r\nid: 1\r\n\r\n"
+      + "data: a\ndata:b\n\n"
+      + "retry: 250\nevent: offer\ndata\nid: 2\r\r"
+      + "event: ignored\n\n";
+  private static final String EXPECTED = "[uid|{\"uid\":\"r\u00e9mi\"}|1, "
+      + "message|a\nb|null, retry 250, offer||2]";
+
+  private static class RecordingListener
+      implements EventStreamParser.EventStreamListener {
+    final List<String> events = new ArrayList<String>();
+
+    @Override
+    public void onEvent(String event, String data, String id) {
+      events.add(event + "|" + data + "|" + id);
+    }
+
+    @Override
+    public void onRetry(long retryMs) {
+      events.add("retry " + retryMs);
+    }
+  }
+
+  public void testParsesStream() throws Exception {
+    byte[] data = STREAM.getBytes("UTF-8");
+    RecordingListener listener = new RecordingListener();
+    new EventStreamParser(listener).feed(data, 0, data.length);
+    assertEquals(EXPECTED, listener.events.toString());
+  }
+
+  public void testParsesAcrossChunkBoundaries() throws Exception {
+    byte[] data = STREAM.getBytes("UTF-8");
+    for (int chunk = 1; chunk < data.length; chunk++) {
+      RecordingListener listener = new RecordingListener();
+      EventStreamParser parser = new EventStreamParser(listener);
+      for (int offset = 0; offset < data.length; offset += chunk) {
+        parser.feed(data, offset, Math.min(chunk, data.length - offset));
+      }
+      assertEquals("chunk " + chunk, EXPECTED, listener.events.toString());
+      assertEquals("2", parser.getLastEventId());
+    }
+  }
+
+  public void testResetDropsPartialEvent() throws Exception {
+    byte[] partial = "event: offer\ndata: lost".getBytes("UTF-8");
+    byte[] next = "data: kept\n\n".getBytes("UTF-8");
+    RecordingListener listener = new RecordingListener();
+    EventStreamParser parser = new EventStreamParser(listener);
+    parser.setLastEventId("7");
+    parser.feed(partial, 0, partial.length);
+    parser.reset();
+    parser.feed(next, 0, next.length);
+    assertEquals("[message|kept|null]", listener.events.toString());
+    assertEquals("7", parser.getLastEventId());
+  }
+}
@@ -0,0 +1,69 @@
+package org.appspot.apprtc.test;
+
+import org.appspot.apprtc.IceCandidateFilter;
+import org.appspot.apprtc.IceCandidateFilter.CandidateTypes;
+import org.webrtc.IceCandidate;
+
+import android.test.InstrumentationTestCase;
+
+public class IceCandidateFilterTest extends InstrumentationTestCase {
+  private static final String HOST =
+      "candidate:1 1 udp 2122260223 192.168.1.2 54321 typ host generation 0";
+  private static final String HOST_TCP =
+      "candidate:2 1 tcp 1518280447 192.168.1.2 9 typ host tcptype active"
+      + " generation 0";
+  private static final String HOST_LINK_LOCAL =
+      "candidate:3 1 udp 2122194687 fe80::1c2b:3aff:fe4d:5e6f 54322 typ host"
+      + " generation 0";
+  private static final String HOST_IPV6 =
+      "candidate:4 1 udp 2122129151 2001:db8::1 54323 typ host generation 0";
+  private static final String SRFLX =
+      "candidate:5 1 udp 1686052607 203.0.113.7 54321 typ srflx raddr"
+      + " 192.168.1.2 rport 54321 generation 0";
+  private static final String RELAY =
+      "candidate:6 1 udp 41885439 198.51.100.9 3478 typ relay raddr"
+      + " 203.0.113.7 rport 54321 generation 0";
+
+  private static IceCandidate candidate(String sdp) {
+    return new IceCandidate("audio", 0, sdp);
+  }
+
+  public void testDefaultRules() {
+    IceCandidateFilter filter =
+        new IceCandidateFilter(false, CandidateTypes.ALL, true, true);
+    assertTrue(filter.accept(candidate(HOST)));
+    assertFalse(filter.accept(candidate(HOST_TCP)));
+    assertFalse(filter.accept(candidate(HOST_LINK_LOCAL)));
+    assertTrue(filter.accept(candidate(HOST_IPV6)));
+    assertTrue(filter.accept(candidate(SRFLX)));
+    assertTrue(filter.accept(candidate(RELAY)));
+    // Same foundation and component again, e.g. from another interface.
+    assertFalse(filter.accept(candidate(SRFLX.replace("54321 typ", "60000 typ"))));
+    // The same candidate is needed for every m-line without bundling.
+    assertTrue(filter.accept(new IceCandidate("video", 1, SRFLX)));
+    assertTrue(filter.accept(candidate(SRFLX.replace(" 1 udp", " 2 udp"))));
+    assertEquals("accepted=6 dropped=3", filter.getStats());
+  }
+
+  public void testCandidateTypes() {
+    IceCandidateFilter noHost =
+        new IceCandidateFilter(true, CandidateTypes.NO_HOST, false, false);
+    assertFalse(noHost.accept(candidate(HOST)));
+    assertFalse(noHost.accept(candidate(HOST_TCP)));
+    assertTrue(noHost.accept(candidate(SRFLX)));
+    assertTrue(noHost.accept(candidate("a=" + RELAY)));
+
+    IceCandidateFilter relay =
+        new IceCandidateFilter(true, CandidateTypes.RELAY, false, false);
+    assertFalse(relay.accept(candidate(HOST)));
+    assertFalse(relay.accept(candidate(SRFLX)));
+    assertTrue(relay.accept(candidate(RELAY)));
+  }
+
+  public void testPassesUnparsableCandidates() {
+    IceCandidateFilter filter =
+        new IceCandidateFilter(false, CandidateTypes.RELAY, true, true);
+    assertTrue(filter.accept(candidate("candidate:1 1 udp")));
+    assertTrue(filter.accept(candidate("x-custom 1 2 3 4 5 6 7")));
+  }
+}
@@ -120,6 +120,10 @@ public class PeerConnectionClientTest extends InstrumentationTestCase
     }
   }
 
+  @Override
+  public void onIceGatheringComplete() {
+  }
+
   @Override
   public void onIceConnected() {
     Log.d(TAG, "ICE Connected");
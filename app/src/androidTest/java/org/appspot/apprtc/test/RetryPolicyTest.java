@@ -0,0 +1,39 @@
+package org.appspot.apprtc.test;
+
+import org.appspot.apprtc.util.RetryPolicy;
+
+import android.test.InstrumentationTestCase;
+
+public class RetryPolicyTest extends InstrumentationTestCase {
+
+  public void testBackoffIsJitteredAndCapped() {
+    RetryPolicy policy = new RetryPolicy(10, 100, 1000, 60000, true);
+    for (int i = 0; i < 100; i++) {
+      long first = policy.getRetryDelayMs(1);
+      assertTrue(first >= 50 && first <= 100);
+      long third = policy.getRetryDelayMs(3);
+      assertTrue(third >= 200 && third <= 400);
+      long capped = policy.getRetryDelayMs(9);
+      assertTrue(capped >= 500 && capped <= 1000);
+    }
+  }
+
+  public void testAttemptsAndDeadline() {
+    RetryPolicy policy = new RetryPolicy(3, 100, 1000, 2000, true);
+    assertTrue(policy.canRetry(1, 100, true));
+    assertTrue(policy.canRetry(2, 1999, true));
+    assertFalse(policy.canRetry(3, 100, true));
+    assertFalse(policy.canRetry(1, 2000, true));
+    assertEquals(500, policy.getRemainingMs(1500));
+    assertEquals(0, policy.getRemainingMs(2500));
+    assertFalse(RetryPolicy.NONE.canRetry(1, 0, false));
+  }
+
+  public void testNonIdempotentRequestsAreNotRepeated() {
+    // A BYE that may have reached the server must not be sent again, but one
+    // that failed before it was written is safe to retry.
+    assertFalse(RetryPolicy.BYE.canRetry(1, 0, true));
+    assertTrue(RetryPolicy.BYE.canRetry(1, 0, false));
+    assertTrue(RetryPolicy.ICE_CANDIDATES.canRetry(1, 0, true));
+  }
+}
@@ -0,0 +1,56 @@
+package org.appspot.apprtc.test;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.appspot.apprtc.sdp.SdpCompressor;
+
+import android.test.InstrumentationTestCase;
+
+public class SdpCompressorTest extends InstrumentationTestCase {
+  private Map<String, String> corpus;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    corpus = SdpCorpus.load(getInstrumentation().getContext());
+    assertFalse(corpus.isEmpty());
+  }
+
+  public void testRoundTrip() throws IOException {
+    SdpCompressor compressor = SdpCompressor.getInstance();
+    for (Map.Entry<String, String> entry : corpus.entrySet()) {
+      String compressed = compressor.compress(entry.getValue());
+      assertEquals(entry.getKey(), entry.getValue(),
+          compressor.decompress(compressed));
+    }
+    String unusual = "v=0\r\na=x-custom:\u00e9 \r\n";
+    assertEquals(unusual, compressor.decompress(compressor.compress(unusual)));
+  }
+
+  public void testRejectsInvalidInput() {
+    SdpCompressor compressor = SdpCompressor.getInstance();
+    String compressed = compressor.compress(corpus.values().iterator().next());
+    String[] invalid = {
+        "not base64!", "AAAA", compressed.substring(0, compressed.length() / 2)
+    };
+    for (String input : invalid) {
+      try {
+        compressor.decompress(input);
+        fail("Expected invalid compact SDP to be rejected: " + input);
+      } catch (IOException e) {
+        // Expected.
+      }
+    }
+  }
+
+  public void testCompressesCorpus() {
+    SdpCompressor compressor = SdpCompressor.getInstance();
+    for (Map.Entry<String, String> entry : corpus.entrySet()) {
+      String sdp = entry.getValue();
+      // Even Base64 encoded, the compact SDP is less than half the size.
+      assertTrue(entry.getKey(),
+          compressor.compress(sdp).length() < sdp.length() / 2);
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package org.appspot.apprtc.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+
+/** Loads the session descriptions in the test assets under sdp/. */
+public class SdpCorpus {
+  private static final String DIRECTORY = "sdp";
+
+  private SdpCorpus() {
+  }
+
+  /** Returns the corpus SDPs by file name, in file name order. */
+  public static Map<String, String> load(Context context) throws IOException {
+    AssetManager assets = context.getAssets();
+    Map<String, String> corpus = new LinkedHashMap<String, String>();
+    for (String name : assets.list(DIRECTORY)) {
+      InputStream input = assets.open(DIRECTORY + "/" + name);
+      try {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int length;
+        while ((length = input.read(buffer)) != -1) {
+          output.write(buffer, 0, length);
+        }
+        corpus.put(name, output.toString("UTF-8"));
+      } finally {
+        input.close();
+      }
+    }
+    return corpus;
+  }
+}
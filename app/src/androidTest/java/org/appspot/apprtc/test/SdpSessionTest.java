@@ -0,0 +1,174 @@
+package org.appspot.apprtc.test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.appspot.apprtc.sdp.CodecPreferenceTransform;
+import org.appspot.apprtc.sdp.SdpMediaSection;
+import org.appspot.apprtc.sdp.SdpSession;
+import org.appspot.apprtc.sdp.SdpTransform;
+import org.appspot.apprtc.sdp.StartBitrateTransform;
+
+import android.test.InstrumentationTestCase;
+
+public class SdpSessionTest extends InstrumentationTestCase {
+  private static final int START_BITRATE = 1000;
+
+  private Map<String, String> corpus;
+  private List<SdpTransform> transforms;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    corpus = SdpCorpus.load(getInstrumentation().getContext());
+    assertFalse(corpus.isEmpty());
+    transforms = Arrays.<SdpTransform>asList(
+        new CodecPreferenceTransform("audio",
+            Collections.singletonList("ISAC/16000"),
+            Collections.<String>emptyList()),
+        new StartBitrateTransform("VP8/90000", START_BITRATE));
+  }
+
+  public void testRoundTrip() {
+    for (Map.Entry<String, String> entry : corpus.entrySet()) {
+      SdpSession session = SdpSession.parse(entry.getValue());
+      assertFalse(entry.getKey(), session.getMediaSections().isEmpty());
+      assertEquals(entry.getKey(), entry.getValue(), session.toString());
+    }
+    assertEquals("v=0\r\nm=audio 9 RTP/AVP 0\r\na=rtcp-mux\r\n",
+        SdpSession.parse("v=0\nm=audio 9 RTP/AVP 0\na=rtcp-mux").toString());
+  }
+
+  public void testAccessors() {
+    SdpSession session = SdpSession.parse(corpus.get("chrome_offer.sdp"));
+    SdpMediaSection audio = session.getMediaSection("audio");
+    assertEquals("UDP/TLS/RTP/SAVPF", audio.getProto());
+    assertEquals("111", audio.getFormats().get(0));
+    assertEquals("103", audio.findPayloadType("ISAC/16000"));
+    assertEquals("104", audio.findPayloadType("isac/32000"));
+    assertEquals("111", audio.findPayloadType("opus"));
+    assertNull(audio.findPayloadType("ISAC/1600"));
+    assertEquals("opus/48000/2", audio.getRtpmap("111"));
+    assertEquals("minptime=10; useinbandfec=1", audio.getFmtp("111"));
+    assertNull(audio.getFmtp("11"));
+    assertEquals("", audio.getAttribute("rtcp-mux"));
+    assertNull(session.getMediaSection("text"));
+  }
+
+  public void testSetFmtpParameter() {
+    SdpMediaSection audio = SdpSession.parse(corpus.get("chrome_offer.sdp"))
+        .getMediaSection("audio");
+    assertTrue(audio.setFmtpParameter("111", "useinbandfec", "0"));
+    assertEquals("minptime=10;useinbandfec=0", audio.getFmtp("111"));
+    assertTrue(audio.setFmtpParameter("111", "stereo", "1"));
+    assertEquals("minptime=10;useinbandfec=0;stereo=1", audio.getFmtp("111"));
+    assertTrue(audio.setFmtpParameter("103", "maxptime", "60"));
+    assertEquals("maxptime=60", audio.getFmtp("103"));
+    assertFalse(audio.setFmtpParameter("99", "maxptime", "60"));
+  }
+
+  public void testTransformsMatchLegacy() {
+    for (Map.Entry<String, String> entry : corpus.entrySet()) {
+      String sdp = entry.getValue();
+      SdpSession session = SdpSession.parse(sdp);
+      transforms.get(0).apply(session);
+      assertEquals(entry.getKey(), legacyPreferISAC(sdp), session.toString());
+
+      transforms.get(1).apply(session);
+      SdpMediaSection video = session.getMediaSection("video");
+      String vp8 = video != null ? video.findPayloadType("VP8/90000") : null;
+      if (vp8 == null) {
+        continue;
+      }
+      String fmtp = video.getFmtp(vp8);
+      assertTrue(entry.getKey() + ": " + fmtp,
+          fmtp.endsWith("x-google-start-bitrate=" + START_BITRATE));
+      if (!fmtp.contains(";")) {
+        // Without fmtp parameters of its own the legacy code gives the same
+        // result; with them it added a second a=fmtp line.
+        assertEquals(entry.getKey(),
+            legacySetStartBitrate(legacyPreferISAC(sdp), START_BITRATE),
+            session.toString());
+      }
+    }
+  }
+
+  // The regex based munging PeerConnectionClient used before SdpSession,
+  // kept as the baseline for the comparison above. SdpBenchmark in the
+  // benchmark module compares their speed.
+  private static String legacySetStartBitrate(
+      String sdpDescription, int bitrateKbps) {
+    String[] lines = sdpDescription.split("\r\n");
+    int lineIndex = -1;
+    String vp8RtpMap = null;
+    Pattern vp8Pattern =
+        Pattern.compile("^a=rtpmap:(\\d+) VP8/90000[\r]?$");
+    for (int i = 0; i < lines.length; i++) {
+      Matcher vp8Matcher = vp8Pattern.matcher(lines[i]);
+      if (vp8Matcher.matches()) {
+        vp8RtpMap = vp8Matcher.group(1);
+        lineIndex = i;
+        break;
+      }
+    }
+    if (vp8RtpMap == null) {
+      return sdpDescription;
+    }
+    StringBuilder newSdpDescription = new StringBuilder();
+    for (int i = 0; i < lines.length; i++) {
+      newSdpDescription.append(lines[i]).append("\r\n");
+      if (i == lineIndex) {
+        String bitrateSet = "a=fmtp:" + vp8RtpMap
+            + " x-google-start-bitrate=" + bitrateKbps;
+        newSdpDescription.append(bitrateSet).append("\r\n");
+      }
+    }
+    return newSdpDescription.toString();
+  }
+
+  private static String legacyPreferISAC(String sdpDescription) {
+    String[] lines = sdpDescription.split("\r\n");
+    int mLineIndex = -1;
+    String isac16kRtpMap = null;
+    Pattern isac16kPattern =
+        Pattern.compile("^a=rtpmap:(\\d+) ISAC/16000[\r]?$");
+    for (int i = 0;
+         (i < lines.length) && (mLineIndex == -1 || isac16kRtpMap == null);
+         ++i) {
+      if (lines[i].startsWith("m=audio ")) {
+        mLineIndex = i;
+        continue;
+      }
+      Matcher isac16kMatcher = isac16kPattern.matcher(lines[i]);
+      if (isac16kMatcher.matches()) {
+        isac16kRtpMap = isac16kMatcher.group(1);
+        continue;
+      }
+    }
+    if (mLineIndex == -1 || isac16kRtpMap == null) {
+      return sdpDescription;
+    }
+    String[] origMLineParts = lines[mLineIndex].split(" ");
+    StringBuilder newMLine = new StringBuilder();
+    int origPartIndex = 0;
+    newMLine.append(origMLineParts[origPartIndex++]).append(" ");
+    newMLine.append(origMLineParts[origPartIndex++]).append(" ");
+    newMLine.append(origMLineParts[origPartIndex++]).append(" ");
+    newMLine.append(isac16kRtpMap);
+    for (; origPartIndex < origMLineParts.length; ++origPartIndex) {
+      if (!origMLineParts[origPartIndex].equals(isac16kRtpMap)) {
+        newMLine.append(" ").append(origMLineParts[origPartIndex]);
+      }
+    }
+    lines[mLineIndex] = newMLine.toString();
+    StringBuilder newSdpDescription = new StringBuilder();
+    for (String line : lines) {
+      newSdpDescription.append(line).append("\r\n");
+    }
+    return newSdpDescription.toString();
+  }
+}
@@ -0,0 +1,76 @@
+package org.appspot.apprtc.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.appspot.apprtc.util.SignalingExecutor;
+
+import android.test.InstrumentationTestCase;
+
+public class SignalingExecutorTest extends InstrumentationTestCase {
+  private static final int WAIT_TIMEOUT = 5000;
+
+  public void testSerialExecutorKeepsOrder() throws InterruptedException {
+    SignalingExecutor signalingExecutor = SignalingExecutor.getInstance();
+    signalingExecutor.acquire();
+    try {
+      Executor serial = signalingExecutor.newSerialExecutor();
+      final List<Integer> order = new ArrayList<Integer>();
+      final CountDownLatch done = new CountDownLatch(1);
+      final int count = 100;
+      for (int i = 0; i < count; i++) {
+        final int index = i;
+        serial.execute(new Runnable() {
+          @Override
+          public void run() {
+            synchronized (order) {
+              order.add(index);
+            }
+            if (index == count - 1) {
+              done.countDown();
+            }
+          }
+        });
+      }
+      assertTrue(done.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+      synchronized (order) {
+        assertEquals(count, order.size());
+        for (int i = 0; i < count; i++) {
+          assertEquals(i, (int) order.get(i));
+        }
+      }
+    } finally {
+      signalingExecutor.release();
+    }
+  }
+
+  public void testReleaseShutsDownPool() throws InterruptedException {
+    SignalingExecutor signalingExecutor = SignalingExecutor.getInstance();
+    int refs = signalingExecutor.getRefCount();
+    signalingExecutor.acquire();
+    final CountDownLatch ran = new CountDownLatch(1);
+    final Thread[] worker = new Thread[1];
+    signalingExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        worker[0] = Thread.currentThread();
+        ran.countDown();
+      }
+    });
+    assertTrue(ran.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+    assertEquals(refs + 1, signalingExecutor.getRefCount());
+    signalingExecutor.release();
+    assertEquals(refs, signalingExecutor.getRefCount());
+    if (refs == 0) {
+      // The worker exits well before its keep-alive timeout once the pool is
+      // shut down.
+      worker[0].join(WAIT_TIMEOUT);
+      assertFalse(worker[0].isAlive());
+      assertEquals(0, signalingExecutor.getThreadCount());
+      assertEquals(0, signalingExecutor.getQueueSize());
+    }
+  }
+}
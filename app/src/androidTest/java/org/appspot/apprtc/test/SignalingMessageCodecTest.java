@@ -0,0 +1,204 @@
+package org.appspot.apprtc.test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.appspot.apprtc.SignalingMessageCodec;
+import org.appspot.apprtc.SignalingMessageCodec.WebSocketMessageEvents;
+import org.appspot.apprtc.sdp.SdpCompressor;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import android.test.InstrumentationTestCase;
+import android.util.JsonReader;
+
+public class SignalingMessageCodecTest extends InstrumentationTestCase {
+  private static class RecordingEvents implements WebSocketMessageEvents {
+    final List<String> events = new ArrayList<String>();
+
+    @Override
+    public void onRemoteDescription(SessionDescription sdp) {
+      events.add(sdp.type + " " + sdp.description);
+    }
+
+    @Override
+    public void onRemoteIceCandidate(IceCandidate candidate) {
+      events.add("candidate " + candidate.sdpMid + " "
+          + candidate.sdpMLineIndex + " " + candidate.sdp);
+    }
+
+    @Override
+    public void onBye() {
+      events.add("bye");
+    }
+
+    @Override
+    public void onServerError(String error) {
+      events.add("error " + error);
+    }
+  }
+
+  // SDP sized offer with a few KB of attribute lines.
+  private static SessionDescription offer() {
+    StringBuilder builder = new StringBuilder("v=0\r\n");
+    for (int i = 0; i < 80; i++) {
+      builder.append("a=candidate:").append(i)
+          .append(" 1 udp 2122260223 192.168.1.").append(i % 255)
+          .append(" 5").append(1000 + i).append(" typ host\r\n");
+    }
+    return new SessionDescription(
+        SessionDescription.Type.OFFER, builder.toString());
+  }
+
+  private static List<IceCandidate> candidates(int count) {
+    List<IceCandidate> candidates = new ArrayList<IceCandidate>();
+    for (int i = 0; i < count; i++) {
+      candidates.add(new IceCandidate(i % 2 == 0 ? "audio" : "video", i % 2,
+          "candidate:" + i + " 1 udp 2122260223 10.0.0." + i
+          + " 5" + (1000 + i) + " typ host generation 0"));
+    }
+    return candidates;
+  }
+
+  public void testEncodesEscapedStrings() throws IOException {
+    SignalingMessageCodec codec = new SignalingMessageCodec();
+    String tricky = "q\"b\\s/\r\n\t\u0001\u2028\u00e9";
+    String json = codec.encodeSessionDescription(
+        new SessionDescription(SessionDescription.Type.ANSWER, tricky));
+    assertEquals("{\"sdp\":\"q\\\"b\\\\s/\\r\\n\\t\\u0001\\u2028\u00e9\","
+        + "\"type\":\"answer\"}", json);
+
+    JsonReader reader = new JsonReader(new StringReader(json));
+    reader.beginObject();
+    assertEquals("sdp", reader.nextName());
+    assertEquals(tricky, reader.nextString());
+    reader.close();
+  }
+
+  public void testEncodesMessages() {
+    SignalingMessageCodec codec = new SignalingMessageCodec();
+    List<IceCandidate> candidates = candidates(2);
+    assertEquals("{\"type\":\"candidate\",\"label\":0,\"id\":\"audio\","
+        + "\"candidate\":\"" + candidates.get(0).sdp + "\"}",
+        codec.encodeIceCandidate(candidates.get(0)));
+    assertEquals("{\"type\":\"icecandidate\",\"peer\":\"p\",\"token\":\"t\","
+        + "\"payload\":{\"candidate\":{\"candidate\":\""
+        + candidates.get(0).sdp + "\",\"sdpMid\":\"audio\","
+        + "\"sdpMLineIndex\":0}}}",
+        codec.encodeSmokeSignalIceCandidates(
+            "p", "t", candidates.subList(0, 1)));
+    assertEquals("{\"type\":\"icecandidate\",\"peer\":\"p\","
+        + "\"payload\":{\"candidates\":[{\"candidate\":\""
+        + candidates.get(0).sdp + "\",\"sdpMid\":\"audio\","
+        + "\"sdpMLineIndex\":0},{\"candidate\":\""
+        + candidates.get(1).sdp + "\",\"sdpMid\":\"video\","
+        + "\"sdpMLineIndex\":1}]}}",
+        codec.encodeSmokeSignalIceCandidates("p", null, candidates));
+    // A compact SDP would be larger here, so it is sent as is.
+    assertEquals("{\"type\":\"answer\",\"peer\":\"p\",\"token\":\"t\","
+        + "\"payload\":{\"answer\":{\"type\":\"answer\",\"sdp\":\"v=0\"},"
+        + "\"sdpEncodings\":[\"" + SdpCompressor.ENCODING + "\"]}}",
+        codec.encodeSmokeSignalAnswer("p", "t", new SessionDescription(
+            SessionDescription.Type.ANSWER, "v=0"), true, null));
+    SessionDescription offer = offer();
+    String compressed = SdpCompressor.getInstance().compress(offer.description);
+    assertTrue(codec.encodeSmokeSignalAnswer("p", "t", offer, true, null).contains(
+        "\"sdpEncoding\":\"" + SdpCompressor.ENCODING + "\",\"sdp\":\""
+        + compressed + "\""));
+    // Offers advertise the encoding too, and use it when asked to.
+    assertEquals("{\"type\":\"offer\",\"token\":\"t\",\"payload\":"
+        + "{\"offer\":{\"type\":\"offer\",\"sdpEncoding\":\""
+        + SdpCompressor.ENCODING + "\",\"sdp\":\"" + compressed + "\"},"
+        + "\"sdpEncodings\":[\"" + SdpCompressor.ENCODING + "\"]}}",
+        codec.encodeSmokeSignalOffer(null, "t", offer, true));
+    assertEquals("{\"type\":\"bye\"}", codec.encodeBye());
+    assertEquals("{\"cmd\":\"register\",\"roomid\":\"r\",\"clientid\":\"c\"}",
+        codec.encodeRegister("r", "c"));
+    assertEquals("{\"cmd\":\"send\",\"msg\":\"{\\\"type\\\":\\\"bye\\\"}\"}",
+        codec.encodeSend(codec.encodeBye()));
+  }
+
+  public void testEncodesTraceFields() {
+    SignalingMessageCodec codec = new SignalingMessageCodec();
+    codec.setTraceId("t");
+    assertEquals("{\"type\":\"offer\",\"token\":\"k\",\"payload\":"
+        + "{\"offer\":{\"type\":\"offer\",\"sdp\":\"v=0\"},"
+        + "\"sdpEncodings\":[\"" + SdpCompressor.ENCODING + "\"],"
+        + "\"trace\":\"t\",\"cid\":\"t.1\"}}",
+        codec.encodeSmokeSignalOffer(null, "k", new SessionDescription(
+            SessionDescription.Type.OFFER, "v=0"), false));
+    assertEquals("t.1", codec.getLastCorrelationId());
+    assertEquals("{\"type\":\"answer\",\"peer\":\"p\",\"payload\":"
+        + "{\"answer\":{\"type\":\"answer\",\"sdp\":\"v=0\"},"
+        + "\"sdpEncodings\":[\"" + SdpCompressor.ENCODING + "\"],"
+        + "\"trace\":\"t\",\"cid\":\"t.2\",\"replyTo\":\"o.1\"}}",
+        codec.encodeSmokeSignalAnswer("p", null, new SessionDescription(
+            SessionDescription.Type.ANSWER, "v=0"), false, "o.1"));
+    assertEquals("t.2", codec.getLastCorrelationId());
+    // Wrappers are not messages of their own.
+    codec.encodeSend("{}");
+    assertNull(codec.getLastCorrelationId());
+    // AppRTC messages keep the server's format.
+    assertEquals("{\"type\":\"bye\"}", codec.encodeBye());
+    assertEquals("{\"sdp\":\"v=0\",\"type\":\"offer\"}",
+        codec.encodeSessionDescription(new SessionDescription(
+            SessionDescription.Type.OFFER, "v=0")));
+    assertNull(codec.getLastCorrelationId());
+    codec.setTraceId(null);
+    assertEquals("{\"type\":\"offer\",\"peer\":\"p\",\"token\":\"k\","
+        + "\"payload\":{\"offer\":{\"type\":\"offer\",\"sdp\":\"v=0\"},"
+        + "\"sdpEncodings\":[\"" + SdpCompressor.ENCODING + "\"]}}",
+        codec.encodeSmokeSignalOffer("p", "k", new SessionDescription(
+            SessionDescription.Type.OFFER, "v=0"), false));
+  }
+
+  public void testDecodesWebSocketMessages() throws IOException {
+    SignalingMessageCodec codec = new SignalingMessageCodec();
+    RecordingEvents events = new RecordingEvents();
+    IceCandidate candidate = candidates(1).get(0);
+    // Messages arrive wrapped the same way they are sent.
+    assertTrue(SignalingMessageCodec.decodeWebSocketMessage(
+        wrap(codec.encodeIceCandidate(candidate)), events));
+    assertTrue(SignalingMessageCodec.decodeWebSocketMessage(
+        wrap(codec.encodeSessionDescription(new SessionDescription(
+            SessionDescription.Type.ANSWER, "v=0\r\n"))), events));
+    assertTrue(SignalingMessageCodec.decodeWebSocketMessage(
+        wrap(codec.encodeBye()), events));
+    assertTrue(SignalingMessageCodec.decodeWebSocketMessage(
+        "{\"msg\":\"\",\"error\":\"Unknown client\"}", events));
+    assertFalse(SignalingMessageCodec.decodeWebSocketMessage(
+        "{\"msg\":\"\",\"error\":\"\"}", events));
+    assertFalse(SignalingMessageCodec.decodeWebSocketMessage(
+        wrap("{\"type\":\"unknown\"}"), events));
+    assertEquals("[candidate audio 0 " + candidate.sdp + ", ANSWER v=0\r\n, "
+        + "bye, error Unknown client]", events.events.toString());
+
+    try {
+      SignalingMessageCodec.decodeWebSocketMessage(
+          wrap("{\"type\":\"candidate\",\"id\":\"audio\"}"), events);
+      fail("Expected incomplete candidate to be rejected");
+    } catch (IOException e) {
+      // Expected.
+    }
+    try {
+      SignalingMessageCodec.decodeWebSocketMessage("[\"msg\"]", events);
+      fail("Expected malformed message to be rejected");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  public void testDecodesResult() throws IOException {
+    assertEquals("SUCCESS", SignalingMessageCodec.decodeResult(
+        "{\"params\":{\"a\":[1]},\"result\":\"SUCCESS\"}"));
+    assertNull(SignalingMessageCodec.decodeResult("{}"));
+  }
+
+  // Wraps |msg| the way the WebSocket server forwards messages.
+  private static String wrap(String msg) {
+    return new SignalingMessageCodec().encodeSend(msg)
+        .replace("\"cmd\":\"send\",", "");
+  }
+}
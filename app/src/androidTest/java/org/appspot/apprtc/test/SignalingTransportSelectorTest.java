@@ -0,0 +1,32 @@
+package org.appspot.apprtc.test;
+
+import org.appspot.apprtc.util.SignalingTransportSelector;
+import org.appspot.apprtc.util.SignalingTransportSelector.Transport;
+
+import android.test.InstrumentationTestCase;
+
+public class SignalingTransportSelectorTest extends InstrumentationTestCase {
+  private static final String ROOM_URL =
+      "http://selector-test.example.com:80/api/rooms/room";
+
+  public void testRemembersWinnerPerServer() {
+    SignalingTransportSelector selector = SignalingTransportSelector
+        .getInstance(getInstrumentation().getTargetContext());
+    selector.invalidate(ROOM_URL);
+    assertNull(selector.getCachedTransport(ROOM_URL));
+
+    selector.reportRace(ROOM_URL, Transport.EVENT_STREAM, 80, 200);
+    assertEquals("EVENT_STREAM by 120 ms (80 vs 200 ms)",
+        selector.getLastResult());
+    // Choices apply to every room of the server.
+    assertEquals(Transport.EVENT_STREAM, selector.getCachedTransport(
+        "http://selector-test.example.com:80/api/rooms/other"));
+    assertNull(selector.getCachedTransport(
+        "http://other.example.com:80/api/rooms/room"));
+
+    selector.reportRace(ROOM_URL, Transport.WEB_SOCKET, 50, -1);
+    assertEquals(Transport.WEB_SOCKET, selector.getCachedTransport(ROOM_URL));
+    selector.invalidate(ROOM_URL);
+    assertNull(selector.getCachedTransport(ROOM_URL));
+  }
+}
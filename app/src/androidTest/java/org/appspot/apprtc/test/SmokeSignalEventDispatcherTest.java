@@ -0,0 +1,197 @@
+package org.appspot.apprtc.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.appspot.apprtc.SignalingMessageCodec;
+import org.appspot.apprtc.SmokeSignalEventDispatcher;
+import org.appspot.apprtc.SmokeSignalEventDispatcher.SmokeSignalEvents;
+import org.appspot.apprtc.sdp.SdpCompressor;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import android.test.InstrumentationTestCase;
+
+public class SmokeSignalEventDispatcherTest extends InstrumentationTestCase {
+
+  private static class RecordingEvents implements SmokeSignalEvents {
+    final List<String> events = new ArrayList<String>();
+
+    @Override
+    public void onUid(String uid, String token) {
+      events.add("uid " + uid + " " + token);
+    }
+
+    @Override
+    public void onTrace(String event, String trace, String correlationId,
+        String replyTo) {
+      events.add("trace " + event + " " + trace + " " + correlationId + " "
+          + replyTo);
+    }
+
+    @Override
+    public void onOffer(String peer, SessionDescription offer,
+        String sdpEncoding) {
+      events.add("offer " + peer + " " + offer.type + " " + offer.description
+          + (sdpEncoding != null ? " " + sdpEncoding : ""));
+    }
+
+    @Override
+    public void onAnswer(String peer, String sdpEncoding) {
+      events.add("answer " + peer
+          + (sdpEncoding != null ? " " + sdpEncoding : ""));
+    }
+
+    @Override
+    public void onIceCandidate(String peer, IceCandidate candidate) {
+      events.add("candidate " + candidate.sdpMid + " "
+          + candidate.sdpMLineIndex + " " + candidate.sdp);
+    }
+
+    @Override
+    public void onBuddyLeft(String peer) {
+      events.add("buddyleft " + peer);
+    }
+
+    @Override
+    public void onNewBuddy() {
+      events.add("newbuddy");
+    }
+  }
+
+  public void testDecodesEvents() throws IOException {
+    RecordingEvents events = new RecordingEvents();
+    assertTrue(SmokeSignalEventDispatcher.dispatch("uid",
+        "{\"token\":\"t\",\"extra\":{\"a\":[1,2]},\"uid\":\"u\"}", events));
+    assertTrue(SmokeSignalEventDispatcher.dispatch("offer",
+        "{\"peer\":\"p\",\"offer\":{\"sdp\":\"v=0\\r\\n\",\"type\":\"offer\"}}",
+        events));
+    assertTrue(SmokeSignalEventDispatcher.dispatch("icecandidate",
+        "{\"peer\":\"p\",\"candidate\":{\"candidate\":\"c1\","
+        + "\"sdpMid\":\"audio\",\"sdpMLineIndex\":0}}", events));
+    assertTrue(SmokeSignalEventDispatcher.dispatch("icecandidate",
+        "{\"peer\":\"p\",\"candidates\":["
+        + "{\"sdpMLineIndex\":1,\"sdpMid\":\"video\",\"candidate\":\"c2\"},"
+        + "{\"sdpMLineIndex\":1,\"sdpMid\":\"video\",\"candidate\":\"c3\"}]}",
+        events));
+    assertTrue(SmokeSignalEventDispatcher.dispatch("buddyleft",
+        "{\"peer\":\"p\"}", events));
+    assertTrue(SmokeSignalEventDispatcher.dispatch("newbuddy", "{}", events));
+    assertFalse(SmokeSignalEventDispatcher.dispatch("unknown", "{", events));
+    assertEquals("[uid u t, offer p OFFER v=0\r\n, candidate audio 0 c1, "
+        + "candidate video 1 c2, candidate video 1 c3, buddyleft p, newbuddy]",
+        events.events.toString());
+  }
+
+  public void testDecodesCompactOffer() throws IOException {
+    RecordingEvents events = new RecordingEvents();
+    String sdp = "v=0\r\na=group:BUNDLE audio video\r\n";
+    assertTrue(SmokeSignalEventDispatcher.dispatch("offer",
+        "{\"peer\":\"p\",\"offer\":{\"type\":\"offer\",\"sdpEncoding\":\""
+        + SdpCompressor.ENCODING + "\",\"sdp\":\""
+        + SdpCompressor.getInstance().compress(sdp) + "\"},"
+        + "\"sdpEncodings\":[\"gzip\",\"" + SdpCompressor.ENCODING + "\"]}",
+        events));
+    assertEquals("[offer p OFFER " + sdp + " " + SdpCompressor.ENCODING + "]",
+        events.events.toString());
+    try {
+      SmokeSignalEventDispatcher.dispatch("offer",
+          "{\"peer\":\"p\",\"offer\":{\"type\":\"offer\","
+          + "\"sdpEncoding\":\"gzip\",\"sdp\":\"H4sI\"}}", events);
+      fail("Expected unsupported SDP encoding to be rejected");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  public void testNegotiatesCompactSdpBothWays() throws IOException {
+    SignalingMessageCodec codec = new SignalingMessageCodec();
+    SessionDescription offer = new SessionDescription(
+        SessionDescription.Type.OFFER, SdpCorpus.load(
+            getInstrumentation().getContext()).get("chrome_offer.sdp"));
+    RecordingEvents events = new RecordingEvents();
+    // A plain first offer tells the answerer it may answer compactly.
+    assertTrue(SmokeSignalEventDispatcher.dispatch("offer",
+        relay(codec.encodeSmokeSignalOffer(null, "k", offer, false), "a"),
+        events));
+    // The answer tells the offerer that re-offers may be compact.
+    assertTrue(SmokeSignalEventDispatcher.dispatch("answer",
+        relay(codec.encodeSmokeSignalAnswer("a", "k", new SessionDescription(
+            SessionDescription.Type.ANSWER, "v=0"), true, null), "b"),
+        events));
+    String reoffer = codec.encodeSmokeSignalOffer("b", "k", offer, true);
+    assertTrue(reoffer.length() < offer.description.length() / 2);
+    assertTrue(SmokeSignalEventDispatcher.dispatch("offer",
+        relay(reoffer, "a"), events));
+    String plain = "offer a OFFER " + offer.description + " "
+        + SdpCompressor.ENCODING;
+    assertEquals("[" + plain + ", answer b " + SdpCompressor.ENCODING + ", "
+        + plain + "]", events.events.toString());
+  }
+
+  public void testDecodesTraceFields() throws IOException {
+    RecordingEvents events = new RecordingEvents();
+    assertTrue(SmokeSignalEventDispatcher.dispatch("offer",
+        "{\"cid\":\"t.1\",\"peer\":\"p\",\"trace\":\"t\","
+        + "\"offer\":{\"type\":\"offer\",\"sdp\":\"v=0\"}}", events));
+    assertTrue(SmokeSignalEventDispatcher.dispatch("answer",
+        "{\"peer\":\"p\",\"answer\":{\"type\":\"answer\",\"sdp\":\"v=0\"},"
+        + "\"trace\":\"t\",\"cid\":\"t.2\",\"replyTo\":\"t.1\"}", events));
+    assertTrue(SmokeSignalEventDispatcher.dispatch("answer",
+        "{\"peer\":\"p\"}", events));
+    // Trace fields are reported ahead of their event.
+    assertEquals("[trace offer t t.1 null, offer p OFFER v=0, "
+        + "trace answer t t.2 t.1, answer p, answer p]",
+        events.events.toString());
+  }
+
+  public void testDecodesEncodedTraceFields() throws IOException {
+    SignalingMessageCodec offerer = new SignalingMessageCodec();
+    offerer.setTraceId("t");
+    String offer = offerer.encodeSmokeSignalOffer(null, "k",
+        new SessionDescription(SessionDescription.Type.OFFER, "v=0"), false);
+    RecordingEvents events = new RecordingEvents();
+    assertTrue(SmokeSignalEventDispatcher.dispatch("offer",
+        relay(offer, "a"), events));
+
+    // The answer refers to the offer's correlation id, which ends the
+    // offer to answer span on the offerer.
+    SignalingMessageCodec answerer = new SignalingMessageCodec();
+    answerer.setTraceId("t");
+    String answer = answerer.encodeSmokeSignalAnswer("a", "k",
+        new SessionDescription(SessionDescription.Type.ANSWER, "v=0"), false,
+        offerer.getLastCorrelationId());
+    assertTrue(SmokeSignalEventDispatcher.dispatch("answer",
+        relay(answer, "b"), events));
+    assertEquals("[trace offer t t.1 null, offer a OFFER v=0 "
+        + SdpCompressor.ENCODING + ", trace answer t t.1 t.1, answer b "
+        + SdpCompressor.ENCODING + "]", events.events.toString());
+  }
+
+  public void testMalformedEvent() {
+    try {
+      SmokeSignalEventDispatcher.dispatch("offer", "{\"peer\":\"p\"}",
+          new RecordingEvents());
+      fail("Expected offer without description to be rejected");
+    } catch (IOException e) {
+      // Expected.
+    }
+    try {
+      SmokeSignalEventDispatcher.dispatch("uid", "[]", new RecordingEvents());
+      fail("Expected malformed uid event to be rejected");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  // Returns the event data the server relays for |message|, sent by |peer|:
+  // the message's "payload" together with the sender.
+  private static String relay(String message, String peer) {
+    String payload = "\"payload\":{";
+    int start = message.indexOf(payload);
+    assertTrue(message, start > 0 && message.endsWith("}}"));
+    return "{\"peer\":\"" + peer + "\","
+        + message.substring(start + payload.length(), message.length() - 1);
+  }
+}
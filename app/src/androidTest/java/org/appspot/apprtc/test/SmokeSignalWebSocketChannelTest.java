@@ -0,0 +1,154 @@
+package org.appspot.apprtc.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.appspot.apprtc.SmokeSignalWebSocketChannel;
+import org.appspot.apprtc.util.EventStreamParser;
+import org.appspot.apprtc.util.LooperExecutor;
+
+import android.test.InstrumentationTestCase;
+
+public class SmokeSignalWebSocketChannelTest extends InstrumentationTestCase {
+  private static final int WAIT_TIMEOUT = 10000;
+  // Nothing listens on port 1, so connecting fails right away.
+  private static final String UNREACHABLE_ROOM_URL =
+      "http://127.0.0.1:1/api/rooms/room";
+
+  private static class RecordingListener
+      implements EventStreamParser.EventStreamListener {
+    final List<String> events = new ArrayList<String>();
+
+    @Override
+    public void onEvent(String event, String data, String id) {
+      events.add(event + "|" + data + "|" + id);
+    }
+
+    @Override
+    public void onRetry(long retryMs) {
+    }
+  }
+
+  private static class RecordingEvents
+      implements SmokeSignalWebSocketChannel.SmokeSignalWebSocketEvents {
+    final CountDownLatch closed = new CountDownLatch(1);
+    boolean opened;
+    String closeReason;
+
+    @Override
+    public void onWebSocketOpen() {
+      opened = true;
+    }
+
+    @Override
+    public void onWebSocketEvent(String event, String data) {
+    }
+
+    @Override
+    public void onWebSocketClose(String reason) {
+      closeReason = reason;
+      closed.countDown();
+    }
+  }
+
+  public void testWebSocketUrl() {
+    assertEquals("ws://signalcast.herokuapp.com:80/api/rooms/room/ws",
+        SmokeSignalWebSocketChannel.getWebSocketUrl(
+            "http://signalcast.herokuapp.com:80/api/rooms/room"));
+    assertEquals("wss://example.com/api/rooms/room/ws",
+        SmokeSignalWebSocketChannel.getWebSocketUrl(
+            "https://example.com/api/rooms/room/"));
+  }
+
+  public void testProbeUrl() {
+    assertEquals("wss://example.com/api/rooms/room/ws?probe=1",
+        SmokeSignalWebSocketChannel.getProbeUrl(
+            "https://example.com/api/rooms/room"));
+  }
+
+  public void testParsesFrames() throws Exception {
+    RecordingListener listener = new RecordingListener();
+    EventStreamParser parser = new EventStreamParser(listener);
+    // A complete frame, one without the final blank line, multi-line data
+    // and UTF-8 data.
+    SmokeSignalWebSocketChannel.parseFrame(parser,
+        "event: uid\ndata: {\"uid\":\"a\"}\nid: 1\n\n".getBytes("UTF-8"));
+    SmokeSignalWebSocketChannel.parseFrame(parser,
+        "event: offer\r\ndata: v=0\r\nid: 2".getBytes("UTF-8"));
+    SmokeSignalWebSocketChannel.parseFrame(parser,
+        "event: candidate\ndata: a\ndata: b\n".getBytes("UTF-8"));
+    SmokeSignalWebSocketChannel.parseFrame(parser,
+        "event: newbuddy\ndata: r\u00e9mi".getBytes("UTF-8"));
+    assertEquals("[uid|{\"uid\":\"a\"}|1, offer|v=0|2, candidate|a\nb|null, "
+        + "newbuddy|r\u00e9mi|null]", listener.events.toString());
+    // Ids carry over to the event stream when the room falls back to it.
+    assertEquals("2", parser.getLastEventId());
+  }
+
+  public void testFrameBoundaryCompletesEvent() throws Exception {
+    RecordingListener listener = new RecordingListener();
+    EventStreamParser parser = new EventStreamParser(listener);
+    // A frame is one event: data of the next frame is not appended to it.
+    SmokeSignalWebSocketChannel.parseFrame(parser,
+        "data: first".getBytes("UTF-8"));
+    SmokeSignalWebSocketChannel.parseFrame(parser,
+        "data: second".getBytes("UTF-8"));
+    assertEquals("[message|first|null, message|second|null]",
+        listener.events.toString());
+  }
+
+  public void testConnectFailureReportsClose() throws Exception {
+    final RecordingEvents events = new RecordingEvents();
+    final LooperExecutor executor = new LooperExecutor();
+    final SmokeSignalWebSocketChannel[] channel =
+        new SmokeSignalWebSocketChannel[1];
+    executor.requestStart();
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        channel[0] = new SmokeSignalWebSocketChannel(executor, events);
+        channel[0].connect(UNREACHABLE_ROOM_URL);
+      }
+    });
+    // The client falls back to the event stream on this event, within the
+    // connect timeout.
+    assertTrue(events.closed.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+    assertFalse(events.opened);
+    assertNotNull(events.closeReason);
+
+    final CountDownLatch sent = new CountDownLatch(1);
+    final boolean[] sendResult = new boolean[1];
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        assertFalse(channel[0].isOpen());
+        // Messages are POSTed instead.
+        sendResult[0] = channel[0].send("{}");
+        sent.countDown();
+      }
+    });
+    assertTrue(sent.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS));
+    assertFalse(sendResult[0]);
+    executor.requestStop();
+  }
+
+  public void testDisconnectSuppressesClose() throws Exception {
+    final RecordingEvents events = new RecordingEvents();
+    final LooperExecutor executor = new LooperExecutor();
+    executor.requestStart();
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        SmokeSignalWebSocketChannel channel =
+            new SmokeSignalWebSocketChannel(executor, events);
+        channel.connect(UNREACHABLE_ROOM_URL);
+        channel.disconnect();
+      }
+    });
+    // A disconnected channel must not make the client fall back.
+    assertFalse(events.closed.await(1000, TimeUnit.MILLISECONDS));
+    executor.requestStop();
+  }
+}
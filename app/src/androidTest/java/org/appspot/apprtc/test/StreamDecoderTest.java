@@ -0,0 +1,86 @@
+package org.appspot.apprtc.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+
+import org.appspot.apprtc.util.StreamDecoder;
+
+import android.test.InstrumentationTestCase;
+
+public class StreamDecoderTest extends InstrumentationTestCase {
+  private static final int MAX_BYTES = 1024 * 1024;
+
+  // Input stream returning at most |chunk| bytes per read, to split
+  // multi-byte sequences across buffer boundaries.
+  private static class ChunkedInputStream extends FilterInputStream {
+    private final int chunk;
+
+    public ChunkedInputStream(byte[] data, int chunk) {
+      super(new ByteArrayInputStream(data));
+      this.chunk = chunk;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      return super.read(buffer, offset, Math.min(length, chunk));
+    }
+  }
+
+  // SDP sized payload: a few KB of attribute lines.
+  private static String sdpPayload() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("{\"type\":\"offer\",\"sdp\":\"v=0\\r\\n");
+    for (int i = 0; i < 80; i++) {
+      builder.append("a=candidate:").append(i)
+          .append(" 1 udp 2122260223 192.168.1.").append(i % 255)
+          .append(" 5").append(1000 + i).append(" typ host\\r\\n");
+    }
+    return builder.append("\"}").toString();
+  }
+
+  // Room configuration sized payload with non-ASCII content.
+  private static String roomPayload() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("{\"params\":{");
+    for (int i = 0; i < 40; i++) {
+      builder.append("\"key").append(i).append("\":\"valeur \u00e9\u20ac")
+          .append(i).append("\",");
+    }
+    return builder.append("\"room_id\":\"r\u00f6\u00f6m\"}}").toString();
+  }
+
+  public void testDecodesAcrossChunkBoundaries() throws IOException {
+    String payload = roomPayload() + "\uD834\uDD1E" + sdpPayload();
+    byte[] data = payload.getBytes("UTF-8");
+    for (int chunk = 1; chunk < 8; chunk++) {
+      assertEquals(payload, StreamDecoder.readFully(
+          new ChunkedInputStream(data, chunk), MAX_BYTES));
+    }
+    assertEquals("", StreamDecoder.readFully(
+        new ByteArrayInputStream(new byte[0]), MAX_BYTES));
+  }
+
+  public void testSizeLimit() throws IOException {
+    byte[] data = sdpPayload().getBytes("UTF-8");
+    try {
+      StreamDecoder.readFully(new ByteArrayInputStream(data), data.length - 1);
+      fail("Expected size limit to be enforced");
+    } catch (IOException e) {
+      // Expected.
+    }
+    assertEquals(data.length, StreamDecoder.readFully(
+        new ByteArrayInputStream(data), data.length).length());
+  }
+
+  public void testCountsBytesNotChars() throws IOException {
+    String payload = roomPayload();
+    byte[] data = payload.getBytes("UTF-8");
+    assertTrue(data.length > payload.length());
+    assertEquals(payload, StreamDecoder.readFully(
+        new ChunkedInputStream(data, 3), MAX_BYTES));
+    assertEquals(data.length, StreamDecoder.getLastByteCount());
+    StreamDecoder.readFully(new ByteArrayInputStream(new byte[0]), MAX_BYTES);
+    assertEquals(0, StreamDecoder.getLastByteCount());
+  }
+}
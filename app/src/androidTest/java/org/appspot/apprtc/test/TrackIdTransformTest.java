@@ -0,0 +1,45 @@
+package org.appspot.apprtc.test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.appspot.apprtc.sdp.SdpSession;
+import org.appspot.apprtc.sdp.TrackIdTransform;
+
+import android.test.InstrumentationTestCase;
+
+public class TrackIdTransformTest extends InstrumentationTestCase {
+  private Map<String, String> corpus;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    corpus = SdpCorpus.load(getInstrumentation().getContext());
+  }
+
+  private static String rename(String sdp, String oldId, String newId) {
+    return SdpSession.transform(sdp, Collections.singletonList(
+        new TrackIdTransform(oldId, newId)));
+  }
+
+  public void testRenamesMsidAndLabel() {
+    String sdp = corpus.get("libjingle_answer.sdp");
+    String renamed = rename(sdp, "ARDAMSv0", "ARDAMSv0backFacing");
+    assertEquals(sdp.replace(" ARDAMSv0\r\n", " ARDAMSv0backFacing\r\n")
+        .replace(":ARDAMSv0\r\n", ":ARDAMSv0backFacing\r\n"), renamed);
+    assertEquals(4, renamed.split("ARDAMSv0backFacing").length - 1);
+    assertEquals(sdp, rename(renamed, "ARDAMSv0backFacing", "ARDAMSv0"));
+
+    String chrome = corpus.get("chrome_offer.sdp");
+    String track = "4c5b07bb-57d4-44c6-9d0a-8a7bd0e06b7e";
+    assertEquals(chrome.replace(track, "camera2"),
+        rename(chrome, track, "camera2"));
+  }
+
+  public void testMatchesWholeIdsOnly() {
+    String sdp = corpus.get("libjingle_answer.sdp");
+    // Prefix of the track id and the stream id.
+    assertEquals(sdp, rename(sdp, "ARDAMSv", "x"));
+    assertEquals(sdp, rename(sdp, "ARDAMS", "x"));
+  }
+}
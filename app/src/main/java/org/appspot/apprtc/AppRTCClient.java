@@ -59,6 +59,11 @@ public interface AppRTCClient {
    */
   public void sendLocalIceCandidate(final IceCandidate candidate);
 
+  /**
+   * Send any local Ice candidates held back for batching immediately.
+   */
+  public void flushLocalIceCandidates();
+
   /**
    * Disconnect from room.
    */
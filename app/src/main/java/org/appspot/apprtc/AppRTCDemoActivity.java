@@ -28,6 +28,12 @@
 package org.appspot.apprtc;
 
 import org.appspot.apprtc.AppRTCClient.SignalingParameters;
+import org.appspot.apprtc.sdp.CodecPreferenceTransform;
+import org.appspot.apprtc.util.BandwidthPolicy;
+import org.appspot.apprtc.util.CallTimeline;
+import org.appspot.apprtc.util.MetricsRegistry;
+import org.appspot.apprtc.util.SignalingExecutor;
+import org.appspot.apprtc.util.SignalingTransportSelector;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -94,8 +100,16 @@ public class AppRTCDemoActivity extends Activity
   private int runTimeMs;
   private int startBitrate;
   private boolean hwCodec;
+  private boolean bandwidthPolicyEnabled;
+  private String audioCodecs;
+  private String videoCodecs;
+  private String strippedCodecs;
   private boolean iceConnected;
+  // True from connecting to the room until the call is torn down.
+  private boolean callStarted;
   private boolean isError;
+  private final CallTimeline callTimeline = new CallTimeline();
+  private IceCandidateFilter iceCandidateFilter;
 
   @Override
   public void onCreate(Bundle savedInstanceState) {
@@ -216,13 +230,45 @@ public class AppRTCDemoActivity extends Activity
     runTimeMs = intent.getIntExtra(ConnectActivity.EXTRA_RUNTIME, 0);
     startBitrate = intent.getIntExtra(ConnectActivity.EXTRA_BITRATE, 0);
     hwCodec = intent.getBooleanExtra(ConnectActivity.EXTRA_HWCODEC, true);
+    bandwidthPolicyEnabled = intent.getBooleanExtra(
+        ConnectActivity.EXTRA_BANDWIDTH_POLICY, true);
+    audioCodecs = intent.getStringExtra(ConnectActivity.EXTRA_AUDIO_CODECS);
+    if (audioCodecs == null) {
+      audioCodecs = getString(R.string.pref_audio_codecs_default);
+    }
+    videoCodecs = intent.getStringExtra(ConnectActivity.EXTRA_VIDEO_CODECS);
+    strippedCodecs =
+        intent.getStringExtra(ConnectActivity.EXTRA_STRIPPED_CODECS);
+    boolean webSocketSignaling = intent.getBooleanExtra(
+        ConnectActivity.EXTRA_WEBSOCKET_SIGNALING, false);
+    String iceTypes = intent.getStringExtra(ConnectActivity.EXTRA_ICE_TYPES);
+    IceCandidateFilter.CandidateTypes candidateTypes =
+        IceCandidateFilter.CandidateTypes.ALL;
+    if (iceTypes != null) {
+      try {
+        candidateTypes = IceCandidateFilter.CandidateTypes.valueOf(iceTypes);
+      } catch (IllegalArgumentException e) {
+        Log.e(TAG, "Wrong ICE candidate types setting: " + iceTypes);
+      }
+    }
+    iceCandidateFilter = new IceCandidateFilter(
+        intent.getBooleanExtra(ConnectActivity.EXTRA_ICE_TCP, false),
+        candidateTypes,
+        intent.getBooleanExtra(ConnectActivity.EXTRA_ICE_LINK_LOCAL, true),
+        intent.getBooleanExtra(ConnectActivity.EXTRA_ICE_DEDUP, true));
 
     if (url != null) {
       if (loopback || (roomName != null && !roomName.equals(""))) {
         // Start room connection.
         logAndToast(getString(R.string.connecting_to, url));
 //        appRtcClient = new WebSocketRTCClient(this);
-        appRtcClient = new EventSourceRTCClient(this, roomName);
+        EventSourceRTCClient eventSourceClient =
+            new EventSourceRTCClient(this, roomName);
+        eventSourceClient.setWebSocketEnabled(webSocketSignaling);
+        eventSourceClient.setTransportSelector(
+            SignalingTransportSelector.getInstance(this));
+        eventSourceClient.setCallTimeline(callTimeline);
+        appRtcClient = eventSourceClient;
         appRtcClient.connectToRoom(url.toString(), loopback);
         if (loopback) {
           roomNameView.setText("loopback");
@@ -342,6 +388,15 @@ public class AppRTCDemoActivity extends Activity
 
   // Disconnect from remote resources, dispose of local resources, and exit.
   private void disconnect() {
+    Log.d(TAG, "Call timeline: " + callTimeline);
+    if (callStarted) {
+      callStarted = false;
+      Log.d(TAG, "Local ICE candidates: " + iceCandidateFilter.getStats());
+      if (bandwidthPolicyEnabled) {
+        BandwidthPolicy.getInstance(this).endCall();
+      }
+    }
+    MetricsRegistry.getInstance().log();
     if (appRtcClient != null) {
       appRtcClient.disconnectFromRoom();
       appRtcClient = null;
@@ -436,6 +491,14 @@ public class AppRTCDemoActivity extends Activity
       }
       builder.append("\n");
     }
+    // Signaling request latency breakdown.
+    builder.append(MetricsRegistry.getInstance().dump());
+    builder.append("signaling executor: ")
+        .append(SignalingExecutor.getInstance().getStats()).append("\n");
+    builder.append("signaling transport: ")
+        .append(SignalingTransportSelector.getInstance(this).getLastResult())
+        .append("\n");
+    builder.append("call timeline: ").append(callTimeline).append("\n\n");
     hudView.setText(builder.toString() + hudView.getText());
   }
 
@@ -447,6 +510,27 @@ public class AppRTCDemoActivity extends Activity
     return reportMap;
   }
 
+  // Feed the send bandwidth estimate in |reports| to the bandwidth policy.
+  private void reportSendBandwidth(StatsReport[] reports) {
+    if (!iceConnected) {
+      return;
+    }
+    for (StatsReport report : reports) {
+      if (report.id.equals("bweforvideo")) {
+        String sendBandwidth =
+            getReportMap(report).get("googAvailableSendBandwidth");
+        if (sendBandwidth != null) {
+          try {
+            BandwidthPolicy.getInstance(this).reportBitrate(
+                Integer.parseInt(sendBandwidth) / 1000);
+          } catch (NumberFormatException e) {
+            Log.e(TAG, "Invalid send bandwidth: " + sendBandwidth);
+          }
+        }
+      }
+    }
+  }
+
   // Update encoder statistics view with information from |reports|.
   private void updateEncoderStatistics(StatsReport[] reports) {
     if (!iceConnected) {
@@ -488,6 +572,7 @@ public class AppRTCDemoActivity extends Activity
   // are routed to UI thread.
   private void onConnectedToRoomInternal(final SignalingParameters params) {
     signalingParameters = params;
+    callStarted = true;
     logAndToast("Creating peer connection...");
     if (pc == null) {
       // Create peer connection factory if render EGL context ready event
@@ -495,6 +580,13 @@ public class AppRTCDemoActivity extends Activity
       pc = new PeerConnectionClient();
       pc.createPeerConnectionFactory(this, hwCodec, VideoRendererGui.getEGLContext(), this);
     }
+    pc.setCodecPreferences(
+        CodecPreferenceTransform.parseCodecList(audioCodecs),
+        CodecPreferenceTransform.parseCodecList(videoCodecs),
+        CodecPreferenceTransform.parseCodecList(strippedCodecs));
+    if (bandwidthPolicyEnabled) {
+      pc.setBandwidthPolicy(BandwidthPolicy.getInstance(this).startCall());
+    }
     pc.createPeerConnection(localRender, remoteRender, signalingParameters, startBitrate);
     if (pc.isHDVideo()) {
       setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE);
@@ -509,8 +601,11 @@ public class AppRTCDemoActivity extends Activity
           return;
         }
         final Runnable runnableThis = this;
+        // The bandwidth policy needs the send bandwidth estimate even while
+        // statistics are hidden.
         if (hudView.getVisibility() == View.INVISIBLE
-            && encoderStatView.getVisibility() == View.INVISIBLE) {
+            && encoderStatView.getVisibility() == View.INVISIBLE
+            && !bandwidthPolicyEnabled) {
           videoView.postDelayed(runnableThis, 1000);
           return;
         }
@@ -518,6 +613,9 @@ public class AppRTCDemoActivity extends Activity
             public void onComplete(final StatsReport[] reports) {
               runOnUiThread(new Runnable() {
                   public void run() {
+                    if (bandwidthPolicyEnabled) {
+                      reportSendBandwidth(reports);
+                    }
                     if (hudView.getVisibility() == View.VISIBLE) {
                       updateHUD(reports);
                     }
@@ -636,19 +734,32 @@ public class AppRTCDemoActivity extends Activity
     runOnUiThread(new Runnable() {
       @Override
       public void run() {
-        if (appRtcClient != null) {
+        if (appRtcClient != null && iceCandidateFilter.accept(candidate)) {
           appRtcClient.sendLocalIceCandidate(candidate);
         }
       }
     });
   }
 
+  @Override
+  public void onIceGatheringComplete() {
+    runOnUiThread(new Runnable() {
+      @Override
+      public void run() {
+        if (appRtcClient != null) {
+          appRtcClient.flushLocalIceCandidates();
+        }
+      }
+    });
+  }
+
   @Override
   public void onIceConnected() {
     runOnUiThread(new Runnable() {
       @Override
       public void run() {
         logAndToast("ICE connected");
+        callTimeline.mark(CallTimeline.Phase.ICE_CONNECTED);
         iceConnected = true;
         updateVideoView();
       }
@@ -50,6 +50,7 @@ import android.widget.ImageButton;
 import android.widget.ListView;
 import android.widget.TextView;
 
+import org.appspot.apprtc.util.ConnectionPrewarmer;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.webrtc.MediaCodecVideoEncoder;
@@ -67,7 +68,22 @@ public class ConnectActivity extends Activity {
   public static final String EXTRA_CMDLINE = "org.appspot.apprtc.CMDLINE";
   public static final String EXTRA_RUNTIME = "org.appspot.apprtc.RUNTIME";
   public static final String EXTRA_BITRATE = "org.appspot.apprtc.BITRATE";
+  public static final String EXTRA_BANDWIDTH_POLICY =
+      "org.appspot.apprtc.BANDWIDTH_POLICY";
   public static final String EXTRA_HWCODEC = "org.appspot.apprtc.HWCODEC";
+  public static final String EXTRA_AUDIO_CODECS =
+      "org.appspot.apprtc.AUDIO_CODECS";
+  public static final String EXTRA_VIDEO_CODECS =
+      "org.appspot.apprtc.VIDEO_CODECS";
+  public static final String EXTRA_STRIPPED_CODECS =
+      "org.appspot.apprtc.STRIPPED_CODECS";
+  public static final String EXTRA_WEBSOCKET_SIGNALING =
+      "org.appspot.apprtc.WEBSOCKET_SIGNALING";
+  public static final String EXTRA_ICE_TCP = "org.appspot.apprtc.ICE_TCP";
+  public static final String EXTRA_ICE_TYPES = "org.appspot.apprtc.ICE_TYPES";
+  public static final String EXTRA_ICE_LINK_LOCAL =
+      "org.appspot.apprtc.ICE_LINK_LOCAL";
+  public static final String EXTRA_ICE_DEDUP = "org.appspot.apprtc.ICE_DEDUP";
   private static final String TAG = "ConnectActivity";
   private static final int CONNECTION_REQUEST = 1;
   private static boolean commandLineRun = false;
@@ -85,6 +101,15 @@ public class ConnectActivity extends Activity {
   private String keyprefBitrateValue;
   private String keyprefHwCodec;
   private String keyprefCpuUsageDetection;
+  private String keyprefSignaling;
+  private String keyprefBandwidthPolicy;
+  private String keyprefAudioCodecs;
+  private String keyprefVideoCodecs;
+  private String keyprefStrippedCodecs;
+  private String keyprefIceTcp;
+  private String keyprefIceTypes;
+  private String keyprefIceLinkLocal;
+  private String keyprefIceDedup;
   private String keyprefRoomServerUrl;
   private String keyprefRoom;
   private String keyprefRoomList;
@@ -104,6 +129,15 @@ public class ConnectActivity extends Activity {
     keyprefBitrateValue = getString(R.string.pref_startbitratevalue_key);
     keyprefHwCodec = getString(R.string.pref_hwcodec_key);
     keyprefCpuUsageDetection = getString(R.string.pref_cpu_usage_detection_key);
+    keyprefSignaling = getString(R.string.pref_signaling_key);
+    keyprefBandwidthPolicy = getString(R.string.pref_bandwidth_policy_key);
+    keyprefAudioCodecs = getString(R.string.pref_audio_codecs_key);
+    keyprefVideoCodecs = getString(R.string.pref_video_codecs_key);
+    keyprefStrippedCodecs = getString(R.string.pref_stripped_codecs_key);
+    keyprefIceTcp = getString(R.string.pref_ice_tcp_key);
+    keyprefIceTypes = getString(R.string.pref_ice_types_key);
+    keyprefIceLinkLocal = getString(R.string.pref_ice_link_local_key);
+    keyprefIceDedup = getString(R.string.pref_ice_dedup_key);
     keyprefRoomServerUrl = getString(R.string.pref_room_server_url_key);
     keyprefRoom = getString(R.string.pref_room_key);
     keyprefRoomList = getString(R.string.pref_room_list_key);
@@ -127,6 +161,7 @@ public class ConnectActivity extends Activity {
 
     roomListView = (ListView) findViewById(R.id.room_listview);
     roomListView.setChoiceMode(ListView.CHOICE_MODE_SINGLE);
+    roomListView.setOnItemClickListener(roomSelectedListener);
 
     addRoomButton = (ImageButton) findViewById(R.id.add_room_button);
     addRoomButton.setOnClickListener(addRoomListener);
@@ -205,6 +240,7 @@ public class ConnectActivity extends Activity {
       roomListView.requestFocus();
       roomListView.setItemChecked(0, true);
     }
+    prewarmRoomServer();
   }
 
   @Override
@@ -229,6 +265,26 @@ public class ConnectActivity extends Activity {
     }
   };
 
+  private final AdapterView.OnItemClickListener roomSelectedListener =
+      new AdapterView.OnItemClickListener() {
+    @Override
+    public void onItemClick(
+        AdapterView<?> parent, View view, int position, long id) {
+      prewarmRoomServer();
+    }
+  };
+
+  // Open a connection to the room server ahead of the connect tap, so the
+  // first signaling request of the call does not pay for DNS, TCP and TLS.
+  private void prewarmRoomServer() {
+    String url = sharedPref.getString(
+        keyprefRoomServerUrl,
+        getString(R.string.pref_room_server_url_default));
+    if (URLUtil.isHttpsUrl(url) || URLUtil.isHttpUrl(url)) {
+      ConnectionPrewarmer.getInstance().prewarm(url);
+    }
+  }
+
   private String appendQueryParameter(String url, String parameter) {
     String newUrl = url;
     if (newUrl.contains("?")) {
@@ -261,6 +317,28 @@ public class ConnectActivity extends Activity {
     boolean hwCodec = sharedPref.getBoolean(keyprefHwCodec,
         Boolean.valueOf(getString(R.string.pref_hwcodec_default)));
 
+    // Get codec preferences.
+    String audioCodecs = sharedPref.getString(keyprefAudioCodecs,
+        getString(R.string.pref_audio_codecs_default));
+    String videoCodecs = sharedPref.getString(keyprefVideoCodecs,
+        getString(R.string.pref_video_codecs_default));
+    String strippedCodecs = sharedPref.getString(keyprefStrippedCodecs,
+        getString(R.string.pref_stripped_codecs_default));
+
+    // Check WebSocket signaling flag.
+    boolean webSocketSignaling = sharedPref.getBoolean(keyprefSignaling,
+        Boolean.valueOf(getString(R.string.pref_signaling_default)));
+
+    // Get local ICE candidate filter rules.
+    boolean iceTcp = sharedPref.getBoolean(keyprefIceTcp,
+        Boolean.valueOf(getString(R.string.pref_ice_tcp_default)));
+    String iceTypes = sharedPref.getString(keyprefIceTypes,
+        getString(R.string.pref_ice_types_default));
+    boolean iceLinkLocal = sharedPref.getBoolean(keyprefIceLinkLocal,
+        Boolean.valueOf(getString(R.string.pref_ice_link_local_default)));
+    boolean iceDedup = sharedPref.getBoolean(keyprefIceDedup,
+        Boolean.valueOf(getString(R.string.pref_ice_dedup_default)));
+
     // Add video resolution constraints.
     String parametersResolution = null;
     String parametersFps = null;
@@ -326,6 +404,10 @@ public class ConnectActivity extends Activity {
       startBitrate = Integer.parseInt(bitrateValue);
     }
 
+    // Check per-network bandwidth limits flag.
+    boolean bandwidthPolicy = sharedPref.getBoolean(keyprefBandwidthPolicy,
+        Boolean.valueOf(getString(R.string.pref_bandwidth_policy_default)));
+
     // Test if CpuOveruseDetection should be disabled. By default is on.
     boolean cpuOveruseDetection = sharedPref.getBoolean(
         keyprefCpuUsageDetection,
@@ -346,7 +428,16 @@ public class ConnectActivity extends Activity {
       intent.putExtra(EXTRA_CMDLINE, commandLineRun);
       intent.putExtra(EXTRA_RUNTIME, runTimeMs);
       intent.putExtra(EXTRA_BITRATE, startBitrate);
+      intent.putExtra(EXTRA_BANDWIDTH_POLICY, bandwidthPolicy);
       intent.putExtra(EXTRA_HWCODEC, hwCodec);
+      intent.putExtra(EXTRA_AUDIO_CODECS, audioCodecs);
+      intent.putExtra(EXTRA_VIDEO_CODECS, videoCodecs);
+      intent.putExtra(EXTRA_STRIPPED_CODECS, strippedCodecs);
+      intent.putExtra(EXTRA_WEBSOCKET_SIGNALING, webSocketSignaling);
+      intent.putExtra(EXTRA_ICE_TCP, iceTcp);
+      intent.putExtra(EXTRA_ICE_TYPES, iceTypes);
+      intent.putExtra(EXTRA_ICE_LINK_LOCAL, iceLinkLocal);
+      intent.putExtra(EXTRA_ICE_DEDUP, iceDedup);
       startActivityForResult(intent, CONNECTION_REQUEST);
     }
   }
@@ -1,21 +1,30 @@
 package org.appspot.apprtc;
 
+import android.os.SystemClock;
 import android.util.Log;
 
-import com.github.eventsource.client.EventSource;
 import com.github.eventsource.client.EventSourceHandler;
 import com.github.eventsource.client.MessageEvent;
 
+import org.appspot.apprtc.SignalingSendQueue.Priority;
 import org.appspot.apprtc.util.AsyncHttpURLConnection;
 import org.appspot.apprtc.util.AsyncHttpURLConnection.AsyncHttpEvents;
+import org.appspot.apprtc.util.CallTimeline;
+import org.appspot.apprtc.util.CallTimeline.Phase;
+import org.appspot.apprtc.util.EventStreamClient;
+import org.appspot.apprtc.util.HttpTransport;
 import org.appspot.apprtc.util.LooperExecutor;
-import org.json.JSONException;
-import org.json.JSONObject;
+import org.appspot.apprtc.util.MetricsRegistry;
+import org.appspot.apprtc.util.RetryPolicy;
+import org.appspot.apprtc.util.SignalingExecutor;
+import org.appspot.apprtc.util.SignalingTransportSelector;
+import org.appspot.apprtc.util.SignalingTransportSelector.Transport;
 import org.webrtc.IceCandidate;
 import org.webrtc.SessionDescription;
 
+import java.io.IOException;
 import java.net.URI;
-import java.util.concurrent.Executors;
+import java.util.List;
 
 /**
  * Negotiates signaling for chatting with apprtc.appspot.com "rooms".
@@ -30,6 +39,10 @@ import java.util.concurrent.Executors;
 public class EventSourceRTCClient implements AppRTCClient
 {
     private static final String TAG = "ESRTCClient";
+    // Local ICE candidates gathered within this window are sent together.
+    private static final long DEFAULT_ICE_BATCH_WINDOW_MS = 100;
+    private static final int MAX_ICE_BATCH_SIZE = 32;
+    public static final String METRIC_WEB_SOCKET_FALLBACKS = "ws.fallbacks";
 
     private enum ConnectionState
     {
@@ -46,17 +59,39 @@ public class EventSourceRTCClient implements AppRTCClient
     private boolean initiator;
     private SignalingEvents events;
 //    private WebSocketChannelClient wsClient;
-    private EventSource eventSource;
+    private EventStreamClient eventSource;
+    private boolean webSocketEnabled;
+    private SmokeSignalWebSocketChannel webSocket;
+    private SignalingTransportSelector transportSelector;
+    // Transport the room is joined over. Null while the transports are probed.
+    private Transport activeTransport;
+    private SignalingTransportProbe transportProbe;
+    private String roomUrl;
     private RoomParametersFetcher fetcher;
     private ConnectionState roomState;
     private String postMessageUrl;
     private String byeMessageUrl;
+    // Upper bound of the event stream reconnect backoff. The first reconnect
+    // is immediate and resumes from the last received event.
     private long reconnectionTimeMillis = 5000;
+    // Set once the room channel connected, so reconnects and falling back to
+    // the event stream do not report the room connection again.
+    private boolean channelConnected;
+    private long iceBatchWindowMs = DEFAULT_ICE_BATCH_WINDOW_MS;
+    private IceCandidateBatcher iceCandidateBatcher;
+    private SignalingSendQueue sendQueue;
+    private final SignalingMessageCodec codec = new SignalingMessageCodec();
 
     private String roomName;
     private String uid;
     private String token;
     private String peer;
+    // Compact SDP encoding the peer accepts, as advertised in its last offer
+    // or answer, or null for plain SDP.
+    private String peerSdpEncoding;
+    private CallTimeline timeline;
+    // Correlation id of the peer's offer, for the answer to refer to.
+    private String offerCorrelationId;
 
     public EventSourceRTCClient(SignalingEvents events, String roomName)
     {
@@ -65,15 +100,60 @@ public class EventSourceRTCClient implements AppRTCClient
         executor = new LooperExecutor();
     }
 
+    /**
+     * Sets the window local ICE candidates are coalesced in. Zero sends every
+     * candidate in its own message. Must be called before connectToRoom().
+     */
+    public void setIceCandidateBatchWindow(long windowMs)
+    {
+        iceBatchWindowMs = windowMs;
+    }
+
+    /**
+     * Carries both directions over one WebSocket instead of an event stream
+     * and a POST per message. If the WebSocket fails to connect or is lost,
+     * the room falls back to the event stream, resuming from the last
+     * received event, and POSTs. Off by default, as the server must serve the
+     * WebSocket endpoint described in SmokeSignalWebSocketChannel. Must be
+     * called before connectToRoom().
+     */
+    public void setWebSocketEnabled(boolean enabled)
+    {
+        webSocketEnabled = enabled;
+    }
+
+    /**
+     * Picks the transport with |selector| when WebSocket signaling is enabled:
+     * the one remembered for the server and network, or else the winner of a
+     * SignalingTransportProbe race. The probes do not join the room, which is
+     * joined once over the chosen transport. Must be called before
+     * connectToRoom().
+     */
+    public void setTransportSelector(SignalingTransportSelector selector)
+    {
+        transportSelector = selector;
+    }
+
+    /**
+     * Marks signaling phases of the call in |timeline| and tags outbound
+     * messages with its trace id. An offer carrying a trace id of its own
+     * continues that trace instead. Must be called before connectToRoom().
+     */
+    public void setCallTimeline(CallTimeline timeline)
+    {
+        this.timeline = timeline;
+    }
+
     // --------------------------------------------------------------------
     // AppRTCClient interface implementation.
     // Asynchronously connect to a SmokeSignal room URL, e.g.
-    // http://signalcast.herokuapp.com/api/rooms/<room>, retrieve room parameters
-    // and connect to EventSource server.
+    // http://signalcast.herokuapp.com/api/rooms/<room>, and connect to its
+    // WebSocket or event stream.
     @Override
     public void connectToRoom(final String url, final boolean loopback)
     {
         postMessageUrl = url;
+        SignalingExecutor.getInstance().acquire();
         executor.requestStart();
         executor.execute(new Runnable()
         {
@@ -99,97 +179,188 @@ public class EventSourceRTCClient implements AppRTCClient
         executor.requestStop();
     }
 
-    private EventSourceHandler smokeSignalEventSourceHandler = new EventSourceHandler()
+    // Typed events decoded by SmokeSignalEventDispatcher, from either transport.
+    private final SmokeSignalEventDispatcher.SmokeSignalEvents smokeSignalEvents =
+            new SmokeSignalEventDispatcher.SmokeSignalEvents()
     {
-        private static final String TAG = "SmokeSignalEventSourceHandler";
-
         @Override
-        public void onConnect() throws Exception
+        public void onUid(String uid, String token)
         {
-            Log.d(TAG, "onConnect");
+            setUid(uid);
+            setToken(token);
+            markPhase(Phase.UID_RECEIVED);
+        }
 
-            events.onConnectedToRoom(new SignalingParameters(uid, token));
+        @Override
+        public void onTrace(String event, String trace, String correlationId, String replyTo)
+        {
+            if ("offer".equals(event))
+            {
+                offerCorrelationId = correlationId;
+                if (trace != null && timeline != null)
+                {
+                    timeline.setTraceId(trace);
+                    codec.setTraceId(trace);
+                }
+            }
+            else if ("answer".equals(event) && replyTo != null && timeline != null)
+            {
+                timeline.endSpan(replyTo, CallTimeline.METRIC_OFFER_TO_ANSWER);
+            }
         }
 
         @Override
-        public void onMessage(String event, MessageEvent messageEvent) throws Exception
+        public void onOffer(String peer, SessionDescription offer, String sdpEncoding)
         {
-            Log.d(TAG, "onMessage: " + event + " => " + messageEvent);
+            setPeer(peer);
+            peerSdpEncoding = sdpEncoding;
+            markPhase(Phase.OFFER_RECEIVED);
+            events.onRemoteDescription(offer);
+        }
 
-            JSONObject data = new JSONObject(messageEvent.data);
+        @Override
+        public void onAnswer(String peer, String sdpEncoding)
+        {
+            // Lets re-offers to this peer use the compact encoding.
+            peerSdpEncoding = sdpEncoding;
+            markPhase(Phase.ANSWER_RECEIVED);
+        }
 
-            if ("uid".equals(event))
-            {
-                Log.d(TAG, "uid event");
+        @Override
+        public void onIceCandidate(String peer, IceCandidate candidate)
+        {
+            markPhase(Phase.FIRST_CANDIDATE_RECEIVED);
+            events.onRemoteIceCandidate(candidate);
+        }
 
-                String uid = data.getString("uid");
-                String token = data.getString("token");
+        @Override
+        public void onBuddyLeft(String peer)
+        {
+            setPeer(null);
+            peerSdpEncoding = null;
+        }
 
-                setUid(uid);
-                setToken(token);
-            }
-            else if ("offer".equals(event))
-            {
-                Log.d(TAG, "offer event");
+        @Override
+        public void onNewBuddy()
+        {
+        }
+    };
 
-                String peer = data.getString("peer");
-                setPeer(peer);
+    private EventSourceHandler smokeSignalEventSourceHandler = new EventSourceHandler()
+    {
+        private static final String TAG = "SmokeSignalHandler";
 
-                JSONObject offerJson = data.getJSONObject("offer");
-                String type = offerJson.getString("type");
-                String sdp = offerJson.getString("sdp");
+        @Override
+        public void onConnect() throws Exception
+        {
+            Log.d(TAG, "onConnect");
+            onChannelConnected();
+        }
 
-                SessionDescription sessionDescription = new SessionDescription(
-                        SessionDescription.Type.fromCanonicalForm(type),
-                        sdp
-                );
-                events.onRemoteDescription(sessionDescription);
-            }
-            else if ("answer".equals(event))
+        @Override
+        public void onMessage(String event, MessageEvent messageEvent) throws Exception
+        {
+            if (Log.isLoggable(TAG, Log.DEBUG))
             {
-                Log.d(TAG, "answer event");
+                Log.d(TAG, "onMessage: " + event + " => " + messageEvent);
             }
-            else if ("icecandidate".equals(event))
+            onChannelEvent(Transport.EVENT_STREAM, event, messageEvent.data);
+        }
+
+        @Override
+        public void onError(Throwable throwable)
+        {
+            Log.d(TAG, "onError: " + throwable.getMessage());
+            if (throwable instanceof EventStreamClient.StreamFailedException)
             {
-                Log.d(TAG, "icecandidate event");
+                // The stream is not reopened, the room is unreachable.
+                reportError("Event stream error: " + throwable.getMessage());
+            }
+        }
 
-                String peer = data.getString("peer");
-//                setPeer(peer);
+        @Override
+        public void onClosed(boolean b)
+        {
+            Log.d(TAG, "onClosed");
+        }
+    };
 
-                JSONObject candidateJson = data.getJSONObject("candidate");
-                String sdpMid = candidateJson.getString("sdpMid");
-                int sdpMLineIndex = candidateJson.getInt("sdpMLineIndex");
-                String sdp = candidateJson.getString("candidate");
+    private SmokeSignalWebSocketChannel.SmokeSignalWebSocketEvents webSocketEvents =
+            new SmokeSignalWebSocketChannel.SmokeSignalWebSocketEvents()
+    {
+        @Override
+        public void onWebSocketOpen()
+        {
+            onChannelConnected();
+        }
 
-                IceCandidate iceCandidate = new IceCandidate(sdpMid, sdpMLineIndex, sdp);
-                events.onRemoteIceCandidate(iceCandidate);
-            }
-            else if ("buddyleft".equals(event))
+        @Override
+        public void onWebSocketEvent(String event, String data)
+        {
+            try
             {
-                Log.d(TAG, "buddyleft event");
-
-                String peer = data.getString("peer");
-                setPeer(null);
+                onChannelEvent(Transport.WEB_SOCKET, event, data);
             }
-            else if ("newbuddy".equals(event))
+            catch (IOException e)
             {
-                Log.d(TAG, "newbuddy event");
+                Log.e(TAG, "WebSocket event error: " + e.getMessage());
             }
         }
 
         @Override
-        public void onError(Throwable throwable)
+        public void onWebSocketClose(String reason)
         {
-            Log.d(TAG, "onError: " + throwable.getMessage());
+            // The WebSocket is only connected once the room is joined over
+            // it, so its loss always means the active transport failed.
+            String lastEventId = webSocket.getLastEventId();
+            webSocket = null;
+            if (transportSelector != null)
+            {
+                transportSelector.invalidate(roomUrl);
+            }
+            Log.w(TAG, "WebSocket signaling lost (" + reason + "), falling back to event stream.");
+            MetricsRegistry.getInstance().increment(METRIC_WEB_SOCKET_FALLBACKS);
+            activeTransport = Transport.EVENT_STREAM;
+            connectEventStream(lastEventId);
+        }
+    };
+
+    // Dispatches an event received over |transport|. Events of a transport
+    // the room is no longer joined over are dropped. Runs on local looper thread.
+    private void onChannelEvent(Transport transport, String event, String data) throws IOException
+    {
+        if (transport != activeTransport)
+        {
+            Log.w(TAG, "Dropping " + event + " event of inactive " + transport);
+            return;
         }
+        SmokeSignalEventDispatcher.dispatch(event, data, smokeSignalEvents);
+    }
 
+    private final SignalingTransportProbe.TransportProbeEvents transportProbeEvents =
+            new SignalingTransportProbe.TransportProbeEvents()
+    {
         @Override
-        public void onClosed(boolean b)
+        public void onTransportChosen(Transport transport)
         {
-            Log.d(TAG, "onClosed");
+            Log.d(TAG, "Joining room over " + transport);
+            connectTransport(transport);
         }
     };
 
+    // Called when the event stream or the WebSocket connects.
+    private void onChannelConnected()
+    {
+        if (channelConnected)
+        {
+            // Stream resumed after a reconnect or fallback, the call carries on.
+            Log.d(TAG, "Room channel resumed");
+            return;
+        }
+        channelConnected = true;
+        events.onConnectedToRoom(new SignalingParameters(uid, token));
+    }
+
     private void setUid(String uid)
     {
         this.uid = uid;
@@ -205,29 +376,59 @@ public class EventSourceRTCClient implements AppRTCClient
         this.peer = peer;
     }
 
+    private void markPhase(Phase phase)
+    {
+        if (timeline != null)
+        {
+            timeline.mark(phase);
+        }
+    }
+
     // Connects to room - function runs on a local looper thread.
     private void connectToRoomInternal(String url, boolean loopback)
     {
         Log.d(TAG, "Connect to room: " + url);
 
         this.loopback = loopback;
+        roomUrl = url;
         roomState = ConnectionState.NEW;
-
-        eventSource = new EventSource(
-                Executors.newSingleThreadExecutor(),
-                reconnectionTimeMillis,
-                URI.create(url),
-//                new SmokeSignalEventSourceHandler(events, executor)
-                smokeSignalEventSourceHandler
+        channelConnected = false;
+        codec.setTraceId(timeline != null ? timeline.getTraceId() : null);
+        sendQueue = new SignalingSendQueue(executor);
+        iceCandidateBatcher = new IceCandidateBatcher(
+                executor,
+                iceBatchWindowMs,
+                MAX_ICE_BATCH_SIZE,
+                new IceCandidateBatcher.IceCandidateBatchEvents()
+                {
+                    @Override
+                    public void onIceCandidateBatch(List<IceCandidate> candidates)
+                    {
+                        sendIceCandidateBatch(candidates);
+                    }
+                }
         );
 
-        try
+        activeTransport = null;
+        Transport transport = Transport.EVENT_STREAM;
+        if (webSocketEnabled)
         {
-            eventSource.connect();
+            transport = Transport.WEB_SOCKET;
+            if (transportSelector != null)
+            {
+                transport = transportSelector.getCachedTransport(url);
+            }
+        }
+        if (transport == null)
+        {
+            Log.d(TAG, "Probing WebSocket and event stream.");
+            transportProbe = new SignalingTransportProbe(
+                    executor, transportSelector, transportProbeEvents);
+            transportProbe.start(url);
         }
-        catch (InterruptedException e)
+        else
         {
-            reportError("Failed to connect to EventSource: " + e.getMessage());
+            connectTransport(transport);
         }
 
         // Create WebSocket client.
@@ -263,24 +464,81 @@ public class EventSourceRTCClient implements AppRTCClient
         */
     }
 
+    // Joins the room over |transport|. Runs on local looper thread.
+    private void connectTransport(Transport transport)
+    {
+        activeTransport = transport;
+        if (transport == Transport.WEB_SOCKET)
+        {
+            connectWebSocket();
+        }
+        else
+        {
+            connectEventStream(null);
+        }
+    }
+
+    private void connectWebSocket()
+    {
+        webSocket = new SmokeSignalWebSocketChannel(executor, webSocketEvents);
+        webSocket.connect(roomUrl);
+    }
+
+    // Connects the event stream, resuming after |lastEventId| if not null.
+    // Runs on local looper thread.
+    private void connectEventStream(String lastEventId)
+    {
+        // Handler callbacks run on the local looper thread, like WebSocket
+        // events, so falling back needs no locking.
+        eventSource = new EventStreamClient(
+                executor,
+                reconnectionTimeMillis,
+                URI.create(roomUrl),
+//                new SmokeSignalEventSourceHandler(events, executor)
+                smokeSignalEventSourceHandler
+        );
+        if (lastEventId != null)
+        {
+            eventSource.setLastEventId(lastEventId);
+        }
+        eventSource.connect();
+    }
+
     // Disconnect from room and send bye messages - runs on a local looper thread.
     private void disconnectFromRoomInternal()
     {
         Log.d(TAG, "Disconnect. Room state: " + roomState);
+        if (transportProbe != null)
+        {
+            transportProbe.close();
+            transportProbe = null;
+        }
+        if (iceCandidateBatcher != null)
+        {
+            iceCandidateBatcher.clear();
+        }
+        if (sendQueue != null)
+        {
+            Log.d(TAG, "Send queue: " + sendQueue.getStats());
+            sendQueue.close();
+        }
         if (roomState == ConnectionState.CONNECTED)
         {
             Log.d(TAG, "Closing room.");
-            sendPostMessage(MessageType.BYE, byeMessageUrl, "");
+            sendPostMessage(MessageType.BYE, byeMessageUrl, "", null, null, RetryPolicy.BYE);
         }
         roomState = ConnectionState.CLOSED;
-//        if (wsClient != null)
-//        {
-//            wsClient.disconnect(true);
-//        }
+        if (webSocket != null)
+        {
+            webSocket.disconnect();
+            webSocket = null;
+        }
         if (eventSource != null)
         {
             eventSource.close();
         }
+        HttpTransport.getInstance().logPoolStats();
+        SignalingExecutor.getInstance().release();
     }
 
     // Callback issued when room parameters are extracted. Runs on local looper thread.
@@ -342,10 +600,18 @@ public class EventSourceRTCClient implements AppRTCClient
                     reportError("Sending offer SDP in non connected state.");
                     return;
                 }
-                JSONObject json = new JSONObject();
-                jsonPut(json, "sdp", sdp.description);
-                jsonPut(json, "type", "offer");
-                sendPostMessage(MessageType.MESSAGE, postMessageUrl, json.toString());
+                // Compact SDP only once the peer's answer said it accepts it,
+                // so a first offer is always plain.
+                String message = codec.encodeSmokeSignalOffer(
+                        peer, token, sdp, peerSdpEncoding != null);
+                String correlationId = codec.getLastCorrelationId();
+                if (timeline != null && correlationId != null)
+                {
+                    // Ended by the answer referring to this offer.
+                    timeline.startSpan(correlationId);
+                }
+                sendMessage(message, correlationId, Priority.SDP, RetryPolicy.SDP);
+                markPhase(Phase.OFFER_SENT);
                 if (loopback)
                 {
                     // In loopback mode rename this offer to answer and route it back.
@@ -378,30 +644,17 @@ public class EventSourceRTCClient implements AppRTCClient
 //                    return;
 //                }
 
-                JSONObject json = new JSONObject();
-                jsonPut(json, "type", "answer");
-                jsonPut(json, "peer", peer);
-                jsonPut(json, "token", token);
-
-                JSONObject answer = new JSONObject();
-                jsonPut(answer, "type", "answer");
-                jsonPut(answer, "sdp", sdp.description);
-
-                JSONObject payload = new JSONObject();
-                try { payload.put("answer", answer); }
-                catch (JSONException e) { e.printStackTrace(); }
-
-                try { json.put("payload", payload); }
-                catch (JSONException e) { e.printStackTrace(); }
-
-                sendPostMessage(MessageType.MESSAGE, postMessageUrl, json.toString());
-
-//                wsClient.send(json.toString());
+                // Compact SDP only if the peer's offer said it accepts it.
+                String message = codec.encodeSmokeSignalAnswer(
+                        peer, token, sdp, peerSdpEncoding != null, offerCorrelationId);
+                sendMessage(message, codec.getLastCorrelationId(), Priority.SDP, RetryPolicy.SDP);
+                markPhase(Phase.ANSWER_SENT);
             }
         });
     }
 
-    // Send Ice candidate to the other participant.
+    // Queue Ice candidate for the other participant. Candidates are sent in
+    // batches by sendIceCandidateBatch().
     @Override
     public void sendLocalIceCandidate(final IceCandidate candidate)
     {
@@ -410,59 +663,60 @@ public class EventSourceRTCClient implements AppRTCClient
             @Override
             public void run()
             {
-                JSONObject json = new JSONObject();
-                jsonPut(json, "type", "icecandidate");
-                jsonPut(json, "peer", peer);
-                jsonPut(json, "token", token);
-
-                JSONObject candidateJson = new JSONObject();
-                jsonPut(candidateJson, "candidate", candidate.sdp);
-                jsonPut(candidateJson, "sdpMid", candidate.sdpMid);
-                jsonPut(candidateJson, "sdpMLineIndex", candidate.sdpMLineIndex);
-
-                JSONObject payload = new JSONObject();
-                try { payload.put("candidate", candidateJson); }
-                catch (JSONException e) { e.printStackTrace(); }
-
-                try { json.put("payload", payload); }
-                catch (JSONException e) { e.printStackTrace(); }
-
-//                JSONObject json = new JSONObject();
-//                jsonPut(json, "type", "candidate");
-//                jsonPut(json, "label", candidate.sdpMLineIndex);
-//                jsonPut(json, "id", candidate.sdpMid);
-//                jsonPut(json, "candidate", candidate.sdp);
-
-                if (initiator)
+                if (initiator && roomState != ConnectionState.CONNECTED)
                 {
-                    // Call initiator sends ice candidates to GAE server.
-                    if (roomState != ConnectionState.CONNECTED)
-                    {
-                        reportError("Sending ICE candidate in non connected state.");
-                        return;
-                    }
-                    sendPostMessage(MessageType.MESSAGE, postMessageUrl, json.toString());
-
-                    if (loopback)
-                    {
-                        events.onRemoteIceCandidate(candidate);
-                    }
+                    reportError("Sending ICE candidate in non connected state.");
+                    return;
                 }
-                else
+                iceCandidateBatcher.add(candidate);
+                if (initiator && loopback)
                 {
-                    sendPostMessage(MessageType.MESSAGE, postMessageUrl, json.toString());
-                    // Call receiver sends ice candidates to websocket server.
-//                    if (wsClient.getState() != WebSocketConnectionState.REGISTERED)
-//                    {
-//                        reportError("Sending ICE candidate in non registered state.");
-//                        return;
-//                    }
-//                    wsClient.send(json.toString());
+                    events.onRemoteIceCandidate(candidate);
+                }
+            }
+        });
+    }
+
+    // Send any batched Ice candidates without waiting for the batch window.
+    @Override
+    public void flushLocalIceCandidates()
+    {
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (iceCandidateBatcher != null)
+                {
+                    iceCandidateBatcher.flush();
                 }
             }
         });
     }
 
+    // Send a batch of Ice candidates in a single message. Runs on local looper thread.
+    private void sendIceCandidateBatch(List<IceCandidate> candidates)
+    {
+        String message = codec.encodeSmokeSignalIceCandidates(peer, token, candidates);
+        sendMessage(message, codec.getLastCorrelationId(), Priority.CANDIDATES, RetryPolicy.ICE_CANDIDATES);
+        markPhase(Phase.FIRST_CANDIDATE_SENT);
+    }
+
+    // Send a message to the room: over the WebSocket if the room is joined
+    // over it and it is open, otherwise as a POST in the send queue lane of |priority|, retried according to
+    // |retryPolicy|. |correlationId| identifies the message in logs and may
+    // be null. Runs on local looper thread.
+    private void sendMessage(String message, String correlationId, Priority priority,
+                             RetryPolicy retryPolicy)
+    {
+        if (activeTransport == Transport.WEB_SOCKET && webSocket != null
+                && webSocket.send(message))
+        {
+            return;
+        }
+        sendPostMessage(MessageType.MESSAGE, postMessageUrl, message, correlationId, priority, retryPolicy);
+    }
+
     // --------------------------------------------------------------------
     // Helper functions.
     private void reportError(final String errorMessage)
@@ -482,22 +736,13 @@ public class EventSourceRTCClient implements AppRTCClient
         });
     }
 
-    // Put a |key|->|value| mapping in |json|.
-    private static void jsonPut(JSONObject json, String key, Object value)
-    {
-        try
-        {
-            json.put(key, value);
-        }
-        catch (JSONException e)
-        {
-            throw new RuntimeException(e);
-        }
-    }
-
-    // Send SDP or ICE candidate to a room server.
-    private void sendPostMessage(final MessageType messageType, final String url, final String message)
+    // Send SDP or ICE candidate to a room server in the send queue lane of
+    // |priority|. Failed attempts are retried according to |retryPolicy|.
+    // BYE bypasses the queue and has no |priority|.
+    private void sendPostMessage(final MessageType messageType, final String url, final String message,
+                                 final String correlationId, Priority priority, RetryPolicy retryPolicy)
     {
+        final long sendStartMs = SystemClock.elapsedRealtime();
         if (messageType == MessageType.BYE)
         {
             Log.d(TAG, "C->GAE: " + url);
@@ -505,7 +750,7 @@ public class EventSourceRTCClient implements AppRTCClient
         {
             Log.d(TAG, "C->GAE: " + message);
         }
-        AsyncHttpURLConnection httpConnection = new AsyncHttpURLConnection("POST", url, message, new AsyncHttpEvents()
+        AsyncHttpEvents httpEvents = new AsyncHttpEvents()
         {
             @Override
             public void OnHttpError(String errorMessage)
@@ -516,6 +761,11 @@ public class EventSourceRTCClient implements AppRTCClient
             @Override
             public void OnHttpComplete(String response)
             {
+                if (correlationId != null)
+                {
+                    Log.d(TAG, "POST " + correlationId + " completed in "
+                            + (SystemClock.elapsedRealtime() - sendStartMs) + " ms");
+                }
                 if (messageType == MessageType.MESSAGE)
                 {
 //                    try
@@ -534,7 +784,18 @@ public class EventSourceRTCClient implements AppRTCClient
 //                    }
                 }
             }
-        });
-        httpConnection.send();
+        };
+        if (messageType == MessageType.BYE)
+        {
+            // Pending messages are dropped on disconnect, send bye right away.
+            AsyncHttpURLConnection httpConnection = new AsyncHttpURLConnection("POST", url, message, httpEvents);
+            httpConnection.setRetryPolicy(retryPolicy);
+            httpConnection.send();
+            return;
+        }
+        if (!sendQueue.enqueue(url, message, priority, retryPolicy, httpEvents))
+        {
+            reportError("GAE POST error: signaling send queue overflow.");
+        }
     }
 }
@@ -0,0 +1,83 @@
+package org.appspot.apprtc;
+
+import org.appspot.apprtc.util.LooperExecutor;
+import org.webrtc.IceCandidate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Coalesces local ICE candidates gathered within a short window into a
+ * single signaling message.
+ *
+ * <p>The window starts with the first candidate added after a flush. A batch
+ * is delivered when the window expires, when |maxBatchSize| candidates are
+ * pending or when flush() is called (e.g. once gathering has completed).
+ * All methods must be called on the looper thread passed in constructor;
+ * batches are delivered on the same thread.
+ */
+public class IceCandidateBatcher {
+  private final LooperExecutor executor;
+  private final long windowMs;
+  private final int maxBatchSize;
+  private final IceCandidateBatchEvents events;
+  private ArrayList<IceCandidate> pending = new ArrayList<IceCandidate>();
+  private boolean flushScheduled;
+
+  /**
+   * Callback interface for batches ready to be signaled.
+   */
+  public static interface IceCandidateBatchEvents {
+    public void onIceCandidateBatch(final List<IceCandidate> candidates);
+  }
+
+  private final Runnable flushRunnable = new Runnable() {
+    @Override
+    public void run() {
+      flushScheduled = false;
+      flush();
+    }
+  };
+
+  public IceCandidateBatcher(LooperExecutor executor, long windowMs,
+      int maxBatchSize, IceCandidateBatchEvents events) {
+    this.executor = executor;
+    this.windowMs = windowMs;
+    this.maxBatchSize = maxBatchSize;
+    this.events = events;
+  }
+
+  public void add(IceCandidate candidate) {
+    pending.add(candidate);
+    if (windowMs <= 0 || pending.size() >= maxBatchSize) {
+      flush();
+    } else if (!flushScheduled) {
+      flushScheduled = true;
+      executor.executeDelayed(flushRunnable, windowMs);
+    }
+  }
+
+  /** Delivers pending candidates immediately. */
+  public void flush() {
+    cancelTimer();
+    if (pending.isEmpty()) {
+      return;
+    }
+    List<IceCandidate> batch = pending;
+    pending = new ArrayList<IceCandidate>();
+    events.onIceCandidateBatch(batch);
+  }
+
+  /** Drops pending candidates without delivering them. */
+  public void clear() {
+    cancelTimer();
+    pending.clear();
+  }
+
+  private void cancelTimer() {
+    if (flushScheduled) {
+      executor.cancel(flushRunnable);
+      flushScheduled = false;
+    }
+  }
+}
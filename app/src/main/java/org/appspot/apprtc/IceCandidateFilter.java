@@ -0,0 +1,137 @@
+package org.appspot.apprtc;
+
+import android.util.Log;
+
+import org.appspot.apprtc.util.MetricsRegistry;
+import org.webrtc.IceCandidate;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Decides which local ICE candidates are signaled to the remote peer.
+ *
+ * <p>Sits between PeerConnectionClient and AppRTCClient: every gathered
+ * candidate is passed to accept() and only accepted ones are sent. Dropped
+ * candidates are never paired by the remote side, so each one saves a
+ * message and a round of connectivity checks. Candidates can be dropped by
+ * transport (TCP), by type (host, or everything but relay), by network
+ * interface (IPv6 link-local addresses, which are only reachable on the
+ * local link) and as duplicates: candidates of the same m-line and component
+ * sharing a foundation have the same type, base address and server, so only
+ * the first one gathered is kept. Candidates that cannot be parsed are
+ * passed through. Every drop is counted by reason.
+ *
+ * <p>Not thread safe; call from one thread.
+ */
+public class IceCandidateFilter {
+  private static final String TAG = "IceCandidateFilter";
+  public static final String METRIC_ACCEPTED = "ice.filter.accepted";
+  public static final String METRIC_DROPPED_TCP = "ice.filter.dropped_tcp";
+  public static final String METRIC_DROPPED_TYPE = "ice.filter.dropped_type";
+  public static final String METRIC_DROPPED_LINK_LOCAL =
+      "ice.filter.dropped_link_local";
+  public static final String METRIC_DROPPED_DUPLICATE =
+      "ice.filter.dropped_duplicate";
+
+  /** Candidate types to signal. Names are the preference values. */
+  public enum CandidateTypes {
+    /** Host, server and peer reflexive, and relay candidates. */
+    ALL,
+    /** Everything but host candidates, which expose local addresses. */
+    NO_HOST,
+    /** Relay candidates only. */
+    RELAY
+  };
+
+  private final boolean allowTcp;
+  private final CandidateTypes candidateTypes;
+  private final boolean dropLinkLocal;
+  private final boolean dropDuplicates;
+  // Keys of the candidates accepted so far, for duplicate detection.
+  private final Set<String> accepted = new HashSet<String>();
+  private int acceptedCount;
+  private int droppedCount;
+
+  public IceCandidateFilter(boolean allowTcp, CandidateTypes candidateTypes,
+      boolean dropLinkLocal, boolean dropDuplicates) {
+    this.allowTcp = allowTcp;
+    this.candidateTypes = candidateTypes;
+    this.dropLinkLocal = dropLinkLocal;
+    this.dropDuplicates = dropDuplicates;
+  }
+
+  /** Returns true if |candidate| should be signaled. */
+  public boolean accept(IceCandidate candidate) {
+    // candidate:<foundation> <component> <transport> <priority> <address>
+    //     <port> typ <type> ...
+    String sdp = candidate.sdp;
+    if (sdp.startsWith("a=")) {
+      sdp = sdp.substring(2);
+    }
+    String[] fields = sdp.split(" ", 9);
+    if (!sdp.startsWith("candidate:") || fields.length < 8
+        || !"typ".equals(fields[6])) {
+      Log.w(TAG, "Passing unparsable candidate: " + candidate.sdp);
+      return true;
+    }
+    String foundation = fields[0].substring("candidate:".length());
+    String component = fields[1];
+    String transport = fields[2];
+    String address = fields[4];
+    String type = fields[7].trim();
+
+    String reason = null;
+    if (!allowTcp && "tcp".equalsIgnoreCase(transport)) {
+      reason = METRIC_DROPPED_TCP;
+    } else if (!isTypeAllowed(type)) {
+      reason = METRIC_DROPPED_TYPE;
+    } else if (dropLinkLocal && isLinkLocal(address)) {
+      reason = METRIC_DROPPED_LINK_LOCAL;
+    } else if (dropDuplicates && !accepted.add(candidate.sdpMid + "/"
+        + candidate.sdpMLineIndex + "/" + component + "/" + foundation)) {
+      reason = METRIC_DROPPED_DUPLICATE;
+    }
+    if (reason != null) {
+      droppedCount++;
+      MetricsRegistry.getInstance().increment(reason);
+      if (Log.isLoggable(TAG, Log.DEBUG)) {
+        Log.d(TAG, reason + ": " + candidate.sdp);
+      }
+      return false;
+    }
+    acceptedCount++;
+    MetricsRegistry.getInstance().increment(METRIC_ACCEPTED);
+    return true;
+  }
+
+  public String getStats() {
+    return "accepted=" + acceptedCount + " dropped=" + droppedCount;
+  }
+
+  private boolean isTypeAllowed(String type) {
+    switch (candidateTypes) {
+      case NO_HOST:
+        return !"host".equals(type);
+      case RELAY:
+        return "relay".equals(type);
+      default:
+        return true;
+    }
+  }
+
+  // IPv6 link-local addresses are in fe80::/10.
+  private static boolean isLinkLocal(String address) {
+    int end = address.indexOf(':');
+    if (end <= 0 || end > 4) {
+      // IPv4, or IPv6 starting with "::".
+      return false;
+    }
+    try {
+      return (Integer.parseInt(address.substring(0, end), 16) & 0xffc0)
+          == 0xfe80;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+}
@@ -28,6 +28,12 @@
 package org.appspot.apprtc;
 
 import org.appspot.apprtc.AppRTCClient.SignalingParameters;
+import org.appspot.apprtc.sdp.BandwidthPolicyTransform;
+import org.appspot.apprtc.sdp.CodecPreferenceTransform;
+import org.appspot.apprtc.sdp.SdpSession;
+import org.appspot.apprtc.sdp.SdpTransform;
+import org.appspot.apprtc.sdp.StartBitrateTransform;
+import org.appspot.apprtc.sdp.TrackIdTransform;
 import org.appspot.apprtc.util.LooperExecutor;
 
 import android.content.Context;
@@ -38,6 +44,7 @@ import org.webrtc.DataChannel;
 import org.webrtc.IceCandidate;
 import org.webrtc.MediaConstraints;
 import org.webrtc.MediaConstraints.KeyValuePair;
+import org.webrtc.MediaCodecVideoEncoder;
 import org.webrtc.MediaStream;
 import org.webrtc.MediaStreamTrack;
 import org.webrtc.PeerConnection;
@@ -52,10 +59,9 @@ import org.webrtc.VideoSource;
 import org.webrtc.VideoTrack;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Peer connection client implementation.
@@ -86,6 +92,18 @@ public class PeerConnectionClient {
   private MediaConstraints sdpMediaConstraints;
   private PeerConnectionEvents events;
   private int startBitrate;
+  private boolean vp8HwAcceleration;
+  // Codec preferences, see setCodecPreferences().
+  private List<String> audioCodecs = Collections.singletonList("ISAC/16000");
+  private List<String> videoCodecs = Collections.emptyList();
+  private List<String> strippedCodecs = Collections.emptyList();
+  private BandwidthPolicyTransform bandwidthPolicy;
+  // Applied to locally created and to remote descriptions, in order. Each
+  // description is parsed and serialized once however many there are.
+  private final List<SdpTransform> localSdpTransforms =
+      new ArrayList<SdpTransform>();
+  private final List<SdpTransform> remoteSdpTransforms =
+      new ArrayList<SdpTransform>();
   private boolean isInitiator;
   private boolean useFrontFacingCamera = true;
   private SessionDescription localSdp = null; // either offer or answer SDP
@@ -105,6 +123,11 @@ public class PeerConnectionClient {
      */
     public void onIceCandidate(final IceCandidate candidate);
 
+    /**
+     * Callback fired once local Ice candidate gathering is complete.
+     */
+    public void onIceGatheringComplete();
+
     /**
      * Callback fired once connection is established (IceConnectionState is
      * CONNECTED).
@@ -139,6 +162,7 @@ public class PeerConnectionClient {
       final EGLContext renderEGLContext,
       final PeerConnectionEvents events) {
     this.events = events;
+    this.vp8HwAcceleration = vp8HwAcceleration;
     executor.requestStart();
     executor.execute(new Runnable() {
       @Override
@@ -149,6 +173,31 @@ public class PeerConnectionClient {
     });
   }
 
+  /**
+   * Sets the codecs to prefer, in order, for audio and video, and codecs
+   * never to offer or accept, e.g. ["opus"], ["H264", "VP8"], ["PCMU"].
+   * Codecs are names optionally followed by clock rate and channels as in
+   * a=rtpmap lines. Takes effect at the next createPeerConnection(). By
+   * default ISAC/16000 is the preferred audio codec; with hardware
+   * acceleration enabled and available VP8 goes before the video list.
+   */
+  public void setCodecPreferences(List<String> audioCodecs,
+      List<String> videoCodecs, List<String> strippedCodecs) {
+    this.audioCodecs = audioCodecs;
+    this.videoCodecs = videoCodecs;
+    this.strippedCodecs = strippedCodecs;
+  }
+
+  /**
+   * Sets the bandwidth limits written into remote descriptions, or null for
+   * none. A start bitrate passed to createPeerConnection() overrides the
+   * start bitrate of |bandwidthPolicy|. Takes effect at the next
+   * createPeerConnection().
+   */
+  public void setBandwidthPolicy(BandwidthPolicyTransform bandwidthPolicy) {
+    this.bandwidthPolicy = bandwidthPolicy;
+  }
+
   public void createPeerConnection(
       final VideoRenderer.Callbacks localRender,
       final VideoRenderer.Callbacks remoteRender,
@@ -158,6 +207,26 @@ public class PeerConnectionClient {
     this.remoteRender = remoteRender;
     this.signalingParameters = signalingParameters;
     this.startBitrate = startBitrate;
+    List<String> preferredVideoCodecs = videoCodecs;
+    if (vp8HwAcceleration && MediaCodecVideoEncoder.isPlatformSupported()) {
+      // Hardware encoding beats any software codec on CPU per call.
+      Log.d(TAG, "Preferring hardware accelerated VP8.");
+      preferredVideoCodecs = new ArrayList<String>(videoCodecs);
+      preferredVideoCodecs.add(0, "VP8");
+    }
+    localSdpTransforms.clear();
+    localSdpTransforms.add(
+        new CodecPreferenceTransform("audio", audioCodecs, strippedCodecs));
+    localSdpTransforms.add(new CodecPreferenceTransform(
+        "video", preferredVideoCodecs, strippedCodecs));
+    remoteSdpTransforms.clear();
+    remoteSdpTransforms.addAll(localSdpTransforms);
+    if (bandwidthPolicy != null) {
+      remoteSdpTransforms.add(bandwidthPolicy);
+    }
+    if (startBitrate > 0) {
+      remoteSdpTransforms.add(new StartBitrateTransform(null, startBitrate));
+    }
     executor.execute(new Runnable() {
       @Override
       public void run() {
@@ -340,10 +409,8 @@ public class PeerConnectionClient {
         if (pc == null || isError) {
           return;
         }
-        String sdpDescription = preferISAC(sdp.description);
-        if (startBitrate > 0) {
-          sdpDescription = setStartBitrate(sdpDescription, startBitrate);
-        }
+        String sdpDescription =
+            SdpSession.transform(sdp.description, remoteSdpTransforms);
         Log.d(TAG, "Set remote SDP.");
         SessionDescription sdpRemote = new SessionDescription(
             sdp.type, sdpDescription);
@@ -437,88 +504,6 @@ public class PeerConnectionClient {
     return videoTrack;
   }
 
-  private static String setStartBitrate(
-      String sdpDescription, int bitrateKbps) {
-    String[] lines = sdpDescription.split("\r\n");
-    int lineIndex = -1;
-    String vp8RtpMap = null;
-    Pattern vp8Pattern =
-        Pattern.compile("^a=rtpmap:(\\d+) VP8/90000[\r]?$");
-    for (int i = 0; i < lines.length; i++) {
-      Matcher vp8Matcher = vp8Pattern.matcher(lines[i]);
-      if (vp8Matcher.matches()) {
-        vp8RtpMap = vp8Matcher.group(1);
-        lineIndex = i;
-        break;
-      }
-    }
-    if (vp8RtpMap == null) {
-      Log.e(TAG, "No rtpmap for VP8 codec");
-      return sdpDescription;
-    }
-    Log.d(TAG, "Found rtpmap " + vp8RtpMap + " at " + lines[lineIndex]);
-    StringBuilder newSdpDescription = new StringBuilder();
-    for (int i = 0; i < lines.length; i++) {
-      newSdpDescription.append(lines[i]).append("\r\n");
-      if (i == lineIndex) {
-        String bitrateSet = "a=fmtp:" + vp8RtpMap
-            + " x-google-start-bitrate=" + bitrateKbps;
-        Log.d(TAG, "Add remote SDP line: " + bitrateSet);
-        newSdpDescription.append(bitrateSet).append("\r\n");
-      }
-    }
-    return newSdpDescription.toString();
-  }
-
-  // Mangle SDP to prefer ISAC/16000 over any other audio codec.
-  private static String preferISAC(String sdpDescription) {
-    String[] lines = sdpDescription.split("\r\n");
-    int mLineIndex = -1;
-    String isac16kRtpMap = null;
-    Pattern isac16kPattern =
-        Pattern.compile("^a=rtpmap:(\\d+) ISAC/16000[\r]?$");
-    for (int i = 0;
-         (i < lines.length) && (mLineIndex == -1 || isac16kRtpMap == null);
-         ++i) {
-      if (lines[i].startsWith("m=audio ")) {
-        mLineIndex = i;
-        continue;
-      }
-      Matcher isac16kMatcher = isac16kPattern.matcher(lines[i]);
-      if (isac16kMatcher.matches()) {
-        isac16kRtpMap = isac16kMatcher.group(1);
-        continue;
-      }
-    }
-    if (mLineIndex == -1) {
-      Log.d(TAG, "No m=audio line, so can't prefer iSAC");
-      return sdpDescription;
-    }
-    if (isac16kRtpMap == null) {
-      Log.d(TAG, "No ISAC/16000 line, so can't prefer iSAC");
-      return sdpDescription;
-    }
-    String[] origMLineParts = lines[mLineIndex].split(" ");
-    StringBuilder newMLine = new StringBuilder();
-    int origPartIndex = 0;
-    // Format is: m=<media> <port> <proto> <fmt> ...
-    newMLine.append(origMLineParts[origPartIndex++]).append(" ");
-    newMLine.append(origMLineParts[origPartIndex++]).append(" ");
-    newMLine.append(origMLineParts[origPartIndex++]).append(" ");
-    newMLine.append(isac16kRtpMap);
-    for (; origPartIndex < origMLineParts.length; ++origPartIndex) {
-      if (!origMLineParts[origPartIndex].equals(isac16kRtpMap)) {
-        newMLine.append(" ").append(origMLineParts[origPartIndex]);
-      }
-    }
-    lines[mLineIndex] = newMLine.toString();
-    StringBuilder newSdpDescription = new StringBuilder();
-    for (String line : lines) {
-      newSdpDescription.append(line).append("\r\n");
-    }
-    return newSdpDescription.toString();
-  }
-
   private void drainCandidates() {
     if (queuedRemoteCandidates != null) {
       Log.d(TAG, "Add " + queuedRemoteCandidates.size() + " remote candidates");
@@ -561,8 +546,13 @@ public class PeerConnectionClient {
       return;
     }
 
+    // libjingle cannot swap the capturer of a VideoSource, so the new track
+    // has to be negotiated: rename the track in the local description and
+    // set both descriptions again.
     localSdp = new SessionDescription(localSdp.type,
-        localSdp.description.replaceAll(trackId, newTrack.id()));
+        SdpSession.transform(localSdp.description,
+            Collections.singletonList(
+                new TrackIdTransform(trackId, newTrack.id()))));
 
     if (isInitiator) {
       pc.setLocalDescription(new SwitchCameraSdbObserver(), localSdp);
@@ -623,8 +613,16 @@ public class PeerConnectionClient {
 
     @Override
     public void onIceGatheringChange(
-      PeerConnection.IceGatheringState newState) {
+      final PeerConnection.IceGatheringState newState) {
       Log.d(TAG, "IceGatheringState: " + newState);
+      if (newState == PeerConnection.IceGatheringState.COMPLETE) {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            events.onIceGatheringComplete();
+          }
+        });
+      }
     }
 
     @Override
@@ -683,7 +681,8 @@ public class PeerConnectionClient {
         return;
       }
       final SessionDescription sdp = new SessionDescription(
-          origSdp.type, preferISAC(origSdp.description));
+          origSdp.type,
+          SdpSession.transform(origSdp.description, localSdpTransforms));
       localSdp = sdp;
       executor.execute(new Runnable() {
         @Override
@@ -29,6 +29,8 @@ package org.appspot.apprtc;
 import org.appspot.apprtc.AppRTCClient.SignalingParameters;
 import org.appspot.apprtc.util.AsyncHttpURLConnection;
 import org.appspot.apprtc.util.AsyncHttpURLConnection.AsyncHttpEvents;
+import org.appspot.apprtc.util.RetryPolicy;
+import org.appspot.apprtc.util.StreamDecoder;
 
 import android.util.Log;
 
@@ -45,7 +47,6 @@ import java.io.InputStream;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.LinkedList;
-import java.util.Scanner;
 
 /**
  * AsyncTask that converts an AppRTC room URL into the set of signaling
@@ -53,6 +54,7 @@ import java.util.Scanner;
  */
 public class RoomParametersFetcher {
   private static final String TAG = "RoomRTCClient";
+  private static final int MAX_RESPONSE_BYTES = 1024 * 1024;
   private final RoomParametersFetcherEvents events;
   private final boolean loopback;
   private final String registerUrl;
@@ -94,9 +96,15 @@ public class RoomParametersFetcher {
           RoomHttpResponseParse(response);
         }
       });
+    httpConnection.setRetryPolicy(RetryPolicy.ROOM_JOIN);
     httpConnection.send();
   }
 
+  /** Aborts the room request; no callbacks are issued afterwards. */
+  public void cancel() {
+    httpConnection.cancel();
+  }
+
   private void RoomHttpResponseParse(String response) {
     Log.d(TAG, "Room response: " + response);
     try {
@@ -283,7 +291,11 @@ public class RoomParametersFetcher {
     URLConnection connection = (new URL(url)).openConnection();
     connection.addRequestProperty("user-agent", "Mozilla/5.0");
     connection.addRequestProperty("origin", "https://apprtc.appspot.com");
-    String response = drainStream(connection.getInputStream());
+    InputStream responseStream = connection.getInputStream();
+    String response = drainStream(responseStream);
+    // Close the drained stream so the connection goes back to the
+    // keep-alive pool shared with the other signaling requests.
+    responseStream.close();
     Log.d(TAG, "TURN response: " + response);
     JSONObject responseJSON = new JSONObject(response);
     String username = responseJSON.getString("username");
@@ -315,9 +327,8 @@ public class RoomParametersFetcher {
   }
 
   // Return the contents of an InputStream as a String.
-  private String drainStream(InputStream in) {
-    Scanner s = new Scanner(in).useDelimiter("\\A");
-    return s.hasNext() ? s.next() : "";
+  private String drainStream(InputStream in) throws IOException {
+    return StreamDecoder.readFully(in, MAX_RESPONSE_BYTES);
   }
 
 }
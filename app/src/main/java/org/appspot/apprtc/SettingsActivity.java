@@ -31,6 +31,7 @@ import android.app.Activity;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.os.Bundle;
+import android.preference.ListPreference;
 import android.preference.Preference;
 
 /**
@@ -43,9 +44,17 @@ public class SettingsActivity extends Activity
   private String keyprefFps;
   private String keyprefStartBitrateType;
   private String keyprefStartBitrateValue;
+  private String keyprefBandwidthPolicy;
   private String keyprefHwCodec;
+  private String keyprefAudioCodecs;
+  private String keyprefVideoCodecs;
+  private String keyprefStrippedCodecs;
   private String keyprefCpuUsageDetection;
   private String keyprefSignaling;
+  private String keyprefIceTcp;
+  private String keyprefIceTypes;
+  private String keyprefIceLinkLocal;
+  private String keyprefIceDedup;
   private String keyPrefRoomServerUrl;
 
   @Override
@@ -55,8 +64,17 @@ public class SettingsActivity extends Activity
     keyprefFps = getString(R.string.pref_fps_key);
     keyprefStartBitrateType = getString(R.string.pref_startbitrate_key);
     keyprefStartBitrateValue = getString(R.string.pref_startbitratevalue_key);
+    keyprefBandwidthPolicy = getString(R.string.pref_bandwidth_policy_key);
     keyprefHwCodec = getString(R.string.pref_hwcodec_key);
+    keyprefAudioCodecs = getString(R.string.pref_audio_codecs_key);
+    keyprefVideoCodecs = getString(R.string.pref_video_codecs_key);
+    keyprefStrippedCodecs = getString(R.string.pref_stripped_codecs_key);
     keyprefCpuUsageDetection = getString(R.string.pref_cpu_usage_detection_key);
+    keyprefSignaling = getString(R.string.pref_signaling_key);
+    keyprefIceTcp = getString(R.string.pref_ice_tcp_key);
+    keyprefIceTypes = getString(R.string.pref_ice_types_key);
+    keyprefIceLinkLocal = getString(R.string.pref_ice_link_local_key);
+    keyprefIceDedup = getString(R.string.pref_ice_dedup_key);
     keyPrefRoomServerUrl = getString(R.string.pref_room_server_url_key);
 
     // Display the fragment as the main content.
@@ -77,11 +95,19 @@ public class SettingsActivity extends Activity
     updateSummary(sharedPreferences, keyprefFps);
     updateSummary(sharedPreferences, keyprefStartBitrateType);
     updateSummary(sharedPreferences, keyPrefRoomServerUrl);
+    updateSummary(sharedPreferences, keyprefAudioCodecs);
+    updateSummary(sharedPreferences, keyprefVideoCodecs);
+    updateSummary(sharedPreferences, keyprefStrippedCodecs);
     updateSummaryBitrate(sharedPreferences, keyprefStartBitrateValue);
     setBitrateEnable(sharedPreferences);
+    updateSummaryB(sharedPreferences, keyprefBandwidthPolicy);
     updateSummaryB(sharedPreferences, keyprefHwCodec);
     updateSummaryB(sharedPreferences, keyprefCpuUsageDetection);
     updateSummaryB(sharedPreferences, keyprefSignaling);
+    updateSummaryB(sharedPreferences, keyprefIceTcp);
+    updateSummaryList(sharedPreferences, keyprefIceTypes);
+    updateSummaryB(sharedPreferences, keyprefIceLinkLocal);
+    updateSummaryB(sharedPreferences, keyprefIceDedup);
   }
 
   @Override
@@ -98,13 +124,21 @@ public class SettingsActivity extends Activity
     if (key.equals(keyprefResolution)
         || key.equals(keyprefFps)
         || key.equals(keyprefStartBitrateType)
-        || key.equals(keyPrefRoomServerUrl)) {
+        || key.equals(keyPrefRoomServerUrl)
+        || key.equals(keyprefAudioCodecs)
+        || key.equals(keyprefVideoCodecs)
+        || key.equals(keyprefStrippedCodecs)) {
       updateSummary(sharedPreferences, key);
     } else if (key.equals(keyprefStartBitrateValue)) {
       updateSummaryBitrate(sharedPreferences, key);
     } else if (key.equals(keyprefCpuUsageDetection)
-        || key.equals(keyprefHwCodec) || key.equals(keyprefSignaling)) {
+        || key.equals(keyprefHwCodec) || key.equals(keyprefSignaling)
+        || key.equals(keyprefBandwidthPolicy)
+        || key.equals(keyprefIceTcp) || key.equals(keyprefIceLinkLocal)
+        || key.equals(keyprefIceDedup)) {
       updateSummaryB(sharedPreferences, key);
+    } else if (key.equals(keyprefIceTypes)) {
+      updateSummaryList(sharedPreferences, key);
     }
     if (key.equals(keyprefStartBitrateType)) {
       setBitrateEnable(sharedPreferences);
@@ -123,6 +157,14 @@ public class SettingsActivity extends Activity
     updatedPref.setSummary(sharedPreferences.getString(key, "") + " kbps");
   }
 
+  // Set summary to the entry of the selected value, not the value itself.
+  private void updateSummaryList(
+      SharedPreferences sharedPreferences, String key) {
+    ListPreference updatedPref =
+        (ListPreference) settingsFragment.findPreference(key);
+    updatedPref.setSummary(updatedPref.getEntry());
+  }
+
   private void updateSummaryB(SharedPreferences sharedPreferences, String key) {
     Preference updatedPref = settingsFragment.findPreference(key);
     updatedPref.setSummary(sharedPreferences.getBoolean(key, true)
@@ -0,0 +1,450 @@
+package org.appspot.apprtc;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.appspot.apprtc.sdp.SdpCompressor;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+/**
+ * Encodes and decodes signaling messages without building org.json trees.
+ *
+ * <p>Messages are written straight into a buffer owned by the codec and
+ * reused for every message, so encoding allocates little beyond the
+ * resulting string. Incoming AppRTC WebSocket messages are decoded with a
+ * JsonReader, reading only the fields they need. Encoders are synchronized
+ * on the codec; each client keeps its own instance.
+ *
+ * <p>Once a trace id is set, every SmokeSignals message carries it in
+ * "trace" together with a correlation id of its own in "cid", the trace id
+ * followed by a sequence number. Both go in "payload", the part of a
+ * message the server relays to the peer. AppRTC messages are left exactly
+ * as that server protocol defines them, without trace fields.
+ */
+public class SignalingMessageCodec {
+  // Large enough for a typical SDP, the buffer grows as needed.
+  private static final int INITIAL_CAPACITY = 4096;
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private final StringBuilder buffer = new StringBuilder(INITIAL_CAPACITY);
+  // Set once a value was written at the current nesting level.
+  private boolean needsSeparator;
+  private String traceId;
+  private int sequence;
+  private String lastCorrelationId;
+
+  /** Receives messages decoded by decodeWebSocketMessage(). */
+  public interface WebSocketMessageEvents {
+    public void onRemoteDescription(SessionDescription sdp);
+    public void onRemoteIceCandidate(IceCandidate candidate);
+    public void onBye();
+    public void onServerError(String error);
+  }
+
+  /** Sets the trace id of following messages, null for none. */
+  public synchronized void setTraceId(String traceId) {
+    this.traceId = traceId;
+  }
+
+  /**
+   * Returns the correlation id of the last encoded message, or null if it
+   * had none.
+   */
+  public synchronized String getLastCorrelationId() {
+    return lastCorrelationId;
+  }
+
+  // --------------------------------------------------------------------
+  // AppRTC messages.
+
+  /** {"sdp": ..., "type": ...} */
+  public synchronized String encodeSessionDescription(SessionDescription sdp) {
+    begin();
+    field("sdp", sdp.description);
+    field("type", sdp.type.canonicalForm());
+    return end();
+  }
+
+  /** {"type": "candidate", "label": ..., "id": ..., "candidate": ...} */
+  public synchronized String encodeIceCandidate(IceCandidate candidate) {
+    begin();
+    field("type", "candidate");
+    field("label", candidate.sdpMLineIndex);
+    field("id", candidate.sdpMid);
+    field("candidate", candidate.sdp);
+    return end();
+  }
+
+  /** {"type": "bye"} */
+  public synchronized String encodeBye() {
+    begin();
+    field("type", "bye");
+    return end();
+  }
+
+  /** WebSocket registration: {"cmd": "register", "roomid": ..., ...} */
+  public synchronized String encodeRegister(String roomId, String clientId) {
+    begin();
+    field("cmd", "register");
+    field("roomid", roomId);
+    field("clientid", clientId);
+    return end();
+  }
+
+  /** Wraps |message| for the WebSocket server: {"cmd": "send", "msg": ...} */
+  public synchronized String encodeSend(String message) {
+    begin();
+    field("cmd", "send");
+    field("msg", message);
+    return end();
+  }
+
+  // --------------------------------------------------------------------
+  // SmokeSignals messages.
+
+  /**
+   * {"type": "offer", "peer": ..., "token": ...,
+   *  "payload": {"offer": {"type": "offer", "sdp": ...},
+   *              "sdpEncodings": [...]}}.
+   * |compact| is as for encodeSmokeSignalAnswer(); it may only be set once
+   * the peer advertised the encoding, as a first offer cannot know.
+   */
+  public synchronized String encodeSmokeSignalOffer(String peer, String token,
+      SessionDescription sdp, boolean compact) {
+    begin();
+    field("type", "offer");
+    field("peer", peer);
+    field("token", token);
+    beginObject("payload");
+    writeSmokeSignalDescription("offer", sdp, compact);
+    traceFields(null);
+    endObject();
+    return end();
+  }
+
+  /**
+   * {"type": "answer", "peer": ..., "token": ...,
+   *  "payload": {"answer": {"type": "answer", "sdp": ...},
+   *              "sdpEncodings": [...], "replyTo": ...}}.
+   * With |compact| the SDP is sent in the SdpCompressor encoding, marked by
+   * "sdpEncoding", unless that would not make it smaller. "sdpEncodings"
+   * tells the peer which compact encodings its own descriptions, such as
+   * later offers, may use. |replyTo| is the correlation id of the offer, if
+   * it had one.
+   */
+  public synchronized String encodeSmokeSignalAnswer(String peer, String token,
+      SessionDescription sdp, boolean compact, String replyTo) {
+    begin();
+    field("type", "answer");
+    field("peer", peer);
+    field("token", token);
+    beginObject("payload");
+    writeSmokeSignalDescription("answer", sdp, compact);
+    traceFields(replyTo);
+    endObject();
+    return end();
+  }
+
+  // Writes description |sdp| as |name|, compact if asked and smaller, and
+  // the encodings accepted in return.
+  private void writeSmokeSignalDescription(String name,
+      SessionDescription sdp, boolean compact) {
+    String description = sdp.description;
+    String sdpEncoding = null;
+    if (compact) {
+      String compressed = SdpCompressor.getInstance().compress(description);
+      if (compressed.length() < description.length()) {
+        description = compressed;
+        sdpEncoding = SdpCompressor.ENCODING;
+      }
+    }
+    beginObject(name);
+    field("type", sdp.type.canonicalForm());
+    field("sdpEncoding", sdpEncoding);
+    field("sdp", description);
+    endObject();
+    beginArray("sdpEncodings");
+    field(null, SdpCompressor.ENCODING);
+    endArray();
+  }
+
+  /**
+   * {"type": "icecandidate", "peer": ..., "token": ..., "payload": ...}.
+   * A single candidate is sent as {"candidate": {...}}, understood by all
+   * peers, several as {"candidates": [{...}, ...]}.
+   */
+  public synchronized String encodeSmokeSignalIceCandidates(String peer,
+      String token, List<IceCandidate> candidates) {
+    begin();
+    field("type", "icecandidate");
+    field("peer", peer);
+    field("token", token);
+    beginObject("payload");
+    if (candidates.size() == 1) {
+      writeSmokeSignalIceCandidate("candidate", candidates.get(0));
+    } else {
+      beginArray("candidates");
+      for (int i = 0; i < candidates.size(); i++) {
+        writeSmokeSignalIceCandidate(null, candidates.get(i));
+      }
+      endArray();
+    }
+    traceFields(null);
+    endObject();
+    return end();
+  }
+
+  private void writeSmokeSignalIceCandidate(String name,
+      IceCandidate candidate) {
+    beginObject(name);
+    field("candidate", candidate.sdp);
+    field("sdpMid", candidate.sdpMid);
+    field("sdpMLineIndex", candidate.sdpMLineIndex);
+    endObject();
+  }
+
+  // --------------------------------------------------------------------
+  // Decoding.
+
+  /**
+   * Decodes an AppRTC WebSocket message, {"msg": ..., "error": ...} with
+   * the message itself JSON encoded in "msg", and reports it to |events|.
+   * Returns false if the message is neither a known message nor an error.
+   */
+  public static boolean decodeWebSocketMessage(String message,
+      WebSocketMessageEvents events) throws IOException {
+    String msg = null;
+    String error = null;
+    JsonReader reader = new JsonReader(new StringReader(message));
+    try {
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if ("msg".equals(name)) {
+          msg = nextString(reader);
+        } else if ("error".equals(name)) {
+          error = nextString(reader);
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+    } catch (IllegalStateException e) {
+      throw new IOException("Malformed WebSocket message: " + e.getMessage());
+    } finally {
+      reader.close();
+    }
+    if (msg == null || msg.length() == 0) {
+      if (error != null && error.length() > 0) {
+        events.onServerError(error);
+        return true;
+      }
+      return false;
+    }
+    return decodeMessage(msg, events);
+  }
+
+  // Decodes the "msg" of a WebSocket message.
+  private static boolean decodeMessage(String msg,
+      WebSocketMessageEvents events) throws IOException {
+    String type = null;
+    String sdp = null;
+    String id = null;
+    int label = -1;
+    String candidate = null;
+    JsonReader reader = new JsonReader(new StringReader(msg));
+    try {
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if ("type".equals(name)) {
+          type = nextString(reader);
+        } else if ("sdp".equals(name)) {
+          sdp = nextString(reader);
+        } else if ("id".equals(name)) {
+          id = nextString(reader);
+        } else if ("label".equals(name)) {
+          label = reader.nextInt();
+        } else if ("candidate".equals(name)) {
+          candidate = nextString(reader);
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+    } catch (IllegalStateException e) {
+      throw new IOException("Malformed message: " + e.getMessage());
+    } finally {
+      reader.close();
+    }
+    if ("candidate".equals(type)) {
+      if (candidate == null || label < 0) {
+        throw new IOException("Incomplete ICE candidate");
+      }
+      events.onRemoteIceCandidate(new IceCandidate(id, label, candidate));
+    } else if ("offer".equals(type) || "answer".equals(type)) {
+      if (sdp == null) {
+        throw new IOException("Session description without sdp");
+      }
+      events.onRemoteDescription(new SessionDescription(
+          SessionDescription.Type.fromCanonicalForm(type), sdp));
+    } else if ("bye".equals(type)) {
+      events.onBye();
+    } else {
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Returns the "result" of a room server response, {"result": ...}, or null
+   * if it has none.
+   */
+  public static String decodeResult(String response) throws IOException {
+    String result = null;
+    JsonReader reader = new JsonReader(new StringReader(response));
+    try {
+      reader.beginObject();
+      while (reader.hasNext()) {
+        if ("result".equals(reader.nextName())) {
+          result = nextString(reader);
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+    } catch (IllegalStateException e) {
+      throw new IOException("Malformed response: " + e.getMessage());
+    } finally {
+      reader.close();
+    }
+    return result;
+  }
+
+  // Returns a string value, or null for a JSON null.
+  private static String nextString(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+    return reader.nextString();
+  }
+
+  // --------------------------------------------------------------------
+  // Writer. Fields with a null value are left out, like JSONObject does.
+
+  private void begin() {
+    buffer.setLength(0);
+    needsSeparator = false;
+    lastCorrelationId = null;
+    beginObject(null);
+  }
+
+  // Writes "trace" and a new "cid" if a trace id is set, and "replyTo".
+  private void traceFields(String replyTo) {
+    if (traceId != null) {
+      lastCorrelationId = traceId + "." + (++sequence);
+      field("trace", traceId);
+      field("cid", lastCorrelationId);
+    }
+    field("replyTo", replyTo);
+  }
+
+  private String end() {
+    endObject();
+    return buffer.toString();
+  }
+
+  // Starts an object, named |name| unless it is an array element.
+  private void beginObject(String name) {
+    separator(name);
+    buffer.append('{');
+    needsSeparator = false;
+  }
+
+  private void endObject() {
+    buffer.append('}');
+    needsSeparator = true;
+  }
+
+  private void beginArray(String name) {
+    separator(name);
+    buffer.append('[');
+    needsSeparator = false;
+  }
+
+  private void endArray() {
+    buffer.append(']');
+    needsSeparator = true;
+  }
+
+  private void field(String name, String value) {
+    if (value == null) {
+      return;
+    }
+    separator(name);
+    quote(value);
+    needsSeparator = true;
+  }
+
+  private void field(String name, int value) {
+    separator(name);
+    buffer.append(value);
+    needsSeparator = true;
+  }
+
+  private void separator(String name) {
+    if (needsSeparator) {
+      buffer.append(',');
+    }
+    if (name != null) {
+      quote(name);
+      buffer.append(':');
+    }
+  }
+
+  // Appends |value| as a JSON string. Runs of characters which need no
+  // escaping are copied at once.
+  private void quote(String value) {
+    buffer.append('"');
+    int length = value.length();
+    int start = 0;
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      String escaped;
+      if (c == '"') {
+        escaped = "\\\"";
+      } else if (c == '\\') {
+        escaped = "\\\\";
+      } else if (c == '\n') {
+        escaped = "\\n";
+      } else if (c == '\r') {
+        escaped = "\\r";
+      } else if (c == '\t') {
+        escaped = "\\t";
+      } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+        escaped = null;
+      } else {
+        continue;
+      }
+      buffer.append(value, start, i);
+      if (escaped != null) {
+        buffer.append(escaped);
+      } else {
+        buffer.append("\\u")
+            .append(HEX_DIGITS[(c >> 12) & 0xf])
+            .append(HEX_DIGITS[(c >> 8) & 0xf])
+            .append(HEX_DIGITS[(c >> 4) & 0xf])
+            .append(HEX_DIGITS[c & 0xf]);
+      }
+      start = i + 1;
+    }
+    buffer.append(value, start, length);
+    buffer.append('"');
+  }
+}
@@ -0,0 +1,297 @@
+package org.appspot.apprtc;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.appspot.apprtc.util.AsyncHttpURLConnection;
+import org.appspot.apprtc.util.AsyncHttpURLConnection.AsyncHttpEvents;
+import org.appspot.apprtc.util.HttpTransport;
+import org.appspot.apprtc.util.LooperExecutor;
+import org.appspot.apprtc.util.MetricsRegistry;
+import org.appspot.apprtc.util.RetryPolicy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Prioritized outbound queue for the signaling messages of one room.
+ *
+ * <p>Messages wait in one lane per Priority and are POSTed from the highest
+ * priority lane first, in the order they were enqueued within a lane. At
+ * most |maxInFlight| requests are outstanding at any time; the next request
+ * is issued as soon as one completes, so with the default window of one
+ * consecutive requests go out back to back over the transport's keep-alive
+ * connection, and an SDP never waits behind a burst of candidates. The
+ * queue holds at most |maxQueueDepth| pending messages; enqueue() refuses
+ * further messages until it drains. A message being retried under its
+ * RetryPolicy stays in flight, so later messages of its lane do not
+ * overtake it.
+ *
+ * <p>Requests in flight with an idempotent RetryPolicy are preemptible: if a
+ * higher priority message finds the window full, such a request is aborted
+ * and goes back to the head of its lane, to be sent again once the higher
+ * priority message is out. The time from enqueue to completion is recorded
+ * per lane. BYE is not queued: close() drops the pending messages on
+ * disconnect and the clients send it right away.
+ *
+ * <p>All methods must be called on the looper thread passed in constructor.
+ * Completion callbacks are delivered on the same thread.
+ */
+public class SignalingSendQueue {
+  private static final String TAG = "SignalingSendQueue";
+  public static final int DEFAULT_MAX_IN_FLIGHT = 1;
+  public static final int DEFAULT_MAX_QUEUE_DEPTH = 64;
+  public static final String METRIC_PREEMPTIONS = "send.preemptions";
+
+  /** Send priorities, highest first. */
+  public enum Priority {
+    SDP("send.sdp_ms"),
+    CANDIDATES("send.candidates_ms");
+
+    // Histogram of send latencies in this lane.
+    private final String metric;
+
+    private Priority(String metric) {
+      this.metric = metric;
+    }
+
+    public String getMetric() {
+      return metric;
+    }
+  };
+
+  private final LooperExecutor executor;
+  private final int maxInFlight;
+  private final int maxQueueDepth;
+  // Pending messages, one lane per priority.
+  private final ArrayDeque<Message>[] lanes;
+  private int pendingCount;
+  private final ArrayList<Message> inFlight = new ArrayList<Message>();
+  private int preemptions;
+  private boolean closed;
+  // Send latency (enqueue to completion) statistics.
+  private int sentCount;
+  private long totalLatencyMs;
+  private long maxLatencyMs;
+  private long lastLatencyMs;
+
+  // Outbound message and its completion callback.
+  private static class Message {
+    final String url;
+    final String message;
+    final Priority priority;
+    final RetryPolicy retryPolicy;
+    final AsyncHttpEvents events;
+    final long enqueueTimeMs;
+    // Request of the current attempt, null while the message is pending.
+    AsyncHttpURLConnection connection;
+    // Number of times the message was sent, including preempted attempts.
+    int attempts;
+
+    Message(String url, String message, Priority priority,
+        RetryPolicy retryPolicy, AsyncHttpEvents events) {
+      this.url = url;
+      this.message = message;
+      this.priority = priority;
+      this.retryPolicy = retryPolicy;
+      this.events = events;
+      enqueueTimeMs = SystemClock.elapsedRealtime();
+    }
+  }
+
+  public SignalingSendQueue(LooperExecutor executor) {
+    this(executor, DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_QUEUE_DEPTH);
+  }
+
+  public SignalingSendQueue(
+      LooperExecutor executor, int maxInFlight, int maxQueueDepth) {
+    this.executor = executor;
+    this.maxInFlight = maxInFlight;
+    this.maxQueueDepth = maxQueueDepth;
+    @SuppressWarnings("unchecked")
+    ArrayDeque<Message>[] lanes = new ArrayDeque[Priority.values().length];
+    for (int i = 0; i < lanes.length; i++) {
+      lanes[i] = new ArrayDeque<Message>();
+    }
+    this.lanes = lanes;
+  }
+
+  /**
+   * Queues a POST of |message| to |url| in the lane of |priority|, retried
+   * according to |retryPolicy|. Returns false if the queue is full or
+   * closed; the message is not sent in that case.
+   */
+  public boolean enqueue(String url, String message, Priority priority,
+      RetryPolicy retryPolicy, AsyncHttpEvents events) {
+    if (closed) {
+      Log.w(TAG, "Enqueue on closed queue: " + url);
+      return false;
+    }
+    if (pendingCount >= maxQueueDepth) {
+      Log.e(TAG, "Send queue full, depth: " + pendingCount);
+      return false;
+    }
+    lanes[priority.ordinal()].add(
+        new Message(url, message, priority, retryPolicy, events));
+    pendingCount++;
+    if (inFlight.size() >= maxInFlight) {
+      preempt(priority);
+    }
+    pump();
+    return true;
+  }
+
+  /**
+   * Drops pending messages, aborts the ones in flight and refuses new ones.
+   * No completion callbacks are delivered after close().
+   */
+  public void close() {
+    closed = true;
+    for (ArrayDeque<Message> lane : lanes) {
+      lane.clear();
+    }
+    pendingCount = 0;
+    HttpTransport.getInstance().cancelAll(this);
+    inFlight.clear();
+  }
+
+  /** Number of messages waiting to be sent. */
+  public int getQueueDepth() {
+    return pendingCount;
+  }
+
+  /** Number of messages of |priority| waiting to be sent. */
+  public int getQueueDepth(Priority priority) {
+    return lanes[priority.ordinal()].size();
+  }
+
+  /** Number of requests currently outstanding. */
+  public int getInFlight() {
+    return inFlight.size();
+  }
+
+  /** Number of requests aborted for higher priority messages. */
+  public int getPreemptions() {
+    return preemptions;
+  }
+
+  public long getLastSendLatencyMs() {
+    return lastLatencyMs;
+  }
+
+  public long getMaxSendLatencyMs() {
+    return maxLatencyMs;
+  }
+
+  public long getAverageSendLatencyMs() {
+    return sentCount == 0 ? 0 : totalLatencyMs / sentCount;
+  }
+
+  public String getStats() {
+    return "depth=" + pendingCount + " inFlight=" + inFlight.size()
+        + " sent=" + sentCount + " preempted=" + preemptions
+        + " latency(avg/max/last)="
+        + getAverageSendLatencyMs() + "/" + maxLatencyMs + "/"
+        + lastLatencyMs + " ms";
+  }
+
+  // Aborts the lowest priority preemptible request in flight if its
+  // priority is below |priority|, and requeues its message.
+  private void preempt(Priority priority) {
+    Message victim = null;
+    for (Message message : inFlight) {
+      if (message.priority.compareTo(priority) > 0
+          && message.retryPolicy.isIdempotent()
+          && (victim == null
+              || message.priority.compareTo(victim.priority) > 0)) {
+        victim = message;
+      }
+    }
+    if (victim == null) {
+      return;
+    }
+    Log.d(TAG, "Preempting " + victim.priority + " message for " + priority);
+    victim.connection.cancel();
+    victim.connection = null;
+    inFlight.remove(victim);
+    lanes[victim.priority.ordinal()].addFirst(victim);
+    pendingCount++;
+    preemptions++;
+    MetricsRegistry.getInstance().increment(METRIC_PREEMPTIONS);
+  }
+
+  private void pump() {
+    while (inFlight.size() < maxInFlight && pendingCount > 0) {
+      send(poll());
+    }
+  }
+
+  // Takes the next message from the highest priority non-empty lane.
+  private Message poll() {
+    for (ArrayDeque<Message> lane : lanes) {
+      if (!lane.isEmpty()) {
+        pendingCount--;
+        return lane.poll();
+      }
+    }
+    return null;
+  }
+
+  private void send(final Message message) {
+    inFlight.add(message);
+    final int attempt = ++message.attempts;
+    AsyncHttpURLConnection httpConnection = new AsyncHttpURLConnection(
+        "POST", message.url, message.message, new AsyncHttpEvents() {
+          @Override
+          public void OnHttpError(final String errorMessage) {
+            executor.execute(new Runnable() {
+              @Override
+              public void run() {
+                if (isStale(message, attempt)) {
+                  // Closed or preempted meanwhile.
+                  return;
+                }
+                onSendComplete(message);
+                message.events.OnHttpError(errorMessage);
+              }
+            });
+          }
+
+          @Override
+          public void OnHttpComplete(final String response) {
+            executor.execute(new Runnable() {
+              @Override
+              public void run() {
+                if (isStale(message, attempt)) {
+                  return;
+                }
+                onSendComplete(message);
+                message.events.OnHttpComplete(response);
+              }
+            });
+          }
+        });
+    httpConnection.setTag(this);
+    httpConnection.setRetryPolicy(message.retryPolicy);
+    message.connection = httpConnection;
+    httpConnection.send();
+  }
+
+  // Returns true if |attempt| of |message| was aborted by close() or
+  // preempt(), or the message was sent again since.
+  private boolean isStale(Message message, int attempt) {
+    return closed || message.connection == null || message.attempts != attempt;
+  }
+
+  private void onSendComplete(Message message) {
+    inFlight.remove(message);
+    message.connection = null;
+    lastLatencyMs = SystemClock.elapsedRealtime() - message.enqueueTimeMs;
+    MetricsRegistry.getInstance().record(
+        message.priority.getMetric(), lastLatencyMs);
+    maxLatencyMs = Math.max(maxLatencyMs, lastLatencyMs);
+    totalLatencyMs += lastLatencyMs;
+    sentCount++;
+    pump();
+  }
+}
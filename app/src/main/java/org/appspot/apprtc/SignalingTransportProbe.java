@@ -0,0 +1,275 @@
+package org.appspot.apprtc;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import de.tavendo.autobahn.WebSocket.WebSocketConnectionObserver;
+import de.tavendo.autobahn.WebSocketConnection;
+import de.tavendo.autobahn.WebSocketException;
+
+import org.appspot.apprtc.util.HttpTransport;
+import org.appspot.apprtc.util.LooperExecutor;
+import org.appspot.apprtc.util.SignalingTransportSelector;
+import org.appspot.apprtc.util.SignalingTransportSelector.Transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+
+/**
+ * Races the signaling transports of a room without joining it.
+ *
+ * <p>The WebSocket is probed with an opening handshake to the probe URL of
+ * the room, see SmokeSignalWebSocketChannel.getProbeUrl(), which is closed
+ * as soon as it opens. The event stream is probed with a HEAD request to the
+ * room server's origin, as ConnectionPrewarmer sends. Neither joins the
+ * room, so the client joins once, over the winner, and peers only ever see
+ * one buddy. The first probe to succeed wins and is reported right away; the
+ * loser is given a grace period to complete, which gives the winning margin
+ * reported to the selector. If both probes fail the event stream is chosen,
+ * as it reconnects by itself.
+ *
+ * <p>All methods must be called on the looper executor passed in the
+ * constructor; events are issued on it too.
+ */
+public class SignalingTransportProbe {
+  private static final String TAG = "TransportProbe";
+  // A probe not completing within this time failed.
+  private static final int PROBE_TIMEOUT_MS = 3000;
+  // Time the losing probe has to complete after the winner.
+  private static final long GRACE_PERIOD_MS = 2000;
+
+  private final LooperExecutor executor;
+  private final SignalingTransportSelector selector;
+  private final TransportProbeEvents events;
+  private String roomUrl;
+  private long startMs;
+  private WebSocketConnection ws;
+  private Transport winner;
+  private long winnerMs;
+  private boolean webSocketDone;
+  private boolean eventStreamDone;
+  private boolean closed;
+
+  /** Probe events. */
+  public interface TransportProbeEvents {
+    /** Issued once with the transport to join the room over. */
+    public void onTransportChosen(Transport transport);
+  }
+
+  public SignalingTransportProbe(LooperExecutor executor,
+      SignalingTransportSelector selector, TransportProbeEvents events) {
+    this.executor = executor;
+    this.selector = selector;
+    this.events = events;
+  }
+
+  /** Probes both transports of room |roomUrl|. */
+  public void start(String roomUrl) {
+    this.roomUrl = roomUrl;
+    startMs = SystemClock.elapsedRealtime();
+    Log.d(TAG, "Probing transports of " + roomUrl);
+    startWebSocketProbe();
+    startEventStreamProbe();
+    if (webSocketDone && eventStreamDone) {
+      Log.w(TAG, "No transport could be probed, using the event stream.");
+      close();
+      events.onTransportChosen(Transport.EVENT_STREAM);
+      return;
+    }
+    executor.executeDelayed(probeTimeout, PROBE_TIMEOUT_MS);
+  }
+
+  /** Stops probing. No events are issued afterwards. */
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    executor.cancel(probeTimeout);
+    executor.cancel(gracePeriod);
+    closeWebSocket();
+  }
+
+  private void startWebSocketProbe() {
+    String probeUrl = SmokeSignalWebSocketChannel.getProbeUrl(roomUrl);
+    ws = new WebSocketConnection();
+    try {
+      ws.connect(new URI(probeUrl), new WebSocketConnectionObserver() {
+        @Override
+        public void onOpen() {
+          executor.execute(new Runnable() {
+            @Override
+            public void run() {
+              closeWebSocket();
+              onProbeComplete(Transport.WEB_SOCKET, true);
+            }
+          });
+        }
+
+        @Override
+        public void onClose(WebSocketCloseNotification code, String reason) {
+          executor.execute(new Runnable() {
+            @Override
+            public void run() {
+              onProbeComplete(Transport.WEB_SOCKET, false);
+            }
+          });
+        }
+
+        @Override
+        public void onTextMessage(String payload) {
+        }
+
+        @Override
+        public void onRawTextMessage(byte[] payload) {
+        }
+
+        @Override
+        public void onBinaryMessage(byte[] payload) {
+        }
+      });
+    } catch (URISyntaxException e) {
+      Log.w(TAG, "WebSocket probe URI error: " + e.getMessage());
+      webSocketDone = true;
+    } catch (WebSocketException e) {
+      Log.w(TAG, "WebSocket probe error: " + e.getMessage());
+      webSocketDone = true;
+    }
+  }
+
+  private void startEventStreamProbe() {
+    final URL url;
+    try {
+      URL room = new URL(roomUrl);
+      url = new URL(room.getProtocol(), room.getHost(), room.getPort(), "/");
+    } catch (IOException e) {
+      Log.w(TAG, "Invalid room URL: " + roomUrl);
+      eventStreamDone = true;
+      return;
+    }
+    HttpTransport.getInstance().submit(new Runnable() {
+      @Override
+      public void run() {
+        final boolean success = probeHttp(url);
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            onProbeComplete(Transport.EVENT_STREAM, success);
+          }
+        });
+      }
+    });
+  }
+
+  // Sends a HEAD request to |url|. Runs on a HttpTransport thread.
+  private static boolean probeHttp(URL url) {
+    HttpTransport transport = HttpTransport.getInstance();
+    transport.acquire(url);
+    boolean reusable = false;
+    try {
+      HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+      connection.setRequestMethod("HEAD");
+      connection.setUseCaches(false);
+      connection.setConnectTimeout(PROBE_TIMEOUT_MS);
+      connection.setReadTimeout(PROBE_TIMEOUT_MS);
+      // Any status will do, the round trip is what is measured.
+      int responseCode = connection.getResponseCode();
+      InputStream in = responseCode < 400
+          ? connection.getInputStream() : connection.getErrorStream();
+      if (in != null) {
+        while (in.read() != -1) {
+        }
+        in.close();
+      }
+      reusable = true;
+      return true;
+    } catch (IOException e) {
+      Log.w(TAG, "Event stream probe failed: " + e.getMessage());
+      return false;
+    } finally {
+      transport.release(url, reusable);
+    }
+  }
+
+  private void onProbeComplete(Transport transport, boolean success) {
+    if (closed) {
+      return;
+    }
+    if (transport == Transport.WEB_SOCKET) {
+      if (webSocketDone) {
+        return;
+      }
+      webSocketDone = true;
+    } else {
+      if (eventStreamDone) {
+        return;
+      }
+      eventStreamDone = true;
+    }
+    long elapsedMs = SystemClock.elapsedRealtime() - startMs;
+    Log.d(TAG, transport + " probe " + (success ? "completed" : "failed")
+        + " in " + elapsedMs + " ms");
+    if (winner == null) {
+      if (success) {
+        winner = transport;
+        winnerMs = elapsedMs;
+        events.onTransportChosen(winner);
+        if (webSocketDone && eventStreamDone) {
+          finish(-1);
+        } else {
+          executor.cancel(probeTimeout);
+          executor.executeDelayed(gracePeriod, GRACE_PERIOD_MS);
+        }
+      } else if (webSocketDone && eventStreamDone) {
+        Log.w(TAG, "Both probes failed, using the event stream.");
+        close();
+        events.onTransportChosen(Transport.EVENT_STREAM);
+      }
+    } else {
+      finish(success ? elapsedMs : -1);
+    }
+  }
+
+  // Reports the race. |loserMs| is the time until the loser's probe
+  // completed, or negative if it failed or did not complete.
+  private void finish(long loserMs) {
+    close();
+    if (selector != null) {
+      selector.reportRace(roomUrl, winner, winnerMs, loserMs);
+    }
+  }
+
+  private void closeWebSocket() {
+    if (ws != null) {
+      ws.disconnect();
+      ws = null;
+    }
+  }
+
+  private final Runnable probeTimeout = new Runnable() {
+    @Override
+    public void run() {
+      Log.w(TAG, "Transport probes timed out.");
+      closeWebSocket();
+      if (!webSocketDone) {
+        onProbeComplete(Transport.WEB_SOCKET, false);
+      }
+      if (!eventStreamDone) {
+        onProbeComplete(Transport.EVENT_STREAM, false);
+      }
+    }
+  };
+
+  private final Runnable gracePeriod = new Runnable() {
+    @Override
+    public void run() {
+      if (!closed) {
+        finish(-1);
+      }
+    }
+  };
+}
@@ -0,0 +1,344 @@
+package org.appspot.apprtc;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import org.appspot.apprtc.sdp.SdpCompressor;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decodes SmokeSignals event stream events and dispatches them to a
+ * SmokeSignalEvents sink.
+ *
+ * <p>Each event name maps to a decoder in a table, so dispatching is a single
+ * hash lookup. Decoders stream over the event data with a JsonReader, pull
+ * only the fields they need and skip everything else; no JSON tree is
+ * built. Unknown events are ignored. Debug logs are only formatted when
+ * debug logging is enabled for TAG.
+ *
+ * <p>Session descriptions in a compact encoding ("sdpEncoding") are
+ * decompressed here, so sinks always see plain SDP.
+ */
+public class SmokeSignalEventDispatcher {
+  private static final String TAG = "SmokeSignalDispatcher";
+
+  /**
+   * Typed SmokeSignals events. Called on the thread calling dispatch().
+   * |sdpEncoding| of onOffer() and onAnswer() is a compact SDP encoding the
+   * peer accepts for the answer, or for later offers respectively, or null
+   * if it only accepts plain SDP. onTrace() reports
+   * the trace fields of an offer or answer ahead of the event itself.
+   */
+  public interface SmokeSignalEvents {
+    public void onUid(String uid, String token);
+    public void onTrace(String event, String trace, String correlationId,
+        String replyTo);
+    public void onOffer(String peer, SessionDescription offer,
+        String sdpEncoding);
+    public void onAnswer(String peer, String sdpEncoding);
+    public void onIceCandidate(String peer, IceCandidate candidate);
+    public void onBuddyLeft(String peer);
+    public void onNewBuddy();
+  }
+
+  // Decodes the data of one event type.
+  private interface EventDecoder {
+    public void decode(JsonReader reader, SmokeSignalEvents events)
+        throws IOException;
+  }
+
+  private static final Map<String, EventDecoder> decoders =
+      new HashMap<String, EventDecoder>();
+
+  static {
+    // {"uid": ..., "token": ...}
+    decoders.put("uid", new EventDecoder() {
+      @Override
+      public void decode(JsonReader reader, SmokeSignalEvents events)
+          throws IOException {
+        String uid = null;
+        String token = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+          String name = reader.nextName();
+          if ("uid".equals(name)) {
+            uid = nextString(reader);
+          } else if ("token".equals(name)) {
+            token = nextString(reader);
+          } else {
+            reader.skipValue();
+          }
+        }
+        reader.endObject();
+        events.onUid(uid, token);
+      }
+    });
+    // {"peer": ..., "offer": {"type": ..., "sdp": ...},
+    //  "sdpEncodings": [...], "trace": ..., "cid": ...}
+    decoders.put("offer", new EventDecoder() {
+      @Override
+      public void decode(JsonReader reader, SmokeSignalEvents events)
+          throws IOException {
+        String peer = null;
+        SessionDescription offer = null;
+        String sdpEncoding = null;
+        TraceFields trace = new TraceFields();
+        reader.beginObject();
+        while (reader.hasNext()) {
+          String name = reader.nextName();
+          if (trace.read(name, reader)) {
+            // Read as a trace field.
+          } else if ("peer".equals(name)) {
+            peer = nextString(reader);
+          } else if ("offer".equals(name)) {
+            offer = readSessionDescription(reader);
+          } else if ("sdpEncodings".equals(name)) {
+            sdpEncoding = readSdpEncodings(reader);
+          } else {
+            reader.skipValue();
+          }
+        }
+        reader.endObject();
+        if (offer == null) {
+          throw new IOException("Offer event without offer");
+        }
+        trace.report("offer", events);
+        events.onOffer(peer, offer, sdpEncoding);
+      }
+    });
+    // {"peer": ..., "answer": {...}, "sdpEncodings": [...], "trace": ...,
+    //  "cid": ..., "replyTo": ...}; the answer itself is not used.
+    decoders.put("answer", new EventDecoder() {
+      @Override
+      public void decode(JsonReader reader, SmokeSignalEvents events)
+          throws IOException {
+        String peer = null;
+        String sdpEncoding = null;
+        TraceFields trace = new TraceFields();
+        reader.beginObject();
+        while (reader.hasNext()) {
+          String name = reader.nextName();
+          if (trace.read(name, reader)) {
+            // Read as a trace field.
+          } else if ("peer".equals(name)) {
+            peer = nextString(reader);
+          } else if ("sdpEncodings".equals(name)) {
+            sdpEncoding = readSdpEncodings(reader);
+          } else {
+            reader.skipValue();
+          }
+        }
+        reader.endObject();
+        trace.report("answer", events);
+        events.onAnswer(peer, sdpEncoding);
+      }
+    });
+    // {"peer": ..., "candidate": {...}} or, batched,
+    // {"peer": ..., "candidates": [{...}, ...]}.
+    decoders.put("icecandidate", new EventDecoder() {
+      @Override
+      public void decode(JsonReader reader, SmokeSignalEvents events)
+          throws IOException {
+        String peer = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+          String name = reader.nextName();
+          if ("peer".equals(name)) {
+            peer = nextString(reader);
+          } else if ("candidate".equals(name)) {
+            events.onIceCandidate(peer, readIceCandidate(reader));
+          } else if ("candidates".equals(name)) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+              events.onIceCandidate(peer, readIceCandidate(reader));
+            }
+            reader.endArray();
+          } else {
+            reader.skipValue();
+          }
+        }
+        reader.endObject();
+      }
+    });
+    // {"peer": ...}
+    decoders.put("buddyleft", new EventDecoder() {
+      @Override
+      public void decode(JsonReader reader, SmokeSignalEvents events)
+          throws IOException {
+        events.onBuddyLeft(readPeer(reader));
+      }
+    });
+    decoders.put("newbuddy", new EventDecoder() {
+      @Override
+      public void decode(JsonReader reader, SmokeSignalEvents events) {
+        events.onNewBuddy();
+      }
+    });
+  }
+
+  private SmokeSignalEventDispatcher() {
+  }
+
+  /**
+   * Decodes |data| of event |event| and reports it to |events|. Returns
+   * false if the event is unknown.
+   */
+  public static boolean dispatch(String event, String data,
+      SmokeSignalEvents events) throws IOException {
+    EventDecoder decoder = decoders.get(event);
+    if (decoder == null) {
+      if (Log.isLoggable(TAG, Log.DEBUG)) {
+        Log.d(TAG, "Ignoring unknown event: " + event);
+      }
+      return false;
+    }
+    if (Log.isLoggable(TAG, Log.DEBUG)) {
+      Log.d(TAG, event + " event: " + data);
+    }
+    JsonReader reader = new JsonReader(new StringReader(data));
+    try {
+      decoder.decode(reader, events);
+    } catch (IllegalStateException e) {
+      // JsonReader reports unexpected tokens this way.
+      throw new IOException("Malformed " + event + " event: "
+          + e.getMessage());
+    } finally {
+      reader.close();
+    }
+    return true;
+  }
+
+  // Trace fields of an event, collected while its other fields are decoded.
+  private static class TraceFields {
+    String trace;
+    String correlationId;
+    String replyTo;
+
+    // Reads the value of field |name| if it is a trace field.
+    boolean read(String name, JsonReader reader) throws IOException {
+      if ("trace".equals(name)) {
+        trace = nextString(reader);
+      } else if ("cid".equals(name)) {
+        correlationId = nextString(reader);
+      } else if ("replyTo".equals(name)) {
+        replyTo = nextString(reader);
+      } else {
+        return false;
+      }
+      return true;
+    }
+
+    // Reports the fields if the event had any.
+    void report(String event, SmokeSignalEvents events) {
+      if (trace != null || correlationId != null || replyTo != null) {
+        events.onTrace(event, trace, correlationId, replyTo);
+      }
+    }
+  }
+
+  // Returns the "peer" field of an object, skipping everything else.
+  private static String readPeer(JsonReader reader) throws IOException {
+    String peer = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if ("peer".equals(reader.nextName())) {
+        peer = nextString(reader);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return peer;
+  }
+
+  // Returns the first encoding of an "sdpEncodings" array which both sides
+  // support, or null if there is none.
+  private static String readSdpEncodings(JsonReader reader)
+      throws IOException {
+    String sdpEncoding = null;
+    reader.beginArray();
+    while (reader.hasNext()) {
+      String encoding = nextString(reader);
+      if (sdpEncoding == null && SdpCompressor.isSupported(encoding)) {
+        sdpEncoding = encoding;
+      }
+    }
+    reader.endArray();
+    return sdpEncoding;
+  }
+
+  // {"type": ..., "sdp": ...}, with "sdpEncoding" if |sdp| is compact.
+  private static SessionDescription readSessionDescription(JsonReader reader)
+      throws IOException {
+    String type = null;
+    String sdp = null;
+    String sdpEncoding = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("type".equals(name)) {
+        type = nextString(reader);
+      } else if ("sdp".equals(name)) {
+        sdp = nextString(reader);
+      } else if ("sdpEncoding".equals(name)) {
+        sdpEncoding = nextString(reader);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    if (type == null || sdp == null) {
+      throw new IOException("Incomplete session description");
+    }
+    if (sdpEncoding != null) {
+      if (!SdpCompressor.isSupported(sdpEncoding)) {
+        throw new IOException("Unsupported SDP encoding: " + sdpEncoding);
+      }
+      sdp = SdpCompressor.getInstance().decompress(sdp);
+    }
+    return new SessionDescription(
+        SessionDescription.Type.fromCanonicalForm(type), sdp);
+  }
+
+  // {"candidate": ..., "sdpMid": ..., "sdpMLineIndex": ...}
+  private static IceCandidate readIceCandidate(JsonReader reader)
+      throws IOException {
+    String sdpMid = null;
+    int sdpMLineIndex = -1;
+    String sdp = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if ("candidate".equals(name)) {
+        sdp = nextString(reader);
+      } else if ("sdpMid".equals(name)) {
+        sdpMid = nextString(reader);
+      } else if ("sdpMLineIndex".equals(name)) {
+        sdpMLineIndex = reader.nextInt();
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    if (sdp == null || sdpMLineIndex < 0) {
+      throw new IOException("Incomplete ICE candidate");
+    }
+    return new IceCandidate(sdpMid, sdpMLineIndex, sdp);
+  }
+
+  // Returns a string value, or null for a JSON null.
+  private static String nextString(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+    return reader.nextString();
+  }
+}
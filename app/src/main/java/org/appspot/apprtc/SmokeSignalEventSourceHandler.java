@@ -6,13 +6,13 @@ import com.github.eventsource.client.EventSourceHandler;
 import com.github.eventsource.client.MessageEvent;
 
 import org.appspot.apprtc.util.LooperExecutor;
-import org.json.JSONObject;
 import org.webrtc.IceCandidate;
 import org.webrtc.SessionDescription;
 
-public class SmokeSignalEventSourceHandler implements EventSourceHandler
+public class SmokeSignalEventSourceHandler implements EventSourceHandler,
+        SmokeSignalEventDispatcher.SmokeSignalEvents
 {
-    private static final String TAG = "SmokeSignalEventSourceHandler";
+    private static final String TAG = "SmokeSignalHandler";
 
     private AppRTCClient.SignalingEvents events;
     private final LooperExecutor executor;
@@ -34,55 +34,48 @@ public class SmokeSignalEventSourceHandler implements EventSourceHandler
     @Override
     public void onMessage(String event, MessageEvent messageEvent) throws Exception
     {
-        Log.d(TAG, "onMessage: " + event + " => " + messageEvent);
+        if (Log.isLoggable(TAG, Log.DEBUG))
+        {
+            Log.d(TAG, "onMessage: " + event + " => " + messageEvent);
+        }
+        SmokeSignalEventDispatcher.dispatch(event, messageEvent.data, this);
+    }
 
-        JSONObject data = new JSONObject(messageEvent.data);
+    @Override
+    public void onUid(String uid, String token)
+    {
+    }
 
-        if ("uid".equals(event))
-        {
-            Log.d(TAG, "uid event");
+    @Override
+    public void onTrace(String event, String trace, String correlationId, String replyTo)
+    {
+    }
 
-            String uid = data.getString("uid");
-            String token = data.getString("token");
-        }
-        else if ("offer".equals(event))
-        {
-            Log.d(TAG, "offer event");
+    @Override
+    public void onOffer(String peer, SessionDescription offer, String sdpEncoding)
+    {
+        events.onRemoteDescription(offer);
+    }
 
-            JSONObject offerJson = data.getJSONObject("offer");
-            String type = offerJson.getString("type");
-            String sdp = offerJson.getString("sdp");
+    @Override
+    public void onAnswer(String peer, String sdpEncoding)
+    {
+    }
 
-            SessionDescription sessionDescription = new SessionDescription(
-                    SessionDescription.Type.fromCanonicalForm(type),
-                    sdp
-            );
-            events.onRemoteDescription(sessionDescription);
-        }
-        else if ("answer".equals(event))
-        {
-            Log.d(TAG, "answer event");
-        }
-        else if ("icecandidate".equals(event))
-        {
-            Log.d(TAG, "icecandidate event");
+    @Override
+    public void onIceCandidate(String peer, IceCandidate candidate)
+    {
+        events.onRemoteIceCandidate(candidate);
+    }
 
-            JSONObject candidateJson = data.getJSONObject("candidate");
-            String sdpMid = candidateJson.getString("sdpMid");
-            int sdpMLineIndex = candidateJson.getInt("sdpMLineIndex");
-            String sdp = candidateJson.getString("candidate");
+    @Override
+    public void onBuddyLeft(String peer)
+    {
+    }
 
-            IceCandidate iceCandidate = new IceCandidate(sdpMid, sdpMLineIndex, sdp);
-            events.onRemoteIceCandidate(iceCandidate);
-        }
-        else if ("buddyleft".equals(event))
-        {
-            Log.d(TAG, "buddyleft event");
-        }
-        else if ("newbuddy".equals(event))
-        {
-            Log.d(TAG, "newbuddy event");
-        }
+    @Override
+    public void onNewBuddy()
+    {
     }
 
     @Override
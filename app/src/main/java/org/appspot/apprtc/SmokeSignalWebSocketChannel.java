@@ -0,0 +1,243 @@
+package org.appspot.apprtc;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import de.tavendo.autobahn.WebSocket.WebSocketConnectionObserver;
+import de.tavendo.autobahn.WebSocketConnection;
+import de.tavendo.autobahn.WebSocketException;
+import de.tavendo.autobahn.WebSocketOptions;
+
+import org.appspot.apprtc.util.EventStreamParser;
+import org.appspot.apprtc.util.LooperExecutor;
+import org.appspot.apprtc.util.MetricsRegistry;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Full-duplex SmokeSignals room channel over a single WebSocket.
+ *
+ * <p>Every frame from the server carries one event in event stream format
+ * ("event: ...\ndata: ...\n\n"), so frames are parsed by the same
+ * EventStreamParser as the event stream and ids carry over if the room
+ * falls back to it. Frames to the server carry the JSON bodies otherwise
+ * POSTed to the room URL. Text frames are received as raw UTF-8 and fed to
+ * the parser without decoding them first.
+ *
+ * <p>This needs server support the stock SmokeSignals server lacks: a
+ * WebSocket endpoint at the room URL plus "/ws" speaking the framing above,
+ * which also answers handshakes to getProbeUrl() without joining the room.
+ * Against a server without it the connect fails, after at most
+ * CONNECT_TIMEOUT_MS, and the room falls back to the event stream, so
+ * EventSourceRTCClient leaves the WebSocket off unless enabled.
+ *
+ * <p>All public methods must be called on the looper executor passed in the
+ * constructor; events are issued on it too.
+ */
+public class SmokeSignalWebSocketChannel {
+  private static final String TAG = "SSWebSocketChannel";
+  public static final String METRIC_CONNECT_TIME = "ws.connect_ms";
+  public static final String METRIC_MESSAGES_SENT = "ws.messages_sent";
+  // Connecting longer than this gives up on the WebSocket.
+  private static final long CONNECT_TIMEOUT_MS = 3000;
+  // Completes an event even if the frame does not end with a blank line.
+  private static final byte[] EVENT_END = { '\n', '\n' };
+
+  private final LooperExecutor executor;
+  private final SmokeSignalWebSocketEvents events;
+  private final EventStreamParser parser;
+  private WebSocketConnection ws;
+  private String wsUrl;
+  private long connectStartMs;
+  private boolean open;
+  private boolean closed;
+
+  /**
+   * Channel events. onWebSocketClose() is issued once, whether the
+   * connection failed to open or was lost later, unless disconnect() was
+   * called first.
+   */
+  public interface SmokeSignalWebSocketEvents {
+    public void onWebSocketOpen();
+    public void onWebSocketEvent(String event, String data);
+    public void onWebSocketClose(String reason);
+  }
+
+  public SmokeSignalWebSocketChannel(LooperExecutor executor,
+      SmokeSignalWebSocketEvents events) {
+    this.executor = executor;
+    this.events = events;
+    parser = new EventStreamParser(new EventStreamParser.EventStreamListener() {
+      @Override
+      public void onEvent(String event, String data, String id) {
+        if (!closed) {
+          SmokeSignalWebSocketChannel.this.events.onWebSocketEvent(event, data);
+        }
+      }
+
+      @Override
+      public void onRetry(long retryMs) {
+      }
+    });
+  }
+
+  /**
+   * Returns the WebSocket URL of a room URL, e.g. ws://host/api/rooms/room/ws
+   * for http://host/api/rooms/room.
+   */
+  public static String getWebSocketUrl(String roomUrl) {
+    String url = roomUrl;
+    if (url.startsWith("https:")) {
+      url = "wss:" + url.substring("https:".length());
+    } else if (url.startsWith("http:")) {
+      url = "ws:" + url.substring("http:".length());
+    }
+    return url.endsWith("/") ? url + "ws" : url + "/ws";
+  }
+
+  /**
+   * Returns the URL SignalingTransportProbe handshakes with to time the
+   * WebSocket of room |roomUrl|, e.g. ws://host/api/rooms/room/ws?probe=1.
+   * The server must accept it without joining the room.
+   */
+  public static String getProbeUrl(String roomUrl) {
+    return getWebSocketUrl(roomUrl) + "?probe=1";
+  }
+
+  /**
+   * Feeds text frame |frame| to |parser|, completing its event even if the
+   * frame does not end with a blank line.
+   */
+  public static void parseFrame(EventStreamParser parser, byte[] frame) {
+    parser.feed(frame, 0, frame.length);
+    parser.feed(EVENT_END, 0, EVENT_END.length);
+  }
+
+  /** Connects to the WebSocket of room |roomUrl|. */
+  public void connect(String roomUrl) {
+    wsUrl = getWebSocketUrl(roomUrl);
+    Log.d(TAG, "Connecting WebSocket to: " + wsUrl);
+    connectStartMs = SystemClock.elapsedRealtime();
+    WebSocketOptions options = new WebSocketOptions();
+    options.setReceiveTextMessagesRaw(true);
+    ws = new WebSocketConnection();
+    try {
+      ws.connect(new URI(wsUrl), new WebSocketObserver(), options);
+    } catch (URISyntaxException e) {
+      reportClose("URI error: " + e.getMessage());
+      return;
+    } catch (WebSocketException e) {
+      reportClose("WebSocket connection error: " + e.getMessage());
+      return;
+    }
+    executor.executeDelayed(connectTimeout, CONNECT_TIMEOUT_MS);
+  }
+
+  public boolean isOpen() {
+    return open;
+  }
+
+  /** Id of the last received event, to resume another transport from. */
+  public String getLastEventId() {
+    return parser.getLastEventId();
+  }
+
+  /** Sends |message|. Returns false if the channel is not open. */
+  public boolean send(String message) {
+    if (!open) {
+      return false;
+    }
+    Log.d(TAG, "C->WS: " + message);
+    ws.sendTextMessage(message);
+    MetricsRegistry.getInstance().increment(METRIC_MESSAGES_SENT);
+    return true;
+  }
+
+  /** Closes the channel. No events are issued afterwards. */
+  public void disconnect() {
+    if (closed) {
+      return;
+    }
+    Log.d(TAG, "Disconnecting WebSocket. Open: " + open);
+    closed = true;
+    open = false;
+    executor.cancel(connectTimeout);
+    if (ws != null) {
+      ws.disconnect();
+    }
+  }
+
+  private final Runnable connectTimeout = new Runnable() {
+    @Override
+    public void run() {
+      if (!open && !closed) {
+        ws.disconnect();
+        reportClose("WebSocket connection timeout");
+      }
+    }
+  };
+
+  private void reportClose(String reason) {
+    if (closed) {
+      return;
+    }
+    Log.w(TAG, "WebSocket closed: " + reason);
+    closed = true;
+    open = false;
+    executor.cancel(connectTimeout);
+    events.onWebSocketClose(reason);
+  }
+
+  private class WebSocketObserver implements WebSocketConnectionObserver {
+    @Override
+    public void onOpen() {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          if (closed) {
+            return;
+          }
+          Log.d(TAG, "WebSocket connection opened to: " + wsUrl);
+          executor.cancel(connectTimeout);
+          MetricsRegistry.getInstance().record(METRIC_CONNECT_TIME,
+              SystemClock.elapsedRealtime() - connectStartMs);
+          open = true;
+          events.onWebSocketOpen();
+        }
+      });
+    }
+
+    @Override
+    public void onClose(final WebSocketCloseNotification code,
+        final String reason) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          reportClose(code + ": " + reason);
+        }
+      });
+    }
+
+    @Override
+    public void onTextMessage(String payload) {
+    }
+
+    @Override
+    public void onRawTextMessage(final byte[] payload) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          if (!open) {
+            return;
+          }
+          parseFrame(parser, payload);
+        }
+      });
+    }
+
+    @Override
+    public void onBinaryMessage(byte[] payload) {
+    }
+  }
+}
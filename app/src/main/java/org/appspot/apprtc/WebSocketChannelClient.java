@@ -32,9 +32,6 @@ import de.tavendo.autobahn.WebSocket.WebSocketConnectionObserver;
 import de.tavendo.autobahn.WebSocketConnection;
 import de.tavendo.autobahn.WebSocketException;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.LinkedList;
@@ -62,6 +59,7 @@ public class WebSocketChannelClient {
   private String roomID;
   private String clientID;
   private WebSocketConnectionState state;
+  private final SignalingMessageCodec codec = new SignalingMessageCodec();
   private final Object closeEventLock = new Object();
   private boolean closeEvent;
   // WebSocket send queue. Messages are added to the queue when WebSocket
@@ -129,23 +127,16 @@ public class WebSocketChannelClient {
       Log.w(TAG, "WebSocket register() in state " + state);
       return;
     }
-    JSONObject json = new JSONObject();
-    try {
-      json.put("cmd", "register");
-      json.put("roomid", roomID);
-      json.put("clientid", clientID);
-      Log.d(TAG, "C->WSS: " + json.toString());
-      ws.sendTextMessage(json.toString());
-      state = WebSocketConnectionState.REGISTERED;
-      // Send any previously accumulated messages.
-      synchronized (wsSendQueue) {
-        for (String sendMessage : wsSendQueue) {
-          send(sendMessage);
-        }
-        wsSendQueue.clear();
+    String message = codec.encodeRegister(roomID, clientID);
+    Log.d(TAG, "C->WSS: " + message);
+    ws.sendTextMessage(message);
+    state = WebSocketConnectionState.REGISTERED;
+    // Send any previously accumulated messages.
+    synchronized (wsSendQueue) {
+      for (String sendMessage : wsSendQueue) {
+        send(sendMessage);
       }
-    } catch (JSONException e) {
-      reportError("WebSocket register JSON error: " + e.getMessage());
+      wsSendQueue.clear();
     }
   }
 
@@ -165,16 +156,9 @@ public class WebSocketChannelClient {
         Log.e(TAG, "WebSocket send() in error or closed state : " + message);
         return;
       case REGISTERED:
-        JSONObject json = new JSONObject();
-        try {
-          json.put("cmd", "send");
-          json.put("msg", message);
-          message = json.toString();
-          Log.d(TAG, "C->WSS: " + message);
-          ws.sendTextMessage(message);
-        } catch (JSONException e) {
-          reportError("WebSocket send JSON error: " + e.getMessage());
-        }
+        message = codec.encodeSend(message);
+        Log.d(TAG, "C->WSS: " + message);
+        ws.sendTextMessage(message);
         break;
     }
     return;
@@ -192,7 +176,7 @@ public class WebSocketChannelClient {
   public void disconnect(boolean waitForComplete) {
     Log.d(TAG, "Disonnect WebSocket. State: " + state);
     if (state == WebSocketConnectionState.REGISTERED) {
-      send("{\"type\": \"bye\"}");
+      send(codec.encodeBye());
       state = WebSocketConnectionState.CONNECTED;
     }
     // Close WebSocket in CONNECTED or ERROR states only.
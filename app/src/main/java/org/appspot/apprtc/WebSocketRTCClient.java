@@ -30,15 +30,20 @@ import android.util.Log;
 
 import org.appspot.apprtc.util.AsyncHttpURLConnection;
 import org.appspot.apprtc.util.AsyncHttpURLConnection.AsyncHttpEvents;
+import org.appspot.apprtc.util.HttpTransport;
 import org.appspot.apprtc.util.LooperExecutor;
+import org.appspot.apprtc.util.RetryPolicy;
+import org.appspot.apprtc.util.SignalingExecutor;
 import org.appspot.apprtc.RoomParametersFetcher.RoomParametersFetcherEvents;
+import org.appspot.apprtc.SignalingSendQueue.Priority;
+import org.appspot.apprtc.SignalingMessageCodec.WebSocketMessageEvents;
 import org.appspot.apprtc.WebSocketChannelClient.WebSocketChannelEvents;
 import org.appspot.apprtc.WebSocketChannelClient.WebSocketConnectionState;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.webrtc.IceCandidate;
 import org.webrtc.SessionDescription;
 
+import java.io.IOException;
+
 /**
  * Negotiates signaling for chatting with apprtc.appspot.com "rooms".
  * Uses the client<->server specifics of the apprtc AppEngine webapp.
@@ -65,6 +70,8 @@ public class WebSocketRTCClient implements AppRTCClient,
   private SignalingEvents events;
   private WebSocketChannelClient wsClient;
   private RoomParametersFetcher fetcher;
+  private SignalingSendQueue sendQueue;
+  private final SignalingMessageCodec codec = new SignalingMessageCodec();
   private ConnectionState roomState;
   private String postMessageUrl;
   private String byeMessageUrl;
@@ -81,6 +88,7 @@ public class WebSocketRTCClient implements AppRTCClient,
   // and connect to WebSocket server.
   @Override
   public void connectToRoom(final String url, final boolean loopback) {
+    SignalingExecutor.getInstance().acquire();
     executor.requestStart();
     executor.execute(new Runnable() {
       @Override
@@ -106,6 +114,7 @@ public class WebSocketRTCClient implements AppRTCClient,
     Log.d(TAG, "Connect to room: " + url);
     this.loopback = loopback;
     roomState = ConnectionState.NEW;
+    sendQueue = new SignalingSendQueue(executor);
     // Create WebSocket client.
     wsClient = new WebSocketChannelClient(executor, this);
     // Get room parameters.
@@ -133,14 +142,24 @@ public class WebSocketRTCClient implements AppRTCClient,
   // Disconnect from room and send bye messages - runs on a local looper thread.
   private void disconnectFromRoomInternal() {
     Log.d(TAG, "Disconnect. Room state: " + roomState);
+    if (fetcher != null) {
+      fetcher.cancel();
+    }
+    if (sendQueue != null) {
+      Log.d(TAG, "Send queue: " + sendQueue.getStats());
+      sendQueue.close();
+    }
     if (roomState == ConnectionState.CONNECTED) {
       Log.d(TAG, "Closing room.");
-      sendPostMessage(MessageType.BYE, byeMessageUrl, "");
+      sendPostMessage(
+          MessageType.BYE, byeMessageUrl, "", null, RetryPolicy.BYE);
     }
     roomState = ConnectionState.CLOSED;
     if (wsClient != null) {
       wsClient.disconnect(true);
     }
+    HttpTransport.getInstance().logPoolStats();
+    SignalingExecutor.getInstance().release();
   }
 
   // Callback issued when room parameters are extracted. Runs on local
@@ -189,10 +208,8 @@ public class WebSocketRTCClient implements AppRTCClient,
           reportError("Sending offer SDP in non connected state.");
           return;
         }
-        JSONObject json = new JSONObject();
-        jsonPut(json, "sdp", sdp.description);
-        jsonPut(json, "type", "offer");
-        sendPostMessage(MessageType.MESSAGE, postMessageUrl, json.toString());
+        sendPostMessage(MessageType.MESSAGE, postMessageUrl,
+            codec.encodeSessionDescription(sdp), Priority.SDP, RetryPolicy.SDP);
         if (loopback) {
           // In loopback mode rename this offer to answer and route it back.
           SessionDescription sdpAnswer = new SessionDescription(
@@ -218,10 +235,7 @@ public class WebSocketRTCClient implements AppRTCClient,
           reportError("Sending answer SDP in non registered state.");
           return;
         }
-        JSONObject json = new JSONObject();
-        jsonPut(json, "sdp", sdp.description);
-        jsonPut(json, "type", "answer");
-        wsClient.send(json.toString());
+        wsClient.send(codec.encodeSessionDescription(sdp));
       }
     });
   }
@@ -232,18 +246,15 @@ public class WebSocketRTCClient implements AppRTCClient,
     executor.execute(new Runnable() {
       @Override
       public void run() {
-        JSONObject json = new JSONObject();
-        jsonPut(json, "type", "candidate");
-        jsonPut(json, "label", candidate.sdpMLineIndex);
-        jsonPut(json, "id", candidate.sdpMid);
-        jsonPut(json, "candidate", candidate.sdp);
+        String message = codec.encodeIceCandidate(candidate);
         if (initiator) {
           // Call initiator sends ice candidates to GAE server.
           if (roomState != ConnectionState.CONNECTED) {
             reportError("Sending ICE candidate in non connected state.");
             return;
           }
-          sendPostMessage(MessageType.MESSAGE, postMessageUrl, json.toString());
+          sendPostMessage(MessageType.MESSAGE, postMessageUrl,
+              message, Priority.CANDIDATES, RetryPolicy.ICE_CANDIDATES);
           if (loopback) {
             events.onRemoteIceCandidate(candidate);
           }
@@ -253,12 +264,17 @@ public class WebSocketRTCClient implements AppRTCClient,
             reportError("Sending ICE candidate in non registered state.");
             return;
           }
-          wsClient.send(json.toString());
+          wsClient.send(message);
         }
       }
     });
   }
 
+  // Ice candidates are sent as they are gathered, nothing to flush.
+  @Override
+  public void flushLocalIceCandidates() {
+  }
+
   // --------------------------------------------------------------------
   // WebSocketChannelEvents interface implementation.
   // All events are called by WebSocketChannelClient on a local looper thread
@@ -276,53 +292,45 @@ public class WebSocketRTCClient implements AppRTCClient,
       return;
     }
     try {
-      JSONObject json = new JSONObject(msg);
-      String msgText = json.getString("msg");
-      String errorText = json.optString("error");
-      if (msgText.length() > 0) {
-        json = new JSONObject(msgText);
-        String type = json.optString("type");
-        if (type.equals("candidate")) {
-          IceCandidate candidate = new IceCandidate(
-              json.getString("id"),
-              json.getInt("label"),
-              json.getString("candidate"));
-          events.onRemoteIceCandidate(candidate);
-        } else if (type.equals("answer")) {
-          if (initiator) {
-            SessionDescription sdp = new SessionDescription(
-                SessionDescription.Type.fromCanonicalForm(type),
-                json.getString("sdp"));
-            events.onRemoteDescription(sdp);
-          } else {
-            reportError("Received answer for call initiator: " + msg);
-          }
-        } else if (type.equals("offer")) {
-          if (!initiator) {
-            SessionDescription sdp = new SessionDescription(
-                SessionDescription.Type.fromCanonicalForm(type),
-                json.getString("sdp"));
-            events.onRemoteDescription(sdp);
-          } else {
-            reportError("Received offer for call receiver: " + msg);
-          }
-        } else if (type.equals("bye")) {
-          events.onChannelClose();
-        } else {
-          reportError("Unexpected WebSocket message: " + msg);
-        }
-      } else {
-        if (errorText != null && errorText.length() > 0) {
-          reportError("WebSocket error message: " + errorText);
-        } else {
-          reportError("Unexpected WebSocket message: " + msg);
-        }
+      if (!SignalingMessageCodec.decodeWebSocketMessage(
+          msg, webSocketMessageEvents)) {
+        reportError("Unexpected WebSocket message: " + msg);
       }
-    } catch (JSONException e) {
+    } catch (IOException e) {
       reportError("WebSocket message JSON parsing error: " + e.toString());
     }
   }
 
+  // Messages decoded by onWebSocketMessage().
+  private final WebSocketMessageEvents webSocketMessageEvents =
+      new WebSocketMessageEvents() {
+    @Override
+    public void onRemoteDescription(SessionDescription sdp) {
+      if (sdp.type == SessionDescription.Type.ANSWER && !initiator) {
+        reportError("Received answer for call initiator: " + sdp.description);
+      } else if (sdp.type == SessionDescription.Type.OFFER && initiator) {
+        reportError("Received offer for call receiver: " + sdp.description);
+      } else {
+        events.onRemoteDescription(sdp);
+      }
+    }
+
+    @Override
+    public void onRemoteIceCandidate(IceCandidate candidate) {
+      events.onRemoteIceCandidate(candidate);
+    }
+
+    @Override
+    public void onBye() {
+      events.onChannelClose();
+    }
+
+    @Override
+    public void onServerError(String error) {
+      reportError("WebSocket error message: " + error);
+    }
+  };
+
   @Override
   public void onWebSocketClose() {
     events.onChannelClose();
@@ -348,45 +356,46 @@ public class WebSocketRTCClient implements AppRTCClient,
     });
   }
 
-  // Put a |key|->|value| mapping in |json|.
-  private static void jsonPut(JSONObject json, String key, Object value) {
-    try {
-      json.put(key, value);
-    } catch (JSONException e) {
-      throw new RuntimeException(e);
-    }
-  }
-
-  // Send SDP or ICE candidate to a room server.
-  private void sendPostMessage(
-      final MessageType messageType, final String url, final String message) {
+  // Send SDP or ICE candidate to a room server in the send queue lane of
+  // |priority|. Failed attempts are retried according to |retryPolicy|.
+  // BYE bypasses the queue and has no |priority|.
+  private void sendPostMessage(final MessageType messageType, final String url,
+      final String message, Priority priority, RetryPolicy retryPolicy) {
     if (messageType == MessageType.BYE) {
       Log.d(TAG, "C->GAE: " + url);
     } else {
       Log.d(TAG, "C->GAE: " + message);
     }
-    AsyncHttpURLConnection httpConnection = new AsyncHttpURLConnection(
-      "POST", url, message, new AsyncHttpEvents() {
-        @Override
-        public void OnHttpError(String errorMessage) {
-          reportError("GAE POST error: " + errorMessage);
-        }
+    AsyncHttpEvents httpEvents = new AsyncHttpEvents() {
+      @Override
+      public void OnHttpError(String errorMessage) {
+        reportError("GAE POST error: " + errorMessage);
+      }
 
-        @Override
-        public void OnHttpComplete(String response) {
-          if (messageType == MessageType.MESSAGE) {
-            try {
-              JSONObject roomJson = new JSONObject(response);
-              String result = roomJson.getString("result");
-              if (!result.equals("SUCCESS")) {
-                reportError("GAE POST error: " + result);
-              }
-            } catch (JSONException e) {
-              reportError("GAE POST JSON error: " + e.toString());
+      @Override
+      public void OnHttpComplete(String response) {
+        if (messageType == MessageType.MESSAGE) {
+          try {
+            String result = SignalingMessageCodec.decodeResult(response);
+            if (!"SUCCESS".equals(result)) {
+              reportError("GAE POST error: " + result);
             }
+          } catch (IOException e) {
+            reportError("GAE POST JSON error: " + e.toString());
           }
         }
-      });
-    httpConnection.send();
+      }
+    };
+    if (messageType == MessageType.BYE) {
+      // Pending messages are dropped on disconnect, send bye right away.
+      AsyncHttpURLConnection httpConnection = new AsyncHttpURLConnection(
+          "POST", url, message, httpEvents);
+      httpConnection.setRetryPolicy(retryPolicy);
+      httpConnection.send();
+      return;
+    }
+    if (!sendQueue.enqueue(url, message, priority, retryPolicy, httpEvents)) {
+      reportError("GAE POST error: signaling send queue overflow.");
+    }
   }
 }
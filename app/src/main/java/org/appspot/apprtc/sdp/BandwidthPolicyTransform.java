@@ -0,0 +1,82 @@
+package org.appspot.apprtc.sdp;
+
+/**
+ * Writes bandwidth limits into the audio and video sections.
+ *
+ * <p>Each section gets b=AS (kbps) and b=TIAS (bps) lines with its maximum
+ * bitrate. Video codecs additionally get the x-google-min-bitrate,
+ * x-google-start-bitrate and x-google-max-bitrate fmtp parameters, so the
+ * encoder starts near the given rate instead of ramping up from the
+ * libjingle default. Applied to the remote description, the limits cap what
+ * this side sends. Limits of zero are left out.
+ */
+public class BandwidthPolicyTransform implements SdpTransform {
+  private final int audioMaxKbps;
+  private final int videoMinKbps;
+  private final int videoStartKbps;
+  private final int videoMaxKbps;
+
+  public BandwidthPolicyTransform(int audioMaxKbps, int videoMinKbps,
+      int videoStartKbps, int videoMaxKbps) {
+    this.audioMaxKbps = audioMaxKbps;
+    this.videoMinKbps = videoMinKbps;
+    this.videoStartKbps = videoStartKbps;
+    this.videoMaxKbps = videoMaxKbps;
+  }
+
+  public int getVideoStartKbps() {
+    return videoStartKbps;
+  }
+
+  @Override
+  public void apply(SdpSession sdp) {
+    for (SdpMediaSection section : sdp.getMediaSections()) {
+      if (section.getMedia().equals("audio")) {
+        setMaxBitrate(section, audioMaxKbps);
+      } else if (section.getMedia().equals("video")) {
+        setMaxBitrate(section, videoMaxKbps);
+        for (String payloadType : section.getFormats()) {
+          if (isMediaCodec(section.getRtpmap(payloadType))) {
+            setFmtpBitrate(section, payloadType, "x-google-min-bitrate",
+                videoMinKbps);
+            setFmtpBitrate(section, payloadType, "x-google-start-bitrate",
+                videoStartKbps);
+            setFmtpBitrate(section, payloadType, "x-google-max-bitrate",
+                videoMaxKbps);
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "audio<=" + audioMaxKbps + " video=" + videoMinKbps + "/"
+        + videoStartKbps + "/" + videoMaxKbps + " kbps";
+  }
+
+  private static void setMaxBitrate(SdpMediaSection section, int kbps) {
+    if (kbps > 0) {
+      section.setBandwidth("AS", kbps);
+      section.setBandwidth("TIAS", kbps * 1000L);
+    }
+  }
+
+  private static void setFmtpBitrate(SdpMediaSection section,
+      String payloadType, String name, int kbps) {
+    if (kbps > 0) {
+      section.setFmtpParameter(payloadType, name, Integer.toString(kbps));
+    }
+  }
+
+  // Retransmission, redundancy and FEC payload types carry no encoder.
+  private static boolean isMediaCodec(String rtpmap) {
+    if (rtpmap == null) {
+      return false;
+    }
+    int slash = rtpmap.indexOf('/');
+    String name = slash < 0 ? rtpmap : rtpmap.substring(0, slash);
+    return !name.equalsIgnoreCase("rtx") && !name.equalsIgnoreCase("red")
+        && !name.equalsIgnoreCase("ulpfec");
+  }
+}
@@ -0,0 +1,107 @@
+package org.appspot.apprtc.sdp;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reorders and strips the codecs of every media section of one type.
+ *
+ * <p>Codecs in the preference list move to the front of the m= line in list
+ * order; codecs not listed keep their relative order behind them. Stripped
+ * codecs are removed with their rtpmap, fmtp and rtcp-fb lines, as are rtx
+ * payload types retransmitting them. A section is never stripped of its
+ * last codec. Codecs are matched as in SdpMediaSection.findPayloadType(),
+ * so "H264" covers every H264 payload type.
+ */
+public class CodecPreferenceTransform implements SdpTransform {
+  private static final String TAG = "CodecPreferenceTransform";
+
+  private final String media;
+  private final List<String> preferred;
+  private final List<String> stripped;
+
+  /**
+   * @param media media type of the sections, e.g. "video".
+   * @param preferred codecs, most preferred first.
+   * @param stripped codecs to remove.
+   */
+  public CodecPreferenceTransform(String media, List<String> preferred,
+      List<String> stripped) {
+    this.media = media;
+    this.preferred = preferred;
+    this.stripped = stripped;
+  }
+
+  /** Splits comma separated codec list |codecs|, e.g. "opus, ISAC/16000". */
+  public static List<String> parseCodecList(String codecs) {
+    if (codecs == null || codecs.trim().length() == 0) {
+      return Collections.emptyList();
+    }
+    List<String> list = new ArrayList<String>(Arrays.asList(
+        codecs.trim().split("\\s*,\\s*")));
+    list.remove("");
+    return list;
+  }
+
+  @Override
+  public void apply(SdpSession sdp) {
+    for (SdpMediaSection section : sdp.getMediaSections()) {
+      if (section.getMedia().equals(media)) {
+        strip(section);
+        prefer(section);
+      }
+    }
+  }
+
+  private void strip(SdpMediaSection section) {
+    if (stripped.isEmpty()) {
+      return;
+    }
+    List<String> removed = new ArrayList<String>();
+    for (String codec : stripped) {
+      removed.addAll(section.findPayloadTypes(codec));
+    }
+    // Retransmission payload types of stripped codecs are useless.
+    for (String payloadType : section.findPayloadTypes("rtx")) {
+      String fmtp = section.getFmtp(payloadType);
+      int apt = fmtp == null ? -1 : fmtp.indexOf("apt=");
+      if (apt < 0) {
+        continue;
+      }
+      int end = apt + 4;
+      while (end < fmtp.length() && Character.isDigit(fmtp.charAt(end))) {
+        end++;
+      }
+      if (removed.contains(fmtp.substring(apt + 4, end))) {
+        removed.add(payloadType);
+      }
+    }
+    if (removed.isEmpty()) {
+      return;
+    }
+    if (removed.containsAll(section.getFormats())) {
+      Log.w(TAG, "Not stripping every " + media + " codec.");
+      return;
+    }
+    for (String payloadType : removed) {
+      section.removeFormat(payloadType);
+    }
+  }
+
+  private void prefer(SdpMediaSection section) {
+    List<String> formats = section.getFormats();
+    int front = 0;
+    for (String codec : preferred) {
+      for (String payloadType : section.findPayloadTypes(codec)) {
+        int index = formats.indexOf(payloadType);
+        if (index >= front) {
+          formats.add(front++, formats.remove(index));
+        }
+      }
+    }
+  }
+}
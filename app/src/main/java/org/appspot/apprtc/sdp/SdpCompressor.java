@@ -0,0 +1,200 @@
+package org.appspot.apprtc.sdp;
+
+import android.util.Base64;
+
+import org.appspot.apprtc.util.MetricsRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact wire encoding for session descriptions.
+ *
+ * <p>An SDP is deflated with a preset dictionary of lines common to WebRTC
+ * offers and answers, and the result is Base64 encoded so it can travel as
+ * a JSON string. Most of a typical 2 to 6 KB SDP is boilerplate covered by
+ * the dictionary, leaving mostly the ICE credentials, fingerprint and
+ * ssrcs to be coded. The dictionary is part of the encoding: a new
+ * dictionary needs a new encoding name.
+ *
+ * <p>The encoding is only used towards peers which announced that they
+ * accept it in their own description ("sdpEncodings": [ENCODING]); the
+ * caller falls back to plain text otherwise. Deflater and Inflater are
+ * reused across calls, so all methods are synchronized.
+ */
+public class SdpCompressor {
+  /** Name of the encoding, as sent in "sdpEncoding". */
+  public static final String ENCODING = "deflate-sdp1";
+  // Wire size saved by each compressed description.
+  public static final String METRIC_SAVED_BYTES = "sdp.compact_saved_bytes";
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  // Larger descriptions are rejected rather than inflated.
+  private static final int MAX_SDP_LENGTH = 64 * 1024;
+  // Deflate looks back at most 32 KB; lines used most often go last, where
+  // their distances are shortest.
+  private static final byte[] DICTIONARY = (
+      "a=candidate:1 1 udp 2122260223 192.168.1.2 54321 typ host generation 0"
+      + " network-id 1\r\n"
+      + "a=candidate:2 1 tcp 1518280447 192.168.1.2 9 typ host tcptype active"
+      + " generation 0\r\n"
+      + "a=candidate:3 1 udp 1686052607 203.0.113.7 54321 typ srflx raddr"
+      + " 192.168.1.2 rport 54321 generation 0\r\n"
+      + "a=candidate:4 1 udp 41885439 198.51.100.9 3478 typ relay raddr"
+      + " 203.0.113.7 rport 54321 generation 0\r\n"
+      + "a=ice-options:trickle\r\n"
+      + "a=msid-semantic:WMS *\r\n"
+      + "a=fmtp:126 profile-level-id=42e01f;level-asymmetry-allowed=1;"
+      + "packetization-mode=1\r\n"
+      + "a=fmtp:109 maxplaybackrate=48000;stereo=1\r\n"
+      + "a=fmtp:120 max-fs=12288;max-fr=60\r\n"
+      + "a=rtpmap:107 H264/90000\r\n"
+      + "a=rtpmap:102 ILBC/8000\r\n"
+      + "a=rtpmap:127 red/8000\r\n"
+      + "m=application 9 DTLS/SCTP 5000\r\n"
+      + "a=sctpmap:5000 webrtc-datachannel 1024\r\n"
+      + "a=ssrc-group:SIM \r\n"
+      + "a=x-google-flag:conference\r\n"
+      + "a=fmtp:100 x-google-start-bitrate=\r\n"
+      + "b=AS:\r\n"
+      + "a=sendonly\r\n"
+      + "a=recvonly\r\n"
+      + "a=inactive\r\n"
+      + "v=0\r\n"
+      + "o=- 2 IN IP4 127.0.0.1\r\n"
+      + "s=-\r\n"
+      + "t=0 0\r\n"
+      + "a=group:BUNDLE audio video data\r\n"
+      + "a=msid-semantic: WMS \r\n"
+      + "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 104 9 0 8 106 105 13 126\r\n"
+      + "c=IN IP4 0.0.0.0\r\n"
+      + "a=rtcp:9 IN IP4 0.0.0.0\r\n"
+      + "a=ice-ufrag:\r\n"
+      + "a=ice-pwd:\r\n"
+      + "a=fingerprint:sha-256 \r\n"
+      + "a=setup:actpass\r\n"
+      + "a=setup:active\r\n"
+      + "a=mid:audio\r\n"
+      + "a=extmap:1 urn:ietf:params:rtp-hdrext:ssrc-audio-level\r\n"
+      + "a=extmap:3 http://www.webrtc.org/experiments/rtp-hdrext/"
+      + "abs-send-time\r\n"
+      + "a=sendrecv\r\n"
+      + "a=rtcp-mux\r\n"
+      + "a=rtpmap:111 opus/48000/2\r\n"
+      + "a=fmtp:111 minptime=10; useinbandfec=1\r\n"
+      + "a=rtpmap:103 ISAC/16000\r\n"
+      + "a=rtpmap:104 ISAC/32000\r\n"
+      + "a=rtpmap:9 G722/8000\r\n"
+      + "a=rtpmap:0 PCMU/8000\r\n"
+      + "a=rtpmap:8 PCMA/8000\r\n"
+      + "a=rtpmap:106 CN/32000\r\n"
+      + "a=rtpmap:105 CN/16000\r\n"
+      + "a=rtpmap:13 CN/8000\r\n"
+      + "a=rtpmap:126 telephone-event/8000\r\n"
+      + "a=maxptime:60\r\n"
+      + "m=video 9 UDP/TLS/RTP/SAVPF 100 101 116 117 96 97 98\r\n"
+      + "a=mid:video\r\n"
+      + "a=extmap:2 urn:ietf:params:rtp-hdrext:toffset\r\n"
+      + "a=extmap:4 urn:3gpp:video-orientation\r\n"
+      + "a=rtpmap:100 VP8/90000\r\n"
+      + "a=rtcp-fb:100 ccm fir\r\n"
+      + "a=rtcp-fb:100 nack\r\n"
+      + "a=rtcp-fb:100 nack pli\r\n"
+      + "a=rtcp-fb:100 goog-remb\r\n"
+      + "a=rtpmap:101 VP9/90000\r\n"
+      + "a=rtcp-fb:101 ccm fir\r\n"
+      + "a=rtcp-fb:101 nack\r\n"
+      + "a=rtcp-fb:101 nack pli\r\n"
+      + "a=rtcp-fb:101 goog-remb\r\n"
+      + "a=rtpmap:116 red/90000\r\n"
+      + "a=rtpmap:117 ulpfec/90000\r\n"
+      + "a=rtpmap:96 rtx/90000\r\n"
+      + "a=fmtp:96 apt=100\r\n"
+      + "a=rtpmap:97 rtx/90000\r\n"
+      + "a=fmtp:97 apt=101\r\n"
+      + "a=rtpmap:98 rtx/90000\r\n"
+      + "a=fmtp:98 apt=116\r\n"
+      + "a=ssrc-group:FID \r\n"
+      + "a=ssrc: cname:\r\n"
+      + "a=ssrc: msid: \r\n"
+      + "a=ssrc: mslabel:\r\n"
+      + "a=ssrc: label:\r\n").getBytes(UTF_8);
+
+  private static SdpCompressor instance;
+
+  private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+  private final Inflater inflater = new Inflater();
+  private final byte[] chunk = new byte[4096];
+  private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+  public static synchronized SdpCompressor getInstance() {
+    if (instance == null) {
+      instance = new SdpCompressor();
+    }
+    return instance;
+  }
+
+  /** Returns true if |encoding| is an encoding decompress() understands. */
+  public static boolean isSupported(String encoding) {
+    return ENCODING.equals(encoding);
+  }
+
+  /** Returns |sdp| in the compact encoding. */
+  public synchronized String compress(String sdp) {
+    byte[] input = sdp.getBytes(UTF_8);
+    deflater.reset();
+    deflater.setDictionary(DICTIONARY);
+    deflater.setInput(input);
+    deflater.finish();
+    output.reset();
+    while (!deflater.finished()) {
+      output.write(chunk, 0, deflater.deflate(chunk));
+    }
+    String compressed = Base64.encodeToString(
+        output.toByteArray(), Base64.NO_WRAP);
+    MetricsRegistry.getInstance().record(
+        METRIC_SAVED_BYTES, input.length - compressed.length());
+    return compressed;
+  }
+
+  /**
+   * Returns the SDP in |compressed|, which is in the compact encoding.
+   * Throws IOException if it is not.
+   */
+  public synchronized String decompress(String compressed) throws IOException {
+    byte[] input;
+    try {
+      input = Base64.decode(compressed, Base64.NO_WRAP);
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Compact SDP is not Base64: " + e.getMessage());
+    }
+    inflater.reset();
+    inflater.setInput(input);
+    output.reset();
+    try {
+      while (!inflater.finished()) {
+        int length = inflater.inflate(chunk);
+        if (length == 0) {
+          if (inflater.needsDictionary()) {
+            inflater.setDictionary(DICTIONARY);
+          } else if (inflater.needsInput()) {
+            throw new IOException("Truncated compact SDP");
+          }
+        }
+        output.write(chunk, 0, length);
+        if (output.size() > MAX_SDP_LENGTH) {
+          throw new IOException("Compact SDP too large");
+        }
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Malformed compact SDP: " + e.getMessage());
+    } catch (IllegalArgumentException e) {
+      // Thrown by setDictionary() for an unknown dictionary.
+      throw new IOException("Compact SDP uses an unknown dictionary");
+    }
+    return new String(output.toByteArray(), UTF_8);
+  }
+}
@@ -0,0 +1,306 @@
+package org.appspot.apprtc.sdp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One m= section of a session description: the media line split into its
+ * fields, followed by the section's other lines (c=, b=, a=rtpmap, a=fmtp,
+ * a=ssrc, ...) kept verbatim and in order. Accessors look lines up without
+ * copying them; mutators edit the line list in place.
+ */
+public class SdpMediaSection {
+  private static final String RTPMAP = "a=rtpmap:";
+  private static final String FMTP = "a=fmtp:";
+  private static final String RTCP_FB = "a=rtcp-fb:";
+
+  private final String media;
+  private String port;
+  private final String proto;
+  // Payload types (or, for data channels, other formats) in preference order.
+  private final List<String> formats;
+  private final List<String> lines = new ArrayList<String>();
+
+  public SdpMediaSection(String media, String port, String proto,
+      List<String> formats) {
+    this.media = media;
+    this.port = port;
+    this.proto = proto;
+    this.formats = formats;
+  }
+
+  // m=<media> <port> <proto> <fmt> ...
+  static SdpMediaSection parse(String mLine) {
+    String[] fields = mLine.substring(2).split(" ");
+    List<String> formats = new ArrayList<String>(fields.length);
+    for (int i = 3; i < fields.length; i++) {
+      formats.add(fields[i]);
+    }
+    return new SdpMediaSection(fields[0],
+        fields.length > 1 ? fields[1] : "",
+        fields.length > 2 ? fields[2] : "",
+        formats);
+  }
+
+  /** Media type, e.g. "audio", "video" or "application". */
+  public String getMedia() {
+    return media;
+  }
+
+  public String getPort() {
+    return port;
+  }
+
+  public void setPort(String port) {
+    this.port = port;
+  }
+
+  public String getProto() {
+    return proto;
+  }
+
+  /** Formats of the m= line in preference order, mutable. */
+  public List<String> getFormats() {
+    return formats;
+  }
+
+  /** Lines following the m= line, mutable. */
+  public List<String> getLines() {
+    return lines;
+  }
+
+  /** Returns the value of attribute a=|name|, see findAttribute(). */
+  public String getAttribute(String name) {
+    return findAttribute(lines, name);
+  }
+
+  /**
+   * Returns the payload type whose a=rtpmap encoding matches |encoding|, or
+   * null. |encoding| is compared ignoring case and may be a bare codec name
+   * ("VP8") or include the clock rate and channels ("opus/48000/2").
+   */
+  public String findPayloadType(String encoding) {
+    for (int i = 0; i < lines.size(); i++) {
+      String payloadType = matchRtpmap(lines.get(i), encoding);
+      if (payloadType != null) {
+        return payloadType;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns all payload types matching |encoding|, see findPayloadType(),
+   * in a=rtpmap line order.
+   */
+  public List<String> findPayloadTypes(String encoding) {
+    List<String> payloadTypes = new ArrayList<String>(2);
+    for (int i = 0; i < lines.size(); i++) {
+      String payloadType = matchRtpmap(lines.get(i), encoding);
+      if (payloadType != null) {
+        payloadTypes.add(payloadType);
+      }
+    }
+    return payloadTypes;
+  }
+
+  // Payload type of a=rtpmap line |line| if its encoding matches |encoding|.
+  private static String matchRtpmap(String line, String encoding) {
+    if (!line.startsWith(RTPMAP)) {
+      return null;
+    }
+    int space = line.indexOf(' ', RTPMAP.length());
+    if (space < 0) {
+      return null;
+    }
+    int end = space + 1 + encoding.length();
+    if (line.regionMatches(true, space + 1, encoding, 0, encoding.length())
+        && (end == line.length() || line.charAt(end) == '/')) {
+      return line.substring(RTPMAP.length(), space);
+    }
+    return null;
+  }
+
+  /** Returns the a=rtpmap encoding of |payloadType|, e.g. "VP8/90000". */
+  public String getRtpmap(String payloadType) {
+    int index = indexOfPayloadLine(RTPMAP, payloadType);
+    return index < 0 ? null
+        : lines.get(index).substring(RTPMAP.length() + payloadType.length() + 1);
+  }
+
+  /** Returns the a=fmtp parameters of |payloadType|, or null. */
+  public String getFmtp(String payloadType) {
+    int index = indexOfPayloadLine(FMTP, payloadType);
+    return index < 0 ? null
+        : lines.get(index).substring(FMTP.length() + payloadType.length() + 1);
+  }
+
+  /**
+   * Sets a=fmtp parameter |name| of |payloadType| to |value|, replacing an
+   * earlier value. Without an a=fmtp line one is added after the a=rtpmap
+   * line of |payloadType|. Returns false if there is neither.
+   */
+  public boolean setFmtpParameter(String payloadType, String name,
+      String value) {
+    String parameter = name + "=" + value;
+    int index = indexOfPayloadLine(FMTP, payloadType);
+    if (index < 0) {
+      int rtpmap = indexOfPayloadLine(RTPMAP, payloadType);
+      if (rtpmap < 0) {
+        return false;
+      }
+      lines.add(rtpmap + 1, FMTP + payloadType + " " + parameter);
+      return true;
+    }
+    String line = lines.get(index);
+    int paramsStart = FMTP.length() + payloadType.length() + 1;
+    StringBuilder builder = new StringBuilder(line.length() + parameter.length())
+        .append(line, 0, paramsStart);
+    boolean replaced = false;
+    int start = paramsStart;
+    while (start < line.length()) {
+      int end = line.indexOf(';', start);
+      if (end < 0) {
+        end = line.length();
+      }
+      int nameStart = start;
+      while (nameStart < end && line.charAt(nameStart) == ' ') {
+        nameStart++;
+      }
+      if (builder.length() > paramsStart) {
+        builder.append(';');
+      }
+      if (line.regionMatches(true, nameStart, name, 0, name.length())
+          && nameStart + name.length() < end
+          && line.charAt(nameStart + name.length()) == '=') {
+        builder.append(parameter);
+        replaced = true;
+      } else {
+        builder.append(line, start, end);
+      }
+      start = end + 1;
+    }
+    if (!replaced) {
+      if (builder.length() > paramsStart) {
+        builder.append(';');
+      }
+      builder.append(parameter);
+    }
+    lines.set(index, builder.toString());
+    return true;
+  }
+
+  /**
+   * Sets bandwidth line b=|type|:|value|, e.g. b=AS:500, replacing an
+   * earlier one of the same type. New lines go after i= and c= lines, which
+   * precede b= lines in a section.
+   */
+  public void setBandwidth(String type, long value) {
+    String prefix = "b=" + type + ":";
+    String line = prefix + value;
+    int insertAt = 0;
+    for (int i = 0; i < lines.size(); i++) {
+      String existing = lines.get(i);
+      if (existing.startsWith(prefix)) {
+        lines.set(i, line);
+        return;
+      }
+      if (existing.startsWith("i=") || existing.startsWith("c=")
+          || existing.startsWith("b=")) {
+        insertAt = i + 1;
+      }
+    }
+    lines.add(insertAt, line);
+  }
+
+  /**
+   * Moves |format| to the front of the m= line. Returns false if the
+   * section does not offer it.
+   */
+  public boolean moveFormatToFront(String format) {
+    int index = formats.indexOf(format);
+    if (index < 0) {
+      return false;
+    }
+    if (index > 0) {
+      formats.add(0, formats.remove(index));
+    }
+    return true;
+  }
+
+  /**
+   * Removes |format| from the m= line together with its a=rtpmap, a=fmtp
+   * and a=rtcp-fb lines. Returns false if the section does not offer it.
+   */
+  public boolean removeFormat(String format) {
+    if (!formats.remove(format)) {
+      return false;
+    }
+    for (int i = lines.size() - 1; i >= 0; i--) {
+      String line = lines.get(i);
+      int colon = line.indexOf(':');
+      if (colon > 0 && line.startsWith("a=")
+          && line.startsWith(format, colon + 1)
+          && line.length() > colon + 1 + format.length()
+          && line.charAt(colon + 1 + format.length()) == ' '
+          && (line.startsWith(RTPMAP) || line.startsWith(FMTP)
+              || line.startsWith(RTCP_FB))) {
+        lines.remove(i);
+      }
+    }
+    return true;
+  }
+
+  /** Index of line |prefix||payloadType| followed by a space, or -1. */
+  private int indexOfPayloadLine(String prefix, String payloadType) {
+    int spaceAt = prefix.length() + payloadType.length();
+    for (int i = 0; i < lines.size(); i++) {
+      String line = lines.get(i);
+      if (line.length() > spaceAt && line.charAt(spaceAt) == ' '
+          && line.startsWith(prefix)
+          && line.startsWith(payloadType, prefix.length())) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the value of attribute a=|name| in |lines|: the text after the
+   * colon, "" for a flag attribute such as a=rtcp-mux, or null if absent.
+   */
+  static String findAttribute(List<String> lines, String name) {
+    int nameEnd = 2 + name.length();
+    for (int i = 0; i < lines.size(); i++) {
+      String line = lines.get(i);
+      if (line.startsWith("a=") && line.startsWith(name, 2)) {
+        if (line.length() == nameEnd) {
+          return "";
+        }
+        if (line.charAt(nameEnd) == ':') {
+          return line.substring(nameEnd + 1);
+        }
+      }
+    }
+    return null;
+  }
+
+  void appendTo(StringBuilder builder) {
+    builder.append("m=").append(media).append(' ').append(port).append(' ')
+        .append(proto);
+    for (int i = 0; i < formats.size(); i++) {
+      builder.append(' ').append(formats.get(i));
+    }
+    builder.append(SdpSession.CRLF);
+    for (int i = 0; i < lines.size(); i++) {
+      builder.append(lines.get(i)).append(SdpSession.CRLF);
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    appendTo(builder);
+    return builder.toString();
+  }
+}
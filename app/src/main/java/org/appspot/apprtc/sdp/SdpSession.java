@@ -0,0 +1,109 @@
+package org.appspot.apprtc.sdp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Session description parsed into session-level lines and media sections.
+ *
+ * <p>parse() makes a single pass over the text, creating one string per
+ * line and no regular expressions. Transforms then mutate the model in
+ * place, and toString() writes it back in one pass into a buffer sized from
+ * the input. Lines the model has no accessors for are kept verbatim and in
+ * order, so parsing and serializing an untouched description reproduces it
+ * exactly (with CRLF line endings). Not thread safe.
+ */
+public class SdpSession {
+  static final String CRLF = "\r\n";
+
+  // v=, o=, s=, t= and attribute lines before the first m= line.
+  private final List<String> lines = new ArrayList<String>();
+  private final List<SdpMediaSection> mediaSections =
+      new ArrayList<SdpMediaSection>();
+  // Length of the parsed text, to size the serialization buffer.
+  private int length;
+
+  /** Parses |description|. Lines may end in CRLF or LF. */
+  public static SdpSession parse(String description) {
+    SdpSession session = new SdpSession();
+    session.length = description.length();
+    SdpMediaSection section = null;
+    int start = 0;
+    int length = description.length();
+    while (start < length) {
+      int end = description.indexOf('\n', start);
+      int next = end + 1;
+      if (end < 0) {
+        end = length;
+        next = length;
+      }
+      if (end > start && description.charAt(end - 1) == '\r') {
+        end--;
+      }
+      if (end > start) {
+        String line = description.substring(start, end);
+        if (line.startsWith("m=")) {
+          section = SdpMediaSection.parse(line);
+          session.mediaSections.add(section);
+        } else if (section != null) {
+          section.getLines().add(line);
+        } else {
+          session.lines.add(line);
+        }
+      }
+      start = next;
+    }
+    return session;
+  }
+
+  /**
+   * Parses |description|, applies |transforms| in order and returns the
+   * result.
+   */
+  public static String transform(String description,
+      List<? extends SdpTransform> transforms) {
+    SdpSession session = parse(description);
+    for (int i = 0; i < transforms.size(); i++) {
+      transforms.get(i).apply(session);
+    }
+    return session.toString();
+  }
+
+  /** Session-level lines, mutable. */
+  public List<String> getLines() {
+    return lines;
+  }
+
+  /** Media sections in m= line order, mutable. */
+  public List<SdpMediaSection> getMediaSections() {
+    return mediaSections;
+  }
+
+  /** Returns the first media section of |media|, e.g. "audio", or null. */
+  public SdpMediaSection getMediaSection(String media) {
+    for (int i = 0; i < mediaSections.size(); i++) {
+      if (mediaSections.get(i).getMedia().equals(media)) {
+        return mediaSections.get(i);
+      }
+    }
+    return null;
+  }
+
+  /** Returns the value of session attribute a=|name|, see findAttribute(). */
+  public String getAttribute(String name) {
+    return SdpMediaSection.findAttribute(lines, name);
+  }
+
+  /** Returns the description as text, every line ending in CRLF. */
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder(length + 256);
+    for (int i = 0; i < lines.size(); i++) {
+      builder.append(lines.get(i)).append(CRLF);
+    }
+    for (int i = 0; i < mediaSections.size(); i++) {
+      mediaSections.get(i).appendTo(builder);
+    }
+    return builder.toString();
+  }
+}
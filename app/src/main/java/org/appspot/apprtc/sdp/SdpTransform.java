@@ -0,0 +1,10 @@
+package org.appspot.apprtc.sdp;
+
+/**
+ * In-place modification of a parsed session description, e.g. reordering
+ * codecs or adding bitrate parameters. Transforms leave sections they do
+ * not apply to untouched.
+ */
+public interface SdpTransform {
+  public void apply(SdpSession sdp);
+}
@@ -0,0 +1,53 @@
+package org.appspot.apprtc.sdp;
+
+import android.util.Log;
+
+/**
+ * Sets the x-google-start-bitrate fmtp parameter of a codec, so the encoder
+ * starts at that rate instead of ramping up from the default. Without an
+ * explicit codec the parameter goes to the preferred, i.e. first, codec of
+ * the video section, so apply this after transforms reordering codecs.
+ */
+public class StartBitrateTransform implements SdpTransform {
+  private static final String TAG = "StartBitrateTransform";
+  private static final String PARAMETER = "x-google-start-bitrate";
+
+  private final String encoding;
+  private final int bitrateKbps;
+
+  /**
+   * @param encoding codec as matched by SdpMediaSection.findPayloadType(),
+   *     e.g. "VP8/90000", or null for the preferred video codec.
+   */
+  public StartBitrateTransform(String encoding, int bitrateKbps) {
+    this.encoding = encoding;
+    this.bitrateKbps = bitrateKbps;
+  }
+
+  @Override
+  public void apply(SdpSession sdp) {
+    if (encoding == null) {
+      SdpMediaSection video = sdp.getMediaSection("video");
+      if (video == null || video.getFormats().isEmpty()) {
+        Log.e(TAG, "No video codec");
+        return;
+      }
+      String payloadType = video.getFormats().get(0);
+      video.setFmtpParameter(payloadType, PARAMETER,
+          Integer.toString(bitrateKbps));
+      Log.d(TAG, "Set " + video.getRtpmap(payloadType) + " start bitrate: "
+          + bitrateKbps);
+      return;
+    }
+    for (SdpMediaSection section : sdp.getMediaSections()) {
+      String payloadType = section.findPayloadType(encoding);
+      if (payloadType != null) {
+        section.setFmtpParameter(payloadType, PARAMETER,
+            Integer.toString(bitrateKbps));
+        Log.d(TAG, "Set " + encoding + " start bitrate: " + bitrateKbps);
+        return;
+      }
+    }
+    Log.e(TAG, "No rtpmap for " + encoding + " codec");
+  }
+}
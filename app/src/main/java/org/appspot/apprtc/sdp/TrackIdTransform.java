@@ -0,0 +1,72 @@
+package org.appspot.apprtc.sdp;
+
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Renames a media track: rewrites the track id in a=msid lines and in the
+ * msid and label attributes of a=ssrc lines. Only whole ids are replaced,
+ * so an id that is a prefix of another, or occurs elsewhere in the
+ * description, e.g. in a fingerprint, is left alone.
+ */
+public class TrackIdTransform implements SdpTransform {
+  private static final String TAG = "TrackIdTransform";
+  private static final String SSRC = "a=ssrc:";
+  private static final String MSID = "a=msid:";
+
+  private final String oldTrackId;
+  private final String newTrackId;
+
+  public TrackIdTransform(String oldTrackId, String newTrackId) {
+    this.oldTrackId = oldTrackId;
+    this.newTrackId = newTrackId;
+  }
+
+  @Override
+  public void apply(SdpSession sdp) {
+    int renamed = 0;
+    for (SdpMediaSection section : sdp.getMediaSections()) {
+      List<String> lines = section.getLines();
+      for (int i = 0; i < lines.size(); i++) {
+        String line = lines.get(i);
+        String newLine = null;
+        if (line.startsWith(SSRC)) {
+          // a=ssrc:<ssrc> msid:<stream id> <track id>
+          // a=ssrc:<ssrc> label:<track id>
+          int attribute = line.indexOf(' ', SSRC.length()) + 1;
+          boolean msid = line.startsWith("msid:", attribute)
+              && endsWithTrackId(line);
+          boolean label = line.startsWith("label:", attribute)
+              && line.length() == attribute + 6 + oldTrackId.length()
+              && line.endsWith(oldTrackId);
+          if (attribute > 0 && (msid || label)) {
+            newLine = replaceEnd(line);
+          }
+        } else if (line.startsWith(MSID) && endsWithTrackId(line)) {
+          // a=msid:<stream id> <track id>
+          newLine = replaceEnd(line);
+        }
+        if (newLine != null) {
+          lines.set(i, newLine);
+          renamed++;
+        }
+      }
+    }
+    if (renamed == 0) {
+      Log.w(TAG, "No lines refer to track " + oldTrackId);
+    }
+  }
+
+  // True if the last space separated field of |line| is the old track id.
+  private boolean endsWithTrackId(String line) {
+    int start = line.length() - oldTrackId.length();
+    return start > 0 && line.charAt(start - 1) == ' '
+        && line.endsWith(oldTrackId);
+  }
+
+  private String replaceEnd(String line) {
+    return line.substring(0, line.length() - oldTrackId.length())
+        + newTrackId;
+  }
+}
@@ -27,23 +27,80 @@
 
 package org.appspot.apprtc.util;
 
+import android.util.Log;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
 import java.net.SocketTimeoutException;
 import java.net.URL;
-import java.util.Scanner;
+import java.util.concurrent.Future;
+
+import javax.net.ssl.HttpsURLConnection;
 
 /**
  * Asynchronious http requests implementation.
+ * Requests are run on the shared HttpTransport thread pool and reuse its
+ * keep-alive connections, or on the NettyHttpClient event loop when the
+ * Netty backend is selected.
+ *
+ * <p>The object doubles as a request handle: cancel() aborts the request and
+ * closes its socket, and requests sharing a tag can be aborted together with
+ * HttpTransport.cancelAll(). No callbacks are issued after cancellation.
+ *
+ * <p>Failed attempts are retried according to the request's RetryPolicy
+ * (none by default); OnHttpError is only issued once the policy gives up.
  */
 public class AsyncHttpURLConnection {
+  private static final String TAG = "AsyncHttpURLConnection";
   private static final int HTTP_TIMEOUT_MS = 5000;
+  private static final int MAX_RESPONSE_BYTES = 1024 * 1024;
+  private static volatile Backend backend = Backend.URL_CONNECTION;
+  // Per-request phase metrics, in milliseconds unless noted otherwise.
+  public static final String METRIC_DNS = "http.dns_ms";
+  public static final String METRIC_CONNECT = "http.connect_ms";
+  public static final String METRIC_CONNECT_TLS = "http.connect_tls_ms";
+  public static final String METRIC_SEND = "http.send_ms";
+  public static final String METRIC_TTFB = "http.ttfb_ms";
+  public static final String METRIC_BODY = "http.body_ms";
+  public static final String METRIC_TOTAL = "http.total_ms";
+  public static final String METRIC_BYTES_SENT = "http.bytes_sent";
+  public static final String METRIC_BYTES_RECEIVED = "http.bytes_received";
+  public static final String METRIC_ERRORS = "http.errors";
+  public static final String METRIC_RETRIES = "http.retries";
+  public static final String METRIC_RETRIES_EXHAUSTED =
+      "http.retries_exhausted";
+  private static final String[] METRIC_STATUS = {
+    "http.status.other", "http.status.1xx", "http.status.2xx",
+    "http.status.3xx", "http.status.4xx", "http.status.5xx"
+  };
   private final String method;
   private final String url;
   private final String message;
   private final AsyncHttpEvents events;
+  private Object tag;
+  private RetryPolicy retryPolicy = RetryPolicy.NONE;
+  private volatile boolean canceled;
+  private volatile HttpURLConnection activeConnection;
+  // Request of the current attempt on the Netty backend.
+  private NettyHttpClient.RequestHandle nettyRequest;
+  private Future<?> future;
+  private long sendStartNs;
+  private int attempts;
+  // True once the current attempt may have reached the server.
+  private boolean requestSent;
+
+  /**
+   * Transport used to carry the requests.
+   */
+  public enum Backend {
+    // Blocking HttpURLConnection on the HttpTransport thread pool.
+    URL_CONNECTION,
+    // Non-blocking NettyHttpClient sharing a couple of I/O threads.
+    NETTY
+  };
 
   public interface AsyncHttpEvents {
     public void OnHttpError(String errorMessage);
@@ -58,19 +115,182 @@ public class AsyncHttpURLConnection {
     this.events = events;
   }
 
+  /** Selects the backend used by all subsequent send() calls. */
+  public static void setBackend(Backend newBackend) {
+    backend = newBackend;
+  }
+
+  public static Backend getBackend() {
+    return backend;
+  }
+
+  /**
+   * Groups this request with other requests carrying the same |tag|, e.g. all
+   * requests of a room. Must be called before send().
+   */
+  public void setTag(Object tag) {
+    this.tag = tag;
+  }
+
+  public Object getTag() {
+    return tag;
+  }
+
+  /** Sets how failed attempts are retried. Must be called before send(). */
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
+  /** Number of attempts made so far. */
+  public synchronized int getAttempts() {
+    return attempts;
+  }
+
+  public boolean isCanceled() {
+    return canceled;
+  }
+
   public void send() {
+    HttpTransport.getInstance().register(this);
+    sendStartNs = System.nanoTime();
+    attempt();
+  }
+
+  // Starts the next attempt on the selected backend.
+  private void attempt() {
+    if (canceled) {
+      return;
+    }
+    synchronized (this) {
+      attempts++;
+    }
+    if (backend == Backend.NETTY) {
+      NettyHttpClient.RequestHandle request =
+          NettyHttpClient.getInstance().send(method, url, message,
+          new NettyHttpClient.RequestEvents() {
+            @Override
+            public void OnHttpError(
+                String errorMessage, int status, boolean written) {
+              if (status != 0) {
+                onErrorStatus(errorMessage, status);
+              } else {
+                onAttemptFailed(errorMessage, written);
+              }
+            }
+
+            @Override
+            public void OnHttpComplete(String response) {
+              reportComplete(response);
+            }
+          });
+      synchronized (this) {
+        nettyRequest = request;
+      }
+      if (canceled) {
+        // cancel() may have missed the request.
+        request.cancel();
+      }
+      return;
+    }
     Runnable runHttp = new Runnable() {
       public void run() {
         sendHttpMessage();
       }
     };
-    new Thread(runHttp).start();
+    synchronized (this) {
+      future = HttpTransport.getInstance().submit(runHttp);
+    }
+  }
+
+  // Retries the request if the policy allows it, otherwise reports the
+  // error. |sent| tells whether the failed attempt may have reached the
+  // server.
+  private void onAttemptFailed(String errorMessage, boolean sent) {
+    MetricsRegistry metrics = MetricsRegistry.getInstance();
+    int attemptCount = getAttempts();
+    long delayMs = retryPolicy.getRetryDelayMs(attemptCount);
+    if (!retryPolicy.canRetry(
+        attemptCount, elapsedMs(sendStartNs) + delayMs, sent)) {
+      if (attemptCount > 1) {
+        metrics.increment(METRIC_RETRIES_EXHAUSTED);
+        errorMessage += " (" + attemptCount + " attempts)";
+      }
+      reportError(errorMessage);
+      return;
+    }
+    Log.d(TAG, method + " to " + url + " failed: " + errorMessage
+        + ". Retry " + attemptCount + " in " + delayMs + " ms");
+    metrics.increment(METRIC_RETRIES);
+    Runnable runRetry = new Runnable() {
+      public void run() {
+        attempt();
+      }
+    };
+    synchronized (this) {
+      // cancel() sets |canceled| before it takes the lock.
+      if (!canceled) {
+        future = HttpTransport.getInstance().schedule(runRetry, delayMs);
+      }
+    }
+  }
+
+  /**
+   * Aborts the request. A queued request is dropped; a running request has
+   * its socket, or Netty channel, closed immediately. Safe to call from any
+   * thread.
+   */
+  public void cancel() {
+    if (canceled) {
+      return;
+    }
+    canceled = true;
+    synchronized (this) {
+      if (future != null) {
+        future.cancel(false);
+      }
+      if (nettyRequest != null) {
+        nettyRequest.cancel();
+      }
+    }
+    HttpURLConnection connection = activeConnection;
+    if (connection != null) {
+      connection.disconnect();
+    }
+    HttpTransport.getInstance().unregister(this);
   }
 
   private void sendHttpMessage() {
+    HttpTransport transport = HttpTransport.getInstance();
+    URL requestUrl = null;
+    boolean reusable = false;
+    if (canceled) {
+      return;
+    }
+    MetricsRegistry metrics = MetricsRegistry.getInstance();
+    long startNs = System.nanoTime();
+    // Keep each attempt within what is left of the retry deadline.
+    long timeoutMs = Math.min(HTTP_TIMEOUT_MS,
+        retryPolicy.getRemainingMs(elapsedMs(sendStartNs)));
+    requestSent = false;
     try {
+      requestUrl = new URL(url);
+      boolean pooled = transport.acquire(requestUrl);
+      ConnectionPrewarmer.getInstance().onRequestStarted(requestUrl, pooled);
+      if (!pooled) {
+        // Resolve up front so DNS time is measured separately; the platform
+        // resolver cache serves the lookup done by the connection itself.
+        long dnsStartNs = System.nanoTime();
+        InetAddress.getAllByName(requestUrl.getHost());
+        metrics.record(METRIC_DNS, elapsedMs(dnsStartNs));
+      }
       HttpURLConnection connection =
-        (HttpURLConnection) new URL(url).openConnection();
+        (HttpURLConnection) requestUrl.openConnection();
+      activeConnection = connection;
+      if (canceled) {
+        // cancel() may have missed the connection.
+        connection.disconnect();
+        return;
+      }
       byte[] postData = new byte[0];
       if (message != null) {
         postData = message.getBytes("UTF-8");
@@ -78,8 +298,8 @@ public class AsyncHttpURLConnection {
       connection.setRequestMethod(method);
       connection.setUseCaches(false);
       connection.setDoInput(true);
-      connection.setConnectTimeout(HTTP_TIMEOUT_MS);
-      connection.setReadTimeout(HTTP_TIMEOUT_MS);
+      connection.setConnectTimeout((int) Math.max(timeoutMs, 1));
+      connection.setReadTimeout((int) Math.max(timeoutMs, 1));
       boolean doOutput = false;
       if (method.equals("POST")) {
         doOutput = true;
@@ -88,36 +308,119 @@ public class AsyncHttpURLConnection {
       }
 //      connection.setRequestProperty("content-type", "text/plain; charset=utf-8");
       connection.setRequestProperty("content-type", "application/json");
+      connection.setRequestProperty("connection", "keep-alive");
+
+      // Connect explicitly to time TCP (and TLS) setup. A pooled connection
+      // connects instantly. HttpURLConnection does not expose the TLS
+      // handshake separately, so HTTPS connects go to their own histogram.
+      long phaseStartNs = System.nanoTime();
+      connection.connect();
+      metrics.record(connection instanceof HttpsURLConnection
+          ? METRIC_CONNECT_TLS : METRIC_CONNECT, elapsedMs(phaseStartNs));
 
-      // Send POST request.
+      // Send POST request. From here on the server may act on the request.
+      phaseStartNs = System.nanoTime();
+      requestSent = true;
       if (doOutput && postData.length > 0) {
         OutputStream outStream = connection.getOutputStream();
         outStream.write(postData);
         outStream.close();
       }
+      metrics.record(METRIC_SEND, elapsedMs(phaseStartNs));
+      metrics.record(METRIC_BYTES_SENT, postData.length);
 
       // Get response.
+      phaseStartNs = System.nanoTime();
       int responseCode = connection.getResponseCode();
+      metrics.record(METRIC_TTFB, elapsedMs(phaseStartNs));
+      int statusClass = responseCode / 100;
+      metrics.increment(METRIC_STATUS[
+          statusClass >= 1 && statusClass <= 5 ? statusClass : 0]);
       if (responseCode != 200) {
-        events.OnHttpError("Non-200 response to " + method + " to URL: "
-            + url + " : " + connection.getHeaderField(null));
+        // Drain the error body so the connection can be returned to the pool.
+        InputStream errorStream = connection.getErrorStream();
+        if (errorStream != null) {
+          drainStream(errorStream);
+          errorStream.close();
+          reusable = true;
+        }
+        onErrorStatus("Non-200 response to " + method + " to URL: " + url
+            + " : " + connection.getHeaderField(null), responseCode);
         return;
       }
+      phaseStartNs = System.nanoTime();
       InputStream responseStream = connection.getInputStream();
       String response = drainStream(responseStream);
+      int bytesRead = StreamDecoder.getLastByteCount();
       responseStream.close();
-      events.OnHttpComplete(response);
+      metrics.record(METRIC_BODY, elapsedMs(phaseStartNs));
+      // Without a Content-Length, count the bytes read rather than chars.
+      int contentLength = connection.getContentLength();
+      metrics.record(METRIC_BYTES_RECEIVED,
+          contentLength >= 0 ? contentLength : bytesRead);
+      metrics.record(METRIC_TOTAL, elapsedMs(startNs));
+      reusable = true;
+      reportComplete(response);
     } catch (SocketTimeoutException e) {
-      events.OnHttpError("HTTP " + method + " to " + url + " timeout");
+      metrics.increment(METRIC_ERRORS);
+      onAttemptFailed("HTTP " + method + " to " + url + " timeout",
+          requestSent);
     } catch (IOException e) {
-      events.OnHttpError("HTTP " + method + " to " + url + " error: "
-          + e.getMessage());
+      metrics.increment(METRIC_ERRORS);
+      onAttemptFailed("HTTP " + method + " to " + url + " error: "
+          + e.getMessage(), requestSent);
+    } finally {
+      activeConnection = null;
+      if (requestUrl != null) {
+        transport.release(requestUrl, reusable && !canceled);
+      }
+    }
+  }
+
+  // Retries a non-200 response |responseCode| if its status is worth
+  // another attempt and the policy allows it, otherwise reports the error.
+  // The same rules apply on both backends.
+  private void onErrorStatus(String errorMessage, int responseCode) {
+    if (isRetryableStatus(responseCode)) {
+      onAttemptFailed(errorMessage, !isUnprocessedStatus(responseCode));
+    } else {
+      reportError(errorMessage);
+    }
+  }
+
+  // Statuses worth another attempt: the server or a proxy was temporarily
+  // unable to serve the request.
+  private static boolean isRetryableStatus(int responseCode) {
+    return responseCode == 408 || responseCode == 429
+        || responseCode == 502 || responseCode == 503 || responseCode == 504;
+  }
+
+  // Statuses that guarantee the request was not processed, so even
+  // non-idempotent requests can be retried.
+  private static boolean isUnprocessedStatus(int responseCode) {
+    return responseCode == 408 || responseCode == 429 || responseCode == 503;
+  }
+
+  private static long elapsedMs(long startNs) {
+    return (System.nanoTime() - startNs) / 1000000;
+  }
+
+  private void reportError(String errorMessage) {
+    HttpTransport.getInstance().unregister(this);
+    if (!canceled) {
+      events.OnHttpError(errorMessage);
+    }
+  }
+
+  private void reportComplete(String response) {
+    HttpTransport.getInstance().unregister(this);
+    if (!canceled) {
+      events.OnHttpComplete(response);
     }
   }
 
   // Return the contents of an InputStream as a String.
-  private static String drainStream(InputStream in) {
-    Scanner s = new Scanner(in).useDelimiter("\\A");
-    return s.hasNext() ? s.next() : "";
+  private static String drainStream(InputStream in) throws IOException {
+    return StreamDecoder.readFully(in, MAX_RESPONSE_BYTES);
   }
 }
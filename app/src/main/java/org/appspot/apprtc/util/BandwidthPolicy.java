@@ -0,0 +1,212 @@
+package org.appspot.apprtc.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import org.appspot.apprtc.sdp.BandwidthPolicyTransform;
+
+/**
+ * Chooses the bandwidth limits of a call from the network it is made on.
+ *
+ * <p>Every network class (Wi-Fi, LTE, 3G, 2G) has default audio and video
+ * limits. In addition the bandwidth estimate achieved on each network, e.g.
+ * one Wi-Fi SSID or mobile APN, is remembered: while a call runs,
+ * reportBitrate() is fed the available send bandwidth, and endCall() stores
+ * its average over the call, leaving out the ramp up. The next call on that
+ * network starts slightly below it, within the limits of the network class,
+ * instead of ramping up from the default. Samples count toward the network
+ * the call started on. History is kept in SharedPreferences for a week.
+ * Thread safe.
+ */
+public class BandwidthPolicy {
+  private static final String TAG = "BandwidthPolicy";
+  private static final String PREFERENCES_NAME = "bandwidth_history";
+  // Achieved bitrates older than this are ignored.
+  private static final long HISTORY_TTL_MS = 7 * 24 * 60 * 60 * 1000L;
+  // Samples while the estimate ramps up do not reflect the network.
+  private static final int RAMP_UP_SAMPLES = 5;
+  // Calls start this far below the last achieved bitrate, in percent.
+  private static final int START_PERCENT = 90;
+  // Average send bandwidth estimate of a call.
+  public static final String METRIC_ACHIEVED = "bandwidth.achieved_kbps";
+
+  /** Network classes and their default limits in kbps. */
+  public enum NetworkClass {
+    WIFI(64, 300, 1000, 2500),
+    LTE(48, 150, 600, 1500),
+    CELL_3G(32, 50, 250, 500),
+    CELL_2G(24, 30, 60, 100),
+    UNKNOWN(48, 100, 300, 1000);
+
+    private final int audioMaxKbps;
+    private final int videoMinKbps;
+    private final int videoStartKbps;
+    private final int videoMaxKbps;
+
+    private NetworkClass(int audioMaxKbps, int videoMinKbps,
+        int videoStartKbps, int videoMaxKbps) {
+      this.audioMaxKbps = audioMaxKbps;
+      this.videoMinKbps = videoMinKbps;
+      this.videoStartKbps = videoStartKbps;
+      this.videoMaxKbps = videoMaxKbps;
+    }
+  };
+
+  private static BandwidthPolicy instance;
+
+  private final Context context;
+  private final SharedPreferences preferences;
+  // Network of the running call, null between calls.
+  private String callNetworkKey;
+  private int skippedSamples;
+  private int sampleCount;
+  private long sampleSumKbps;
+
+  public static synchronized BandwidthPolicy getInstance(Context context) {
+    if (instance == null) {
+      instance = new BandwidthPolicy(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  private BandwidthPolicy(Context context) {
+    this.context = context;
+    preferences = context.getSharedPreferences(
+        PREFERENCES_NAME, Context.MODE_PRIVATE);
+  }
+
+  /**
+   * Starts a call on the current network and returns the transform writing
+   * its limits into the remote description.
+   */
+  public synchronized BandwidthPolicyTransform startCall() {
+    ConnectivityManager connectivityManager = (ConnectivityManager)
+        context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+    NetworkClass networkClass = getNetworkClass(networkInfo);
+    callNetworkKey = SignalingTransportSelector.getNetworkKey(networkInfo);
+    skippedSamples = 0;
+    sampleCount = 0;
+    sampleSumKbps = 0;
+    int lastAchievedKbps = getLastAchievedKbps(callNetworkKey);
+    BandwidthPolicyTransform limits =
+        getLimits(networkClass, lastAchievedKbps);
+    Log.d(TAG, "Limits on " + callNetworkKey + " (" + networkClass
+        + ", last achieved " + lastAchievedKbps + " kbps): " + limits);
+    return limits;
+  }
+
+  /** Adds a send bandwidth estimate sample of the running call. */
+  public synchronized void reportBitrate(int kbps) {
+    if (callNetworkKey == null || kbps <= 0) {
+      return;
+    }
+    if (skippedSamples < RAMP_UP_SAMPLES) {
+      skippedSamples++;
+      return;
+    }
+    sampleCount++;
+    sampleSumKbps += kbps;
+  }
+
+  /** Ends the running call and remembers the bitrate it achieved. */
+  public synchronized void endCall() {
+    if (callNetworkKey == null) {
+      return;
+    }
+    if (sampleCount > 0) {
+      long achievedKbps = sampleSumKbps / sampleCount;
+      preferences.edit()
+          .putString(callNetworkKey,
+              achievedKbps + "," + System.currentTimeMillis())
+          .apply();
+      MetricsRegistry.getInstance().record(METRIC_ACHIEVED, achievedKbps);
+      Log.d(TAG, "Achieved " + achievedKbps + " kbps on " + callNetworkKey
+          + " over " + sampleCount + " samples");
+    }
+    callNetworkKey = null;
+  }
+
+  /**
+   * Returns the limits for |networkClass|, starting video slightly below
+   * |lastAchievedKbps| if it is positive.
+   */
+  public static BandwidthPolicyTransform getLimits(NetworkClass networkClass,
+      int lastAchievedKbps) {
+    int startKbps = networkClass.videoStartKbps;
+    if (lastAchievedKbps > 0) {
+      startKbps = lastAchievedKbps * START_PERCENT / 100;
+    }
+    startKbps = Math.max(networkClass.videoMinKbps,
+        Math.min(networkClass.videoMaxKbps, startKbps));
+    return new BandwidthPolicyTransform(networkClass.audioMaxKbps,
+        networkClass.videoMinKbps, startKbps, networkClass.videoMaxKbps);
+  }
+
+  /** Returns the class of network |networkInfo|, which may be null. */
+  public static NetworkClass getNetworkClass(NetworkInfo networkInfo) {
+    if (networkInfo == null || !networkInfo.isConnected()) {
+      return NetworkClass.UNKNOWN;
+    }
+    switch (networkInfo.getType()) {
+      case ConnectivityManager.TYPE_WIFI:
+      case ConnectivityManager.TYPE_ETHERNET:
+        return NetworkClass.WIFI;
+      case ConnectivityManager.TYPE_WIMAX:
+        return NetworkClass.LTE;
+      case ConnectivityManager.TYPE_MOBILE:
+        break;
+      default:
+        return NetworkClass.UNKNOWN;
+    }
+    switch (networkInfo.getSubtype()) {
+      case TelephonyManager.NETWORK_TYPE_LTE:
+        return NetworkClass.LTE;
+      case TelephonyManager.NETWORK_TYPE_UMTS:
+      case TelephonyManager.NETWORK_TYPE_HSDPA:
+      case TelephonyManager.NETWORK_TYPE_HSUPA:
+      case TelephonyManager.NETWORK_TYPE_HSPA:
+      case TelephonyManager.NETWORK_TYPE_HSPAP:
+      case TelephonyManager.NETWORK_TYPE_EVDO_0:
+      case TelephonyManager.NETWORK_TYPE_EVDO_A:
+      case TelephonyManager.NETWORK_TYPE_EVDO_B:
+      case TelephonyManager.NETWORK_TYPE_EHRPD:
+        return NetworkClass.CELL_3G;
+      case TelephonyManager.NETWORK_TYPE_GPRS:
+      case TelephonyManager.NETWORK_TYPE_EDGE:
+      case TelephonyManager.NETWORK_TYPE_CDMA:
+      case TelephonyManager.NETWORK_TYPE_1xRTT:
+      case TelephonyManager.NETWORK_TYPE_IDEN:
+        return NetworkClass.CELL_2G;
+      default:
+        return NetworkClass.UNKNOWN;
+    }
+  }
+
+  // Achieved bitrate remembered for |networkKey|, or 0.
+  private int getLastAchievedKbps(String networkKey) {
+    String value = preferences.getString(networkKey, null);
+    if (value == null) {
+      return 0;
+    }
+    try {
+      int separator = value.indexOf(',');
+      long recordedAtMs = Long.parseLong(value.substring(separator + 1));
+      if (System.currentTimeMillis() - recordedAtMs > HISTORY_TTL_MS) {
+        Log.d(TAG, "Achieved bitrate expired for " + networkKey);
+        return 0;
+      }
+      return Integer.parseInt(value.substring(0, separator));
+    } catch (NumberFormatException e) {
+      Log.e(TAG, "Invalid achieved bitrate: " + value);
+      return 0;
+    } catch (IndexOutOfBoundsException e) {
+      Log.e(TAG, "Invalid achieved bitrate: " + value);
+      return 0;
+    }
+  }
+}
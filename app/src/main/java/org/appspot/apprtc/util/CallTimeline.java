@@ -0,0 +1,177 @@
+package org.appspot.apprtc.util;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Setup timeline of one call, tied together by a trace id.
+ *
+ * <p>Each Phase is marked once, the first time it is reached; the time
+ * since the call started is recorded in the phase's histogram, so the
+ * registry accumulates the distribution over calls while toString() shows
+ * this call's timeline with the time spent in every hop. Outbound signaling
+ * messages carry the trace id and a correlation id of their own; spans
+ * measure from sending a message until a reply refers to its correlation
+ * id, e.g. from the offer to the answer.
+ *
+ * <p>Peers adopt the trace id of the offer they answer, so both sides of a
+ * call log the same id. Thread safe.
+ */
+public class CallTimeline {
+  private static final String TAG = "CallTimeline";
+  private static final Random random = new Random();
+  // Spans never replied to are dropped beyond this many.
+  private static final int MAX_OPEN_SPANS = 32;
+  // Time from sending the offer until the answer referring to it arrives.
+  public static final String METRIC_OFFER_TO_ANSWER = "call.offer_answer_ms";
+
+  /** Call setup phases, roughly in the order they are reached. */
+  public enum Phase {
+    UID_RECEIVED("uid"),
+    OFFER_SENT("offer_sent"),
+    OFFER_RECEIVED("offer_received"),
+    ANSWER_SENT("answer_sent"),
+    ANSWER_RECEIVED("answer_received"),
+    FIRST_CANDIDATE_SENT("candidate_sent"),
+    FIRST_CANDIDATE_RECEIVED("candidate_received"),
+    ICE_CONNECTED("ice_connected");
+
+    private final String label;
+    // Histogram of the time from call start until this phase.
+    private final String metric;
+
+    private Phase(String label) {
+      this.label = label;
+      metric = "call." + label + "_ms";
+    }
+
+    public String getLabel() {
+      return label;
+    }
+
+    public String getMetric() {
+      return metric;
+    }
+  };
+
+  private final long startMs;
+  // Time since start of each phase, -1 until it is reached.
+  private final long[] phaseMs = new long[Phase.values().length];
+  private final Map<String, Long> openSpans = new HashMap<String, Long>();
+  private String traceId;
+
+  public CallTimeline() {
+    startMs = SystemClock.elapsedRealtime();
+    for (int i = 0; i < phaseMs.length; i++) {
+      phaseMs[i] = -1;
+    }
+    traceId = newTraceId();
+  }
+
+  /** Returns a random 16 digit hex id. */
+  public static String newTraceId() {
+    // The top bit keeps leading zeros from shortening the id.
+    return Long.toHexString(random.nextLong() | Long.MIN_VALUE);
+  }
+
+  public synchronized String getTraceId() {
+    return traceId;
+  }
+
+  /** Continues the trace |traceId| of the peer. */
+  public synchronized void setTraceId(String traceId) {
+    if (!traceId.equals(this.traceId)) {
+      Log.d(TAG, "Trace " + this.traceId + " continues as " + traceId);
+      this.traceId = traceId;
+    }
+  }
+
+  /**
+   * Marks |phase| as reached now. Returns false if it was reached before,
+   * in which case nothing is recorded.
+   */
+  public synchronized boolean mark(Phase phase) {
+    if (phaseMs[phase.ordinal()] >= 0) {
+      return false;
+    }
+    long elapsedMs = SystemClock.elapsedRealtime() - startMs;
+    phaseMs[phase.ordinal()] = elapsedMs;
+    MetricsRegistry.getInstance().record(phase.getMetric(), elapsedMs);
+    Log.d(TAG, "[" + traceId + "] " + phase.getLabel() + " at +" + elapsedMs
+        + " ms");
+    return true;
+  }
+
+  /** Time from call start until |phase|, or -1 if it was not reached. */
+  public synchronized long getPhaseMs(Phase phase) {
+    return phaseMs[phase.ordinal()];
+  }
+
+  /** Starts a span for the message with correlation id |correlationId|. */
+  public synchronized void startSpan(String correlationId) {
+    if (openSpans.size() < MAX_OPEN_SPANS) {
+      openSpans.put(correlationId, SystemClock.elapsedRealtime());
+    }
+  }
+
+  /**
+   * Ends the span of |correlationId| and records its duration in histogram
+   * |metric|. Returns the duration, or -1 if no such span is open.
+   */
+  public synchronized long endSpan(String correlationId, String metric) {
+    Long spanStartMs = openSpans.remove(correlationId);
+    if (spanStartMs == null) {
+      return -1;
+    }
+    long durationMs = SystemClock.elapsedRealtime() - spanStartMs;
+    MetricsRegistry.getInstance().record(metric, durationMs);
+    Log.d(TAG, "[" + traceId + "] " + correlationId + " " + metric + ": "
+        + durationMs + " ms");
+    return durationMs;
+  }
+
+  /**
+   * Returns the reached phases in time order with the time since start and,
+   * in parentheses, since the previous phase, followed by the longest hop.
+   */
+  @Override
+  public synchronized String toString() {
+    StringBuilder builder = new StringBuilder("trace=").append(traceId);
+    boolean[] listed = new boolean[phaseMs.length];
+    long previousMs = 0;
+    Phase slowest = null;
+    long slowestMs = -1;
+    while (true) {
+      // Phases may be reached out of declaration order, so pick the
+      // earliest one not yet listed.
+      int next = -1;
+      for (int i = 0; i < phaseMs.length; i++) {
+        if (!listed[i] && phaseMs[i] >= 0
+            && (next < 0 || phaseMs[i] < phaseMs[next])) {
+          next = i;
+        }
+      }
+      if (next < 0) {
+        break;
+      }
+      listed[next] = true;
+      long hopMs = phaseMs[next] - previousMs;
+      previousMs = phaseMs[next];
+      Phase phase = Phase.values()[next];
+      builder.append(' ').append(phase.getLabel()).append("=+")
+          .append(phaseMs[next]).append("(").append(hopMs).append(")");
+      if (hopMs > slowestMs) {
+        slowest = phase;
+        slowestMs = hopMs;
+      }
+    }
+    if (slowest != null) {
+      builder.append(" slowest=").append(slowest.getLabel());
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,152 @@
+package org.appspot.apprtc.util;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Opens a keep-alive connection to the room server before it is needed.
+ *
+ * <p>prewarm() resolves the server host and sends a HEAD request to it on
+ * a HttpTransport thread. The response is drained so the socket goes back to
+ * the platform keep-alive pool, and the first signaling request of the call
+ * then skips DNS, TCP and TLS setup. The setup time paid by the pre-warm is
+ * remembered per host; when a signaling request later reuses the pooled
+ * connection, that time is recorded as saved.
+ */
+public class ConnectionPrewarmer {
+  private static final String TAG = "ConnectionPrewarmer";
+  private static final int PREWARM_TIMEOUT_MS = 5000;
+  // A host warmed more recently than this is not warmed again.
+  private static final long MIN_PREWARM_INTERVAL_MS = 30000;
+  // Setup time of a pre-warm request, i.e. the time a hit saves.
+  public static final String METRIC_PREWARM_SETUP = "prewarm.setup_ms";
+  public static final String METRIC_PREWARM_SAVED = "prewarm.saved_ms";
+  public static final String METRIC_PREWARM_HITS = "prewarm.hits";
+  public static final String METRIC_PREWARM_MISSES = "prewarm.misses";
+  public static final String METRIC_PREWARM_ERRORS = "prewarm.errors";
+
+  private static ConnectionPrewarmer instance;
+
+  // Last pre-warm start time per host.
+  private final Map<String, Long> lastPrewarmMs = new HashMap<String, Long>();
+  // Setup time of pre-warmed connections not yet used, per host.
+  private final Map<String, Long> pendingSavingsMs =
+      new HashMap<String, Long>();
+
+  public static synchronized ConnectionPrewarmer getInstance() {
+    if (instance == null) {
+      instance = new ConnectionPrewarmer();
+    }
+    return instance;
+  }
+
+  private ConnectionPrewarmer() {
+  }
+
+  /**
+   * Asynchronously warms up a connection to the host of |serverUrl|. Does
+   * nothing if the host was warmed recently or the URL is invalid.
+   */
+  public void prewarm(String serverUrl) {
+    final URL url;
+    try {
+      url = new URL(serverUrl);
+    } catch (IOException e) {
+      Log.w(TAG, "Invalid server URL: " + serverUrl);
+      return;
+    }
+    String host = url.getHost();
+    long now = System.currentTimeMillis();
+    synchronized (this) {
+      Long last = lastPrewarmMs.get(host);
+      if (last != null && now - last < MIN_PREWARM_INTERVAL_MS) {
+        return;
+      }
+      lastPrewarmMs.put(host, now);
+    }
+    HttpTransport.getInstance().submit(new Runnable() {
+      @Override
+      public void run() {
+        prewarmInternal(url);
+      }
+    });
+  }
+
+  /**
+   * Called when a signaling request to |url| starts. |pooled| is true if it
+   * is estimated to reuse a keep-alive connection, see
+   * HttpTransport.acquire(), so hits and misses are estimates too.
+   */
+  public void onRequestStarted(URL url, boolean pooled) {
+    Long savedMs;
+    synchronized (this) {
+      savedMs = pendingSavingsMs.remove(url.getHost());
+    }
+    if (savedMs == null) {
+      return;
+    }
+    MetricsRegistry metrics = MetricsRegistry.getInstance();
+    if (pooled) {
+      metrics.record(METRIC_PREWARM_SAVED, savedMs);
+      metrics.increment(METRIC_PREWARM_HITS);
+      Log.d(TAG, "Pre-warmed connection to " + url.getHost()
+          + " saved " + savedMs + " ms");
+    } else {
+      metrics.increment(METRIC_PREWARM_MISSES);
+      Log.d(TAG, "Pre-warmed connection to " + url.getHost() + " expired");
+    }
+  }
+
+  private void prewarmInternal(URL url) {
+    HttpTransport transport = HttpTransport.getInstance();
+    MetricsRegistry metrics = MetricsRegistry.getInstance();
+    // A request over an already pooled connection is cheap and resets its
+    // idle timer, so it is sent either way.
+    boolean pooled = transport.acquire(url);
+    boolean reusable = false;
+    try {
+      long startNs = System.nanoTime();
+      if (!pooled) {
+        InetAddress.getAllByName(url.getHost());
+      }
+      HttpURLConnection connection =
+          (HttpURLConnection) url.openConnection();
+      connection.setRequestMethod("HEAD");
+      connection.setUseCaches(false);
+      connection.setConnectTimeout(PREWARM_TIMEOUT_MS);
+      connection.setReadTimeout(PREWARM_TIMEOUT_MS);
+      connection.setRequestProperty("connection", "keep-alive");
+      connection.connect();
+      long setupMs = (System.nanoTime() - startNs) / 1000000;
+      // Any status will do, the connection is what we are after.
+      int responseCode = connection.getResponseCode();
+      InputStream in = responseCode < 400
+          ? connection.getInputStream() : connection.getErrorStream();
+      if (in != null) {
+        while (in.read() != -1) {
+        }
+        in.close();
+      }
+      reusable = true;
+      if (!pooled) {
+        metrics.record(METRIC_PREWARM_SETUP, setupMs);
+        synchronized (this) {
+          pendingSavingsMs.put(url.getHost(), setupMs);
+        }
+        Log.d(TAG, "Pre-warmed " + url.getHost() + " in " + setupMs + " ms");
+      }
+    } catch (IOException e) {
+      metrics.increment(METRIC_PREWARM_ERRORS);
+      Log.w(TAG, "Pre-warm of " + url + " failed: " + e.getMessage());
+    } finally {
+      transport.release(url, reusable);
+    }
+  }
+}
@@ -0,0 +1,447 @@
+package org.appspot.apprtc.util;
+
+import android.util.Log;
+
+import com.github.eventsource.client.EventSourceHandler;
+import com.github.eventsource.client.MessageEvent;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.ssl.SslContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Server-Sent Events client running on the NettyHttpClient event loops.
+ *
+ * <p>Drop-in replacement for the eventsource-java EventSource: it takes the
+ * same constructor arguments and reports to the same EventSourceHandler.
+ * The response body is not aggregated; each chunk read from the socket is
+ * handed to an EventStreamParser straight from the Netty buffer, so events
+ * are dispatched as soon as their terminating blank line arrives. Handler
+ * callbacks run on |executor|, in order. Reconnect timers run on the shared
+ * SignalingExecutor.
+ *
+ * <p>When the stream ends or fails it is reopened right away, with the id
+ * of the last received event in a Last-Event-ID header so the server can
+ * resume from there. Further attempts back off with jitter up to the
+ * reconnection time, which the server may override with a "retry" field.
+ * Events replayed by the server after a resume are recognized by their id
+ * and dropped. Only network errors and streams the server ends are retried:
+ * a response other than a 200 with a text/event-stream body fails the
+ * stream for good, with a StreamFailedException passed to onError().
+ */
+public class EventStreamClient implements EventStreamParser.EventStreamListener {
+  private static final String TAG = "EventStreamClient";
+  private static final int CONNECT_TIMEOUT_MS = 5000;
+  // Scratch buffer size for direct (non array backed) Netty buffers.
+  private static final int SCRATCH_BUFFER_SIZE = 8192;
+  // Backoff of reconnect attempts after the first, immediate one.
+  private static final long RECONNECT_BASE_DELAY_MS = 250;
+  // A stream open at least this long counts as recovered; the next loss
+  // starts over with an immediate reconnect.
+  private static final long STABLE_STREAM_MS = 10000;
+  // Number of recent event ids remembered to drop replayed events.
+  private static final int RECENT_EVENT_IDS = 64;
+  public static final String METRIC_RECONNECTS = "sse.reconnects";
+  public static final String METRIC_RECONNECT_TIME = "sse.reconnect_ms";
+  public static final String METRIC_DUPLICATES = "sse.duplicates_dropped";
+  public static final int CONNECTING = 0;
+  public static final int OPEN = 1;
+  public static final int CLOSED = 2;
+
+  private static SslContext sslContext;
+
+  /** Response the stream cannot recover from, no reconnect follows. */
+  public static class StreamFailedException extends IOException {
+    public StreamFailedException(String message) {
+      super(message);
+    }
+  }
+
+  private final Executor executor;
+  private final URI uri;
+  private final EventSourceHandler handler;
+  private final EventStreamParser parser;
+  private final Bootstrap bootstrap;
+  private final boolean secure;
+  private final String host;
+  private final int port;
+  private final String origin;
+  private final Map<String, String> headers =
+      new LinkedHashMap<String, String>();
+  private volatile RetryPolicy reconnectPolicy;
+  private volatile int readyState = CLOSED;
+  private volatile boolean closed;
+  private Channel channel;
+  private byte[] scratch;
+  // Reconnect state, only touched by the event loop serving the stream.
+  private final RecentIds recentIds = new RecentIds(RECENT_EVENT_IDS);
+  private int reconnectAttempts;
+  private long openedAtMs;
+  private long lostAtNs;
+
+  // Fixed size set of the most recent event ids.
+  private static class RecentIds {
+    private final String[] ring;
+    private final HashSet<String> ids = new HashSet<String>();
+    private int next;
+
+    RecentIds(int size) {
+      ring = new String[size];
+    }
+
+    // Adds |id|; returns false if it is already present.
+    boolean add(String id) {
+      if (!ids.add(id)) {
+        return false;
+      }
+      if (ring[next] != null) {
+        ids.remove(ring[next]);
+      }
+      ring[next] = id;
+      next = (next + 1) % ring.length;
+      return true;
+    }
+  }
+
+  public EventStreamClient(Executor executor, long reconnectionTimeMillis,
+      URI uri, EventSourceHandler handler) {
+    this.executor = executor;
+    setReconnectionTimeMillis(reconnectionTimeMillis);
+    this.uri = uri;
+    this.handler = handler;
+    parser = new EventStreamParser(this);
+    secure = "https".equalsIgnoreCase(uri.getScheme());
+    host = uri.getHost();
+    port = uri.getPort() != -1 ? uri.getPort() : (secure ? 443 : 80);
+    origin = uri.getScheme() + "://" + host + ":" + port;
+    EventLoopGroup group = NettyHttpClient.getInstance().getEventLoopGroup();
+    bootstrap = new Bootstrap()
+        .group(group)
+        .channel(NioSocketChannel.class)
+        .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT_MS)
+        .option(ChannelOption.TCP_NODELAY, true)
+        .handler(new ChannelInitializer<SocketChannel>() {
+          @Override
+          protected void initChannel(SocketChannel ch) throws Exception {
+            ChannelPipeline pipeline = ch.pipeline();
+            if (secure) {
+              pipeline.addLast(getSslContext().newHandler(
+                  ch.alloc(), host, port));
+            }
+            pipeline.addLast(new HttpClientCodec());
+            pipeline.addLast(new StreamHandler());
+          }
+        });
+  }
+
+  /** Adds a header to the stream request. Must be called before connect(). */
+  public void withHeader(String name, String value) {
+    headers.put(name, value);
+  }
+
+  /** Sets the Last-Event-ID sent when the stream is (re)opened. */
+  public void setLastEventId(String lastEventId) {
+    synchronized (parser) {
+      parser.setLastEventId(lastEventId);
+    }
+  }
+
+  public int getReadyState() {
+    return readyState;
+  }
+
+  /** Opens the stream. Returns immediately; the outcome goes to handler. */
+  public ChannelFuture connect() {
+    closed = false;
+    return open();
+  }
+
+  private ChannelFuture open() {
+    readyState = CONNECTING;
+    Log.d(TAG, "Connecting to " + uri);
+    ChannelFuture future = bootstrap.connect(host, port);
+    future.addListener(new ChannelFutureListener() {
+      @Override
+      public void operationComplete(ChannelFuture future) {
+        if (!future.isSuccess()) {
+          onStreamError(future.cause());
+          scheduleReconnect(future.channel());
+          return;
+        }
+        Channel connected = future.channel();
+        synchronized (EventStreamClient.this) {
+          if (closed) {
+            connected.close();
+            return;
+          }
+          channel = connected;
+        }
+        connected.writeAndFlush(createRequest());
+      }
+    });
+    return future;
+  }
+
+  /** Closes the stream for good. No reconnects are attempted afterwards. */
+  public EventStreamClient close() {
+    Channel current;
+    synchronized (this) {
+      closed = true;
+      current = channel;
+      channel = null;
+    }
+    readyState = CLOSED;
+    if (current != null) {
+      current.close();
+    }
+    return this;
+  }
+
+  // EventStreamParser callbacks, on the event loop with |parser| locked.
+  @Override
+  public void onEvent(final String event, String data, String id) {
+    if (id != null && !recentIds.add(id)) {
+      Log.d(TAG, "Dropping replayed event " + event + " id " + id);
+      MetricsRegistry.getInstance().increment(METRIC_DUPLICATES);
+      return;
+    }
+    final MessageEvent messageEvent =
+        new MessageEvent(data, parser.getLastEventId(), origin);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          handler.onMessage(event, messageEvent);
+        } catch (Exception e) {
+          handler.onError(e);
+        }
+      }
+    });
+  }
+
+  @Override
+  public void onRetry(long retryMs) {
+    setReconnectionTimeMillis(retryMs);
+  }
+
+  // Caps the reconnect backoff at |reconnectionTimeMillis|.
+  private void setReconnectionTimeMillis(long reconnectionTimeMillis) {
+    reconnectPolicy = new RetryPolicy(Integer.MAX_VALUE,
+        Math.min(RECONNECT_BASE_DELAY_MS, reconnectionTimeMillis),
+        reconnectionTimeMillis, Long.MAX_VALUE, true);
+  }
+
+  private FullHttpRequest createRequest() {
+    String path = uri.getRawPath();
+    if (path == null || path.length() == 0) {
+      path = "/";
+    }
+    if (uri.getRawQuery() != null) {
+      path += "?" + uri.getRawQuery();
+    }
+    FullHttpRequest request = new DefaultFullHttpRequest(
+        HttpVersion.HTTP_1_1, HttpMethod.GET, path);
+    HttpHeaders requestHeaders = request.headers();
+    requestHeaders.set(HttpHeaders.Names.HOST, host);
+    requestHeaders.set(HttpHeaders.Names.ACCEPT, "text/event-stream");
+    requestHeaders.set(HttpHeaders.Names.CACHE_CONTROL, "no-cache");
+    String lastEventId;
+    synchronized (parser) {
+      lastEventId = parser.getLastEventId();
+    }
+    if (lastEventId.length() > 0) {
+      requestHeaders.set("Last-Event-ID", lastEventId);
+    }
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      requestHeaders.set(header.getKey(), header.getValue());
+    }
+    return request;
+  }
+
+  private void scheduleReconnect(Channel lost) {
+    synchronized (this) {
+      if (channel == lost) {
+        channel = null;
+      }
+    }
+    final boolean reconnect = !closed;
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        handler.onClosed(reconnect);
+      }
+    });
+    if (!reconnect) {
+      readyState = CLOSED;
+      return;
+    }
+    readyState = CONNECTING;
+    if (openedAtMs > 0
+        && System.currentTimeMillis() - openedAtMs >= STABLE_STREAM_MS) {
+      reconnectAttempts = 0;
+    }
+    if (openedAtMs > 0 || lostAtNs == 0) {
+      lostAtNs = System.nanoTime();
+    }
+    openedAtMs = 0;
+    reconnectAttempts++;
+    // First attempt is immediate, the loss is most likely a one-off.
+    long delayMs = reconnectAttempts == 1
+        ? 0 : reconnectPolicy.getRetryDelayMs(reconnectAttempts - 1);
+    MetricsRegistry.getInstance().increment(METRIC_RECONNECTS);
+    Log.d(TAG, "Reconnect " + reconnectAttempts + " in " + delayMs + " ms");
+    SignalingExecutor.getInstance().schedule(new Runnable() {
+      @Override
+      public void run() {
+        if (!closed) {
+          open();
+        }
+      }
+    }, delayMs);
+  }
+
+  // Stops reconnecting, then closes the stream with |cause|.
+  private void fail(ChannelHandlerContext ctx, StreamFailedException cause) {
+    synchronized (this) {
+      closed = true;
+    }
+    onStreamError(cause);
+    ctx.close();
+  }
+
+  private void onStreamError(final Throwable cause) {
+    Log.e(TAG, "Event stream error: " + cause);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        handler.onError(cause);
+      }
+    });
+  }
+
+  private static synchronized SslContext getSslContext() throws Exception {
+    if (sslContext == null) {
+      sslContext = SslContext.newClientContext();
+    }
+    return sslContext;
+  }
+
+  // Feeds the response body of the stream request into the parser.
+  private class StreamHandler extends SimpleChannelInboundHandler<HttpObject> {
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) {
+      if (closed) {
+        // Body of a failed response, or data after close().
+        return;
+      }
+      if (msg instanceof HttpResponse) {
+        HttpResponse response = (HttpResponse) msg;
+        int status = response.getStatus().code();
+        if (status != 200) {
+          fail(ctx, new StreamFailedException("Non-200 response to event"
+              + " stream " + uri + " : " + response.getStatus()));
+          return;
+        }
+        String contentType =
+            response.headers().get(HttpHeaders.Names.CONTENT_TYPE);
+        if (contentType == null || !contentType.toLowerCase(Locale.US)
+            .startsWith("text/event-stream")) {
+          fail(ctx, new StreamFailedException("Unexpected Content-Type of"
+              + " event stream " + uri + " : " + contentType));
+          return;
+        }
+        synchronized (parser) {
+          parser.reset();
+        }
+        readyState = OPEN;
+        openedAtMs = System.currentTimeMillis();
+        if (lostAtNs != 0) {
+          MetricsRegistry.getInstance().record(METRIC_RECONNECT_TIME,
+              (System.nanoTime() - lostAtNs) / 1000000);
+          lostAtNs = 0;
+        }
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              handler.onConnect();
+            } catch (Exception e) {
+              handler.onError(e);
+            }
+          }
+        });
+      }
+      if (msg instanceof HttpContent) {
+        ByteBuf content = ((HttpContent) msg).content();
+        synchronized (parser) {
+          feed(content);
+        }
+        if (msg instanceof LastHttpContent) {
+          // Server ended the stream, reconnect.
+          ctx.close();
+        }
+      }
+    }
+
+    // Parses |content| in place when it is array backed.
+    private void feed(ByteBuf content) {
+      int readable = content.readableBytes();
+      if (content.hasArray()) {
+        parser.feed(content.array(),
+            content.arrayOffset() + content.readerIndex(), readable);
+        return;
+      }
+      if (scratch == null) {
+        scratch = new byte[SCRATCH_BUFFER_SIZE];
+      }
+      int index = content.readerIndex();
+      while (readable > 0) {
+        int length = Math.min(readable, scratch.length);
+        content.getBytes(index, scratch, 0, length);
+        parser.feed(scratch, 0, length);
+        index += length;
+        readable -= length;
+      }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+      scheduleReconnect(ctx.channel());
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+      onStreamError(cause);
+      ctx.close();
+    }
+  }
+}
@@ -0,0 +1,233 @@
+package org.appspot.apprtc.util;
+
+import java.nio.charset.Charset;
+
+/**
+ * Incremental parser for the text/event-stream (Server-Sent Events) format.
+ *
+ * <p>Bytes are fed as they arrive from the network, in chunks of any size.
+ * Lines are located directly in the caller's buffer and field names are
+ * matched on raw bytes, so the only allocations are the Strings handed to
+ * the listener. Only a line split across two chunks is copied, into a
+ * reusable line buffer. Field values are decoded as UTF-8.
+ *
+ * <p>Not thread safe; feed() must be called from one thread at a time.
+ */
+public class EventStreamParser {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String DEFAULT_EVENT = "message";
+  private static final int INITIAL_LINE_CAPACITY = 1024;
+  private static final byte CR = '\r';
+  private static final byte LF = '\n';
+  private static final byte[] FIELD_DATA = { 'd', 'a', 't', 'a' };
+  private static final byte[] FIELD_EVENT = { 'e', 'v', 'e', 'n', 't' };
+  private static final byte[] FIELD_ID = { 'i', 'd' };
+  private static final byte[] FIELD_RETRY = { 'r', 'e', 't', 'r', 'y' };
+  private static final byte[] BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+  private final EventStreamListener listener;
+  // Partial line carried over from the previous chunk.
+  private byte[] line = new byte[INITIAL_LINE_CAPACITY];
+  private int lineLength;
+  // True if the last byte seen was a CR, so a following LF is skipped.
+  private boolean skipLf;
+  // Bytes of the stream start seen so far, to strip a leading BOM.
+  private int streamStart;
+  // Event being assembled. The first data line is kept as is and only
+  // multi-line data is joined in |dataBuilder|.
+  private String eventType;
+  private String eventId;
+  private String data;
+  private final StringBuilder dataBuilder = new StringBuilder();
+  private String lastEventId = "";
+
+  /**
+   * Receives parsed events, on the thread calling feed(). |id| is the id
+   * carried by the event itself, or null if it had none; getLastEventId()
+   * returns the id in effect for the event either way.
+   */
+  public interface EventStreamListener {
+    public void onEvent(String event, String data, String id);
+    public void onRetry(long retryMs);
+  }
+
+  public EventStreamParser(EventStreamListener listener) {
+    this.listener = listener;
+  }
+
+  /** Id of the last dispatched event, or "" if none carried an id. */
+  public String getLastEventId() {
+    return lastEventId;
+  }
+
+  public void setLastEventId(String lastEventId) {
+    this.lastEventId = lastEventId != null ? lastEventId : "";
+  }
+
+  /**
+   * Drops any partially received line and event, e.g. when the connection
+   * is lost. The last event id is kept.
+   */
+  public void reset() {
+    lineLength = 0;
+    skipLf = false;
+    streamStart = 0;
+    clearEvent();
+  }
+
+  /** Parses |length| bytes of |buffer| starting at |offset|. */
+  public void feed(byte[] buffer, int offset, int length) {
+    int end = offset + length;
+    int pos = offset;
+    while (streamStart < BOM.length && pos < end) {
+      if (buffer[pos] != BOM[streamStart]) {
+        if (streamStart > 0) {
+          // Not a BOM after all, replay the bytes consumed so far.
+          appendToLine(BOM, 0, streamStart);
+        }
+        streamStart = BOM.length;
+        break;
+      }
+      streamStart++;
+      pos++;
+    }
+    if (skipLf && pos < end) {
+      skipLf = false;
+      if (buffer[pos] == LF) {
+        pos++;
+      }
+    }
+    int lineStart = pos;
+    while (pos < end) {
+      byte b = buffer[pos];
+      if (b != CR && b != LF) {
+        pos++;
+        continue;
+      }
+      if (lineLength > 0) {
+        appendToLine(buffer, lineStart, pos - lineStart);
+        processLine(line, 0, lineLength);
+        lineLength = 0;
+      } else {
+        processLine(buffer, lineStart, pos - lineStart);
+      }
+      pos++;
+      if (b == CR) {
+        if (pos == end) {
+          skipLf = true;
+        } else if (buffer[pos] == LF) {
+          pos++;
+        }
+      }
+      lineStart = pos;
+    }
+    appendToLine(buffer, lineStart, end - lineStart);
+  }
+
+  private void appendToLine(byte[] buffer, int offset, int length) {
+    if (length == 0) {
+      return;
+    }
+    if (lineLength + length > line.length) {
+      byte[] grown = new byte[Math.max(line.length * 2, lineLength + length)];
+      System.arraycopy(line, 0, grown, 0, lineLength);
+      line = grown;
+    }
+    System.arraycopy(buffer, offset, line, lineLength, length);
+    lineLength += length;
+  }
+
+  private void processLine(byte[] buffer, int offset, int length) {
+    if (length == 0) {
+      dispatchEvent();
+      return;
+    }
+    if (buffer[offset] == ':') {
+      // Comment, used by servers as keep-alive.
+      return;
+    }
+    int end = offset + length;
+    int colon = offset;
+    while (colon < end && buffer[colon] != ':') {
+      colon++;
+    }
+    int nameLength = colon - offset;
+    int valueStart = colon;
+    if (colon < end) {
+      valueStart++;
+      if (valueStart < end && buffer[valueStart] == ' ') {
+        valueStart++;
+      }
+    }
+    int valueLength = end - valueStart;
+
+    if (fieldEquals(buffer, offset, nameLength, FIELD_DATA)) {
+      String value = new String(buffer, valueStart, valueLength, UTF_8);
+      if (data == null) {
+        data = value;
+      } else {
+        if (dataBuilder.length() == 0) {
+          dataBuilder.append(data);
+        }
+        dataBuilder.append('\n').append(value);
+      }
+    } else if (fieldEquals(buffer, offset, nameLength, FIELD_EVENT)) {
+      eventType = new String(buffer, valueStart, valueLength, UTF_8);
+    } else if (fieldEquals(buffer, offset, nameLength, FIELD_ID)) {
+      for (int i = valueStart; i < end; i++) {
+        if (buffer[i] == 0) {
+          // Ids containing NULL are ignored.
+          return;
+        }
+      }
+      lastEventId = new String(buffer, valueStart, valueLength, UTF_8);
+      eventId = lastEventId;
+    } else if (fieldEquals(buffer, offset, nameLength, FIELD_RETRY)) {
+      long retryMs = 0;
+      for (int i = valueStart; i < end; i++) {
+        if (buffer[i] < '0' || buffer[i] > '9') {
+          return;
+        }
+        retryMs = retryMs * 10 + (buffer[i] - '0');
+      }
+      if (valueLength > 0) {
+        listener.onRetry(retryMs);
+      }
+    }
+    // Unknown fields are ignored.
+  }
+
+  private static boolean fieldEquals(
+      byte[] buffer, int offset, int length, byte[] field) {
+    if (length != field.length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (buffer[offset + i] != field[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void dispatchEvent() {
+    if (data == null) {
+      // No data lines, nothing to dispatch.
+      clearEvent();
+      return;
+    }
+    String eventData = dataBuilder.length() > 0 ? dataBuilder.toString() : data;
+    String event = eventType != null && eventType.length() > 0
+        ? eventType : DEFAULT_EVENT;
+    String id = eventId;
+    clearEvent();
+    listener.onEvent(event, eventData, id);
+  }
+
+  private void clearEvent() {
+    eventType = null;
+    eventId = null;
+    data = null;
+    dataBuilder.setLength(0);
+  }
+}
@@ -0,0 +1,199 @@
+package org.appspot.apprtc.util;
+
+import android.util.Log;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * Process-wide transport shared by all signaling HTTP requests.
+ *
+ * <p>Requests run on the shared SignalingExecutor pool instead of a new
+ * thread each, and reuse the persistent connections of the platform
+ * HttpURLConnection keep-alive pool, which is left at its defaults.
+ * HttpURLConnection does not report whether a request was served from a
+ * pooled socket, so pool hits and misses are estimated per host by
+ * mirroring the pool: a connection that was released cleanly (response
+ * fully drained) and is younger than the keep-alive timeout counts as a hit.
+ * The platform pool may evict or hand out connections differently, so the
+ * counters are estimates, not measurements.
+ *
+ * <p>Delayed work such as request retries is scheduled on the same pool.
+ */
+public class HttpTransport {
+  private static final String TAG = "HttpTransport";
+  // Idle connections the platform pool keeps by default (http.maxConnections).
+  private static final int MAX_CONNECTIONS_PER_HOST = 5;
+  // Platform (OkHttp based) pool evicts idle connections after 5 minutes.
+  private static final long CONNECTION_KEEP_ALIVE_MS = 5 * 60 * 1000;
+
+  private static HttpTransport instance;
+
+  private final Map<String, HostPool> hostPools =
+      new HashMap<String, HostPool>();
+  private int poolHits;
+  private int poolMisses;
+  private final HashSet<AsyncHttpURLConnection> activeRequests =
+      new HashSet<AsyncHttpURLConnection>();
+
+  // Idle connection bookkeeping for a single scheme://host:port.
+  private static class HostPool {
+    // Release times of idle connections, oldest first.
+    final long[] idleSince = new long[MAX_CONNECTIONS_PER_HOST];
+    int idleCount;
+    int hits;
+    int misses;
+  }
+
+  public static synchronized HttpTransport getInstance() {
+    if (instance == null) {
+      instance = new HttpTransport();
+    }
+    return instance;
+  }
+
+  private HttpTransport() {
+  }
+
+  /** Runs |request| on one of the signaling threads. */
+  public Future<?> submit(Runnable request) {
+    return SignalingExecutor.getInstance().submit(request);
+  }
+
+  /** Runs |request| on one of the signaling threads after |delayMs|. */
+  public Future<?> schedule(Runnable request, long delayMs) {
+    return SignalingExecutor.getInstance().schedule(request, delayMs);
+  }
+
+  /** Tracks |request| as in flight until unregister() is called. */
+  public synchronized void register(AsyncHttpURLConnection request) {
+    activeRequests.add(request);
+  }
+
+  public synchronized void unregister(AsyncHttpURLConnection request) {
+    activeRequests.remove(request);
+  }
+
+  /** Number of requests queued or in flight. */
+  public synchronized int getActiveRequestCount() {
+    return activeRequests.size();
+  }
+
+  /**
+   * Cancels every queued or in-flight request tagged with |tag| and closes
+   * their sockets. Returns the number of canceled requests.
+   */
+  public int cancelAll(Object tag) {
+    ArrayList<AsyncHttpURLConnection> canceled =
+        new ArrayList<AsyncHttpURLConnection>();
+    synchronized (this) {
+      for (AsyncHttpURLConnection request : activeRequests) {
+        if (tag != null && tag.equals(request.getTag())) {
+          canceled.add(request);
+        }
+      }
+    }
+    // Cancel outside of the lock, cancel() calls back into unregister().
+    for (AsyncHttpURLConnection request : canceled) {
+      request.cancel();
+    }
+    if (!canceled.isEmpty()) {
+      Log.d(TAG, "Canceled " + canceled.size() + " requests for " + tag);
+    }
+    return canceled.size();
+  }
+
+  /**
+   * Called before a connection to |url| is opened. Returns true if the
+   * request is estimated to reuse a pooled keep-alive connection.
+   */
+  public synchronized boolean acquire(URL url) {
+    HostPool pool = getHostPool(url);
+    long now = System.currentTimeMillis();
+    // Drop connections the platform pool has already evicted.
+    int expired = 0;
+    while (expired < pool.idleCount
+        && now - pool.idleSince[expired] > CONNECTION_KEEP_ALIVE_MS) {
+      expired++;
+    }
+    removeOldest(pool, expired);
+    if (pool.idleCount > 0) {
+      // Platform pool hands out the most recently released connection.
+      pool.idleCount--;
+      pool.hits++;
+      poolHits++;
+      return true;
+    }
+    pool.misses++;
+    poolMisses++;
+    return false;
+  }
+
+  /**
+   * Called once a request to |url| has finished. |reusable| is true if the
+   * response was fully drained and the connection went back to the pool.
+   */
+  public synchronized void release(URL url, boolean reusable) {
+    if (!reusable) {
+      return;
+    }
+    HostPool pool = getHostPool(url);
+    if (pool.idleCount == MAX_CONNECTIONS_PER_HOST) {
+      removeOldest(pool, 1);
+    }
+    pool.idleSince[pool.idleCount++] = System.currentTimeMillis();
+  }
+
+  /** Estimated number of requests that reused a pooled connection. */
+  public synchronized int getPoolHits() {
+    return poolHits;
+  }
+
+  /** Estimated number of requests that opened a new connection. */
+  public synchronized int getPoolMisses() {
+    return poolMisses;
+  }
+
+  /** Returns a per-host summary of the estimated pool hits and misses. */
+  public synchronized String getPoolStats() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("estimated hits=").append(poolHits)
+        .append(" misses=").append(poolMisses);
+    for (Map.Entry<String, HostPool> entry : hostPools.entrySet()) {
+      HostPool pool = entry.getValue();
+      builder.append("\n").append(entry.getKey())
+          .append(": hits=").append(pool.hits)
+          .append(" misses=").append(pool.misses)
+          .append(" idle=").append(pool.idleCount);
+    }
+    return builder.toString();
+  }
+
+  public void logPoolStats() {
+    Log.d(TAG, "Connection pool: " + getPoolStats());
+  }
+
+  private HostPool getHostPool(URL url) {
+    int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+    String key = url.getProtocol() + "://" + url.getHost() + ":" + port;
+    HostPool pool = hostPools.get(key);
+    if (pool == null) {
+      pool = new HostPool();
+      hostPools.put(key, pool);
+    }
+    return pool;
+  }
+
+  private static void removeOldest(HostPool pool, int count) {
+    if (count == 0) {
+      return;
+    }
+    System.arraycopy(pool.idleSince, count, pool.idleSince, 0,
+        pool.idleCount - count);
+    pool.idleCount -= count;
+  }
+}
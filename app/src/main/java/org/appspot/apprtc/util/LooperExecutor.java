@@ -104,4 +104,21 @@ public class LooperExecutor extends Thread implements Executor {
     }
   }
 
+  /** Runs |runnable| on the looper thread after |delayMs| milliseconds. */
+  public synchronized void executeDelayed(
+      final Runnable runnable, long delayMs) {
+    if (!running) {
+      Log.w(TAG, "Running looper executor without calling requestStart()");
+      return;
+    }
+    handler.postDelayed(runnable, delayMs);
+  }
+
+  /** Removes pending delayed executions of |runnable|. */
+  public synchronized void cancel(final Runnable runnable) {
+    if (handler != null) {
+      handler.removeCallbacks(runnable);
+    }
+  }
+
 }
@@ -0,0 +1,184 @@
+package org.appspot.apprtc.util;
+
+import android.util.Log;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Lightweight in-process registry of histograms and counters.
+ *
+ * <p>Histograms use fixed power-of-two buckets, so recording a value never
+ * allocates and costs a lock plus a few arithmetic operations. Names should
+ * be compile-time constants; the registry allocates only the first time a
+ * name is seen. dump() renders everything as text for logs or the HUD.
+ */
+public class MetricsRegistry {
+  private static final String TAG = "MetricsRegistry";
+  private static MetricsRegistry instance;
+
+  private final Map<String, Histogram> histograms =
+      new TreeMap<String, Histogram>();
+  private final Map<String, Counter> counters = new TreeMap<String, Counter>();
+
+  /**
+   * Histogram of non-negative values with power-of-two buckets: bucket 0
+   * holds 0, bucket i holds values in [2^(i-1), 2^i).
+   */
+  public static class Histogram {
+    private static final int BUCKETS = 32;
+    private final long[] buckets = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public synchronized void record(long value) {
+      if (value < 0) {
+        value = 0;
+      }
+      int bucket = 64 - Long.numberOfLeadingZeros(value);
+      buckets[Math.min(bucket, BUCKETS - 1)]++;
+      count++;
+      sum += value;
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+    }
+
+    public synchronized long getCount() {
+      return count;
+    }
+
+    public synchronized long getMean() {
+      return count == 0 ? 0 : sum / count;
+    }
+
+    public synchronized long getMax() {
+      return max;
+    }
+
+    /**
+     * Returns an upper bound for the |percentile| (0-100) value, i.e. the
+     * upper edge of the bucket that contains it, capped at the maximum.
+     */
+    public synchronized long getPercentile(double percentile) {
+      if (count == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(count * percentile / 100.0);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += buckets[i];
+        if (seen >= rank) {
+          return i == 0 ? 0 : Math.min(max, (1L << i) - 1);
+        }
+      }
+      return max;
+    }
+
+    public synchronized void reset() {
+      for (int i = 0; i < BUCKETS; i++) {
+        buckets[i] = 0;
+      }
+      count = 0;
+      sum = 0;
+      min = Long.MAX_VALUE;
+      max = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+      if (count == 0) {
+        return "n=0";
+      }
+      return "n=" + count + " min=" + min + " mean=" + getMean()
+          + " p50=" + getPercentile(50) + " p90=" + getPercentile(90)
+          + " p99=" + getPercentile(99) + " max=" + max;
+    }
+  }
+
+  /**
+   * Monotonic counter.
+   */
+  public static class Counter {
+    private long value;
+
+    public synchronized void increment() {
+      value++;
+    }
+
+    public synchronized void add(long delta) {
+      value += delta;
+    }
+
+    public synchronized long get() {
+      return value;
+    }
+
+    public synchronized void reset() {
+      value = 0;
+    }
+  }
+
+  public static synchronized MetricsRegistry getInstance() {
+    if (instance == null) {
+      instance = new MetricsRegistry();
+    }
+    return instance;
+  }
+
+  public synchronized Histogram histogram(String name) {
+    Histogram histogram = histograms.get(name);
+    if (histogram == null) {
+      histogram = new Histogram();
+      histograms.put(name, histogram);
+    }
+    return histogram;
+  }
+
+  public synchronized Counter counter(String name) {
+    Counter counter = counters.get(name);
+    if (counter == null) {
+      counter = new Counter();
+      counters.put(name, counter);
+    }
+    return counter;
+  }
+
+  /** Records |value| in the histogram |name|. */
+  public void record(String name, long value) {
+    histogram(name).record(value);
+  }
+
+  /** Increments the counter |name|. */
+  public void increment(String name) {
+    counter(name).increment();
+  }
+
+  public synchronized void reset() {
+    for (Histogram histogram : histograms.values()) {
+      histogram.reset();
+    }
+    for (Counter counter : counters.values()) {
+      counter.reset();
+    }
+  }
+
+  /** Returns all histograms and counters, one per line. */
+  public synchronized String dump() {
+    StringBuilder builder = new StringBuilder();
+    for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+      builder.append(entry.getKey()).append(": ")
+          .append(entry.getValue()).append("\n");
+    }
+    for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+      builder.append(entry.getKey()).append(": ")
+          .append(entry.getValue().get()).append("\n");
+    }
+    return builder.toString();
+  }
+
+  public void log() {
+    Log.d(TAG, "Metrics:\n" + dump());
+  }
+}
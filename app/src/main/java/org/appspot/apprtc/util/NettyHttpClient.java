@@ -0,0 +1,442 @@
+package org.appspot.apprtc.util;
+
+import android.util.Log;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking HTTP client backend for AsyncHttpURLConnection.
+ *
+ * <p>All requests share one or two Netty event loop threads regardless of
+ * how many are in flight. Keep-alive channels are kept per host and reused
+ * for subsequent requests. If a reused channel turns out to be stale, i.e.
+ * fails before any response arrives, the request is sent once more on a new
+ * channel, as HttpURLConnection does. Results are delivered to
+ * RequestEvents on an event loop thread. send() returns a handle to cancel
+ * the request with.
+ */
+public class NettyHttpClient {
+  private static final String TAG = "NettyHttpClient";
+  private static final int IO_THREADS = 2;
+  private static final int HTTP_TIMEOUT_MS = 5000;
+  private static final int MAX_RESPONSE_BYTES = 1024 * 1024;
+  private static final int MAX_IDLE_CHANNELS_PER_HOST = 4;
+
+  private static NettyHttpClient instance;
+
+  /** Events of a request started by send(). */
+  public interface RequestEvents {
+    /**
+     * The request failed. |status| is the HTTP status of a non-200
+     * response, or 0 if no response arrived. |written| tells whether the
+     * request was flushed to the server, i.e. may have been processed.
+     */
+    public void OnHttpError(String errorMessage, int status, boolean written);
+    public void OnHttpComplete(String response);
+  }
+
+  /** Handle of a request started by send(). */
+  public interface RequestHandle {
+    /**
+     * Aborts the request and closes its channel. No callbacks are issued
+     * afterwards. Safe to call from any thread.
+     */
+    public void cancel();
+  }
+
+  // Handle of a request that failed before it started.
+  private static final RequestHandle FAILED_REQUEST = new RequestHandle() {
+    @Override
+    public void cancel() {
+    }
+  };
+
+  private final EventLoopGroup group;
+  private final Bootstrap bootstrap;
+  private SslContext sslContext;
+  // Idle keep-alive channels per scheme://host:port.
+  private final Map<String, ArrayDeque<Channel>> idleChannels =
+      new HashMap<String, ArrayDeque<Channel>>();
+
+  public static synchronized NettyHttpClient getInstance() {
+    if (instance == null) {
+      instance = new NettyHttpClient();
+    }
+    return instance;
+  }
+
+  private NettyHttpClient() {
+    group = new NioEventLoopGroup(IO_THREADS);
+    bootstrap = new Bootstrap()
+        .group(group)
+        .channel(NioSocketChannel.class)
+        .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, HTTP_TIMEOUT_MS)
+        .option(ChannelOption.TCP_NODELAY, true);
+  }
+
+  /** Returns the event loop group shared by Netty based signaling I/O. */
+  public EventLoopGroup getEventLoopGroup() {
+    return group;
+  }
+
+  /** Asynchronously sends |message| to |url| and reports to |events|. */
+  public RequestHandle send(String method, String url, String message,
+      RequestEvents events) {
+    final Request request;
+    try {
+      request = new Request(method, new URI(url), message, events);
+    } catch (Exception e) {
+      events.OnHttpError("HTTP " + method + " to " + url + " error: "
+          + e.getMessage(), 0, false);
+      return FAILED_REQUEST;
+    }
+    Channel channel = pollIdleChannel(request.hostKey);
+    if (channel != null) {
+      request.reused = true;
+      write(channel, request);
+    } else {
+      connect(request);
+    }
+    return request;
+  }
+
+  private void connect(final Request request) {
+    final SslContext ssl;
+    try {
+      ssl = request.secure ? getSslContext() : null;
+    } catch (Exception e) {
+      request.fail("SSL error: " + e.getMessage());
+      return;
+    }
+    Bootstrap connectBootstrap = bootstrap.clone()
+        .handler(new ChannelInitializer<SocketChannel>() {
+          @Override
+          protected void initChannel(SocketChannel ch) {
+            ChannelPipeline pipeline = ch.pipeline();
+            if (ssl != null) {
+              pipeline.addLast(
+                  ssl.newHandler(ch.alloc(), request.host, request.port));
+            }
+            pipeline.addLast(new HttpClientCodec());
+            pipeline.addLast(new ResponseStartHandler());
+            pipeline.addLast(new HttpObjectAggregator(MAX_RESPONSE_BYTES));
+            pipeline.addLast(new ResponseHandler());
+          }
+        });
+    connectBootstrap.connect(request.host, request.port).addListener(
+        new ChannelFutureListener() {
+          @Override
+          public void operationComplete(ChannelFuture future) {
+            if (future.isSuccess()) {
+              write(future.channel(), request);
+            } else {
+              request.fail("connect error: " + future.cause());
+            }
+          }
+        });
+  }
+
+  private void write(final Channel channel, final Request request) {
+    // Request state is owned by the channel's event loop.
+    if (!channel.eventLoop().inEventLoop()) {
+      channel.eventLoop().execute(new Runnable() {
+        @Override
+        public void run() {
+          write(channel, request);
+        }
+      });
+      return;
+    }
+    if (!request.attach(channel)) {
+      // Canceled before it was written.
+      channel.close();
+      return;
+    }
+    final ResponseHandler handler =
+        channel.pipeline().get(ResponseHandler.class);
+    handler.start(channel, request);
+    channel.writeAndFlush(request.toHttpRequest()).addListener(
+        new ChannelFutureListener() {
+          @Override
+          public void operationComplete(ChannelFuture future) {
+            if (future.isSuccess()) {
+              request.written = true;
+            } else {
+              handler.fail(channel, "write error: " + future.cause(), true);
+            }
+          }
+        });
+  }
+
+  private synchronized SslContext getSslContext() throws Exception {
+    if (sslContext == null) {
+      sslContext = SslContext.newClientContext();
+    }
+    return sslContext;
+  }
+
+  private synchronized Channel pollIdleChannel(String hostKey) {
+    ArrayDeque<Channel> channels = idleChannels.get(hostKey);
+    if (channels == null) {
+      return null;
+    }
+    Channel channel;
+    while ((channel = channels.pollLast()) != null) {
+      if (channel.isActive()) {
+        return channel;
+      }
+    }
+    return null;
+  }
+
+  private synchronized void releaseChannel(String hostKey, Channel channel) {
+    ArrayDeque<Channel> channels = idleChannels.get(hostKey);
+    if (channels == null) {
+      channels = new ArrayDeque<Channel>();
+      idleChannels.put(hostKey, channels);
+    }
+    if (channels.size() >= MAX_IDLE_CHANNELS_PER_HOST) {
+      channels.pollFirst().close();
+    }
+    channels.addLast(channel);
+  }
+
+  // Single HTTP request and its completion callback.
+  private static class Request implements RequestHandle {
+    final String method;
+    final URI uri;
+    final String message;
+    final RequestEvents events;
+    final boolean secure;
+    final String host;
+    final int port;
+    final String hostKey;
+    // Channel carrying the request while it is outstanding.
+    private Channel channel;
+    private volatile boolean canceled;
+
+    // True while the request is sent on a pooled channel, which may be stale.
+    boolean reused;
+    // True once the request was flushed to the channel.
+    volatile boolean written;
+
+    Request(String method, URI uri, String message, RequestEvents events) {
+      this.method = method;
+      this.uri = uri;
+      this.message = message;
+      this.events = events;
+      secure = "https".equalsIgnoreCase(uri.getScheme());
+      host = uri.getHost();
+      port = uri.getPort() != -1 ? uri.getPort() : (secure ? 443 : 80);
+      hostKey = uri.getScheme() + "://" + host + ":" + port;
+    }
+
+    FullHttpRequest toHttpRequest() {
+      String path = uri.getRawPath();
+      if (path == null || path.length() == 0) {
+        path = "/";
+      }
+      if (uri.getRawQuery() != null) {
+        path += "?" + uri.getRawQuery();
+      }
+      ByteBuf body = message != null
+          ? Unpooled.copiedBuffer(message, CharsetUtil.UTF_8)
+          : Unpooled.EMPTY_BUFFER;
+      FullHttpRequest request = new DefaultFullHttpRequest(
+          HttpVersion.HTTP_1_1, HttpMethod.valueOf(method), path, body);
+      HttpHeaders headers = request.headers();
+      headers.set(HttpHeaders.Names.HOST, host);
+      headers.set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+      headers.set(HttpHeaders.Names.CONTENT_TYPE, "application/json");
+      headers.set(HttpHeaders.Names.CONTENT_LENGTH, body.readableBytes());
+      return request;
+    }
+
+    @Override
+    public synchronized void cancel() {
+      canceled = true;
+      if (channel != null) {
+        // Closing is asynchronous, so it is safe under the lock.
+        channel.close();
+      }
+    }
+
+    // Sets the channel the request is written to. Returns false if the
+    // request was canceled.
+    synchronized boolean attach(Channel channel) {
+      if (canceled) {
+        return false;
+      }
+      this.channel = channel;
+      return true;
+    }
+
+    // Called once the request is done with its channel, so cancel() no
+    // longer closes it. Returns false if the request was canceled.
+    synchronized boolean detach() {
+      channel = null;
+      return !canceled;
+    }
+
+    // Returns true once if the request was sent on a pooled channel, to send
+    // it again on a new one. A stale channel fails before the server reads
+    // the request, so it counts as not written.
+    boolean retryOnNewChannel() {
+      if (!reused || canceled) {
+        return false;
+      }
+      reused = false;
+      written = false;
+      return true;
+    }
+
+    void fail(String description) {
+      reportError("HTTP " + method + " to " + uri + " " + description,
+          0, written);
+    }
+
+    void reportError(String errorMessage, int status, boolean written) {
+      if (!canceled) {
+        events.OnHttpError(errorMessage, status, written);
+      }
+    }
+
+    void reportComplete(String response) {
+      if (!canceled) {
+        events.OnHttpComplete(response);
+      }
+    }
+  }
+
+  // Tells the ResponseHandler when a response starts, ahead of the
+  // aggregator which only passes on complete responses.
+  private static class ResponseStartHandler
+      extends ChannelInboundHandlerAdapter {
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+      ctx.pipeline().get(ResponseHandler.class).onResponseStarted();
+      ctx.fireChannelRead(msg);
+    }
+  }
+
+  // Per-channel handler matching each response to its outstanding request.
+  private class ResponseHandler
+      extends SimpleChannelInboundHandler<FullHttpResponse> {
+    private Request request;
+    private ScheduledFuture<?> timeout;
+    // True once the response to |request| started to arrive.
+    private boolean responseStarted;
+
+    void start(final Channel channel, Request request) {
+      this.request = request;
+      responseStarted = false;
+      timeout = channel.eventLoop().schedule(new Runnable() {
+        @Override
+        public void run() {
+          // The server may still be processing the request.
+          fail(channel, "timeout", false);
+        }
+      }, HTTP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    void onResponseStarted() {
+      responseStarted = true;
+    }
+
+    @Override
+    protected void channelRead0(
+        ChannelHandlerContext ctx, FullHttpResponse response) {
+      Request completed = finish();
+      if (completed == null) {
+        return;
+      }
+      String body = response.content().toString(CharsetUtil.UTF_8);
+      if (completed.detach() && HttpHeaders.isKeepAlive(response)) {
+        releaseChannel(completed.hostKey, ctx.channel());
+      } else {
+        ctx.close();
+      }
+      int status = response.getStatus().code();
+      if (status != 200) {
+        completed.reportError("Non-200 response to "
+            + completed.method + " to URL: " + completed.uri + " : "
+            + response.getStatus(), status, true);
+        return;
+      }
+      completed.reportComplete(body);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+      fail(ctx.channel(), "connection closed", true);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+      Log.e(TAG, "Channel error: " + cause);
+      fail(ctx.channel(), "error: " + cause.getMessage(), true);
+    }
+
+    // Fails the outstanding request. |stale| tells whether the failure may
+    // be due to a stale pooled channel, which the request is then retried
+    // on a new channel for, unless a response started to arrive.
+    void fail(Channel channel, String description, boolean stale) {
+      boolean started = responseStarted;
+      Request failed = finish();
+      channel.close();
+      if (failed == null) {
+        return;
+      }
+      failed.detach();
+      if (stale && !started && failed.retryOnNewChannel()) {
+        Log.d(TAG, "Pooled channel to " + failed.hostKey + " failed ("
+            + description + "), retrying on a new channel");
+        connect(failed);
+        return;
+      }
+      failed.fail(description);
+    }
+
+    private Request finish() {
+      Request current = request;
+      request = null;
+      if (timeout != null) {
+        timeout.cancel(false);
+        timeout = null;
+      }
+      return current;
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package org.appspot.apprtc.util;
+
+import java.util.Random;
+
+/**
+ * Retry schedule for a class of signaling requests.
+ *
+ * <p>Failed attempts are retried after a jittered exponential backoff: the
+ * delay before retry n is drawn uniformly from [cap / 2, cap] where cap is
+ * min(|maxDelayMs|, |baseDelayMs| * 2^(n-1)), so clients that failed together
+ * do not retry in lockstep. Retries stop after |maxAttempts| attempts or once
+ * the next attempt would start past |deadlineMs| from the first one.
+ *
+ * <p>A failure before the request reached the server (DNS, connect, TLS,
+ * or an explicit "not processed" status) can always be retried. A failure
+ * after the request was written is only retried for idempotent requests,
+ * since the server may already have acted on it, e.g. a BYE must not be
+ * delivered twice.
+ */
+public class RetryPolicy {
+  private static final Random random = new Random();
+
+  /** Single attempt, no retries. */
+  public static final RetryPolicy NONE =
+      new RetryPolicy(1, 0, 0, Long.MAX_VALUE, false);
+  /** Room registration. Registering twice may leave a stale client. */
+  public static final RetryPolicy ROOM_JOIN =
+      new RetryPolicy(4, 500, 4000, 15000, false);
+  /** Offer and answer SDP. A duplicate offer would restart negotiation. */
+  public static final RetryPolicy SDP =
+      new RetryPolicy(5, 250, 2000, 10000, false);
+  /** ICE candidates. Peers ignore candidates they already have. */
+  public static final RetryPolicy ICE_CANDIDATES =
+      new RetryPolicy(5, 100, 1000, 5000, true);
+  /** Leaving the room. Short deadline, the app is tearing down. */
+  public static final RetryPolicy BYE =
+      new RetryPolicy(3, 100, 500, 2000, false);
+
+  private final int maxAttempts;
+  private final long baseDelayMs;
+  private final long maxDelayMs;
+  private final long deadlineMs;
+  private final boolean idempotent;
+
+  public RetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs,
+      long deadlineMs, boolean idempotent) {
+    this.maxAttempts = maxAttempts;
+    this.baseDelayMs = baseDelayMs;
+    this.maxDelayMs = maxDelayMs;
+    this.deadlineMs = deadlineMs;
+    this.idempotent = idempotent;
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  public long getDeadlineMs() {
+    return deadlineMs;
+  }
+
+  public boolean isIdempotent() {
+    return idempotent;
+  }
+
+  /** Returns the jittered delay before the attempt following |attempts|. */
+  public long getRetryDelayMs(int attempts) {
+    int shift = Math.min(Math.max(attempts - 1, 0), 30);
+    long cap = Math.min(maxDelayMs, baseDelayMs << shift);
+    if (cap <= 1) {
+      return cap;
+    }
+    long half = cap / 2;
+    return half + (long) (random.nextDouble() * (cap - half + 1));
+  }
+
+  /**
+   * Returns true if a request that failed on attempt |attempts| may be sent
+   * again, with the next attempt starting |elapsedMs| after the first one.
+   * |requestSent| tells whether the failed attempt may have reached the
+   * server.
+   */
+  public boolean canRetry(int attempts, long elapsedMs, boolean requestSent) {
+    if (attempts >= maxAttempts || elapsedMs >= deadlineMs) {
+      return false;
+    }
+    return idempotent || !requestSent;
+  }
+
+  /** Time left for attempts started |elapsedMs| after the first one. */
+  public long getRemainingMs(long elapsedMs) {
+    return Math.max(0, deadlineMs - elapsedMs);
+  }
+
+  @Override
+  public String toString() {
+    return "attempts=" + maxAttempts + " backoff=" + baseDelayMs + ".."
+        + maxDelayMs + " deadline=" + deadlineMs + " idempotent=" + idempotent;
+  }
+}
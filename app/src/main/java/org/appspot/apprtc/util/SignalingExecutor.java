@@ -0,0 +1,167 @@
+package org.appspot.apprtc.util;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide, bounded scheduler for signaling I/O.
+ *
+ * <p>HTTP requests and their retries, event stream callbacks and reconnect
+ * timers all run on one small pool instead of a thread (or executor) of
+ * their own. Signaling clients hold a reference between connect and
+ * disconnect: acquire() on connect, release() once disconnected. When the
+ * last reference is released the pool is shut down: queued work and pending
+ * timers (e.g. a BYE retry) still run, then its threads exit. Work
+ * submitted while no client holds a reference, e.g. connection pre-warming,
+ * starts a new pool whose idle threads time out on their own.
+ *
+ * <p>getStats() reports live thread and queue counts so leaked work shows up
+ * in logs.
+ */
+public class SignalingExecutor implements Executor {
+  private static final String TAG = "SignalingExecutor";
+  // Upper bound on signaling threads.
+  private static final int MAX_THREADS = 4;
+  // Idle threads are released after this timeout.
+  private static final long THREAD_KEEP_ALIVE_MS = 30000;
+
+  private static SignalingExecutor instance;
+
+  private final AtomicInteger threadCount = new AtomicInteger();
+  private ScheduledThreadPoolExecutor pool;
+  private int refCount;
+
+  public static synchronized SignalingExecutor getInstance() {
+    if (instance == null) {
+      instance = new SignalingExecutor();
+    }
+    return instance;
+  }
+
+  private SignalingExecutor() {
+  }
+
+  /** Takes a reference on the pool. Called when a client connects. */
+  public synchronized void acquire() {
+    refCount++;
+    getPool();
+  }
+
+  /**
+   * Drops a reference taken by acquire(). The pool is shut down once no
+   * references are left.
+   */
+  public synchronized void release() {
+    if (refCount == 0) {
+      Log.e(TAG, "release() without acquire()");
+      return;
+    }
+    refCount--;
+    if (refCount == 0 && pool != null) {
+      Log.d(TAG, "Shutting down. " + getStats());
+      pool.shutdown();
+      pool = null;
+    }
+  }
+
+  // Submission holds the lock so release() cannot shut the pool down in
+  // between.
+  @Override
+  public synchronized void execute(Runnable runnable) {
+    getPool().execute(runnable);
+  }
+
+  public synchronized Future<?> submit(Runnable runnable) {
+    return getPool().submit(runnable);
+  }
+
+  /** Runs |runnable| after |delayMs|. */
+  public synchronized Future<?> schedule(Runnable runnable, long delayMs) {
+    return getPool().schedule(runnable, delayMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Returns an executor running its tasks one at a time, in submission
+   * order, on the shared pool. Replaces a single thread executor per user.
+   */
+  public Executor newSerialExecutor() {
+    return new SerialExecutor();
+  }
+
+  /** Number of live pool threads. */
+  public synchronized int getThreadCount() {
+    return pool != null ? pool.getPoolSize() : 0;
+  }
+
+  /** Number of queued tasks, including pending timers. */
+  public synchronized int getQueueSize() {
+    return pool != null ? pool.getQueue().size() : 0;
+  }
+
+  public synchronized int getRefCount() {
+    return refCount;
+  }
+
+  public synchronized String getStats() {
+    return "refs=" + refCount + " threads=" + getThreadCount()
+        + " active=" + (pool != null ? pool.getActiveCount() : 0)
+        + " queued=" + getQueueSize()
+        + " created=" + threadCount.get();
+  }
+
+  public void logStats() {
+    Log.d(TAG, getStats());
+  }
+
+  private synchronized ScheduledThreadPoolExecutor getPool() {
+    if (pool == null) {
+      pool = new ScheduledThreadPoolExecutor(MAX_THREADS, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          return new Thread(runnable, "Signaling-"
+              + threadCount.incrementAndGet());
+        }
+      });
+      pool.setKeepAliveTime(THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS);
+      pool.allowCoreThreadTimeOut(true);
+    }
+    return pool;
+  }
+
+  // Runs tasks sequentially on the shared pool.
+  private class SerialExecutor implements Executor {
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+    private Runnable active;
+
+    @Override
+    public synchronized void execute(final Runnable runnable) {
+      tasks.add(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            runnable.run();
+          } finally {
+            scheduleNext();
+          }
+        }
+      });
+      if (active == null) {
+        scheduleNext();
+      }
+    }
+
+    private synchronized void scheduleNext() {
+      active = tasks.poll();
+      if (active != null) {
+        SignalingExecutor.this.execute(active);
+      }
+    }
+  }
+}
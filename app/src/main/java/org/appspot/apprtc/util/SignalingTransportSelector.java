@@ -0,0 +1,165 @@
+package org.appspot.apprtc.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Remembers which signaling transport works best per server and network.
+ *
+ * <p>Without a remembered choice a client races its transports at connect
+ * time with side-effect-free probes, e.g. SignalingTransportProbe: the first
+ * probe to complete wins and the loser is given a short grace period to
+ * complete its own, which gives the winning margin. reportRace() stores the
+ * winner under the server URL and the current network, so later calls from
+ * the same network connect over it directly. The choice expires after a
+ * day, and is dropped with invalidate() as soon as the chosen transport
+ * fails. Choices are kept in SharedPreferences to survive restarts.
+ */
+public class SignalingTransportSelector {
+  private static final String TAG = "TransportSelector";
+  private static final String PREFERENCES_NAME = "signaling_transport";
+  // Remembered choices are raced again after this long.
+  private static final long CHOICE_TTL_MS = 24 * 60 * 60 * 1000;
+  // Time until the winner's probe completed.
+  public static final String METRIC_WINNER_TIME = "transport.winner_ms";
+  // Time from the winner's probe completing until the loser's.
+  public static final String METRIC_MARGIN = "transport.margin_ms";
+  public static final String METRIC_WEB_SOCKET_WINS = "transport.ws_wins";
+  public static final String METRIC_EVENT_STREAM_WINS = "transport.sse_wins";
+
+  /** Signaling transports of a SmokeSignals room. */
+  public enum Transport {
+    WEB_SOCKET, EVENT_STREAM
+  };
+
+  private static SignalingTransportSelector instance;
+
+  private final Context context;
+  private final SharedPreferences preferences;
+  private String lastResult = "none";
+
+  public static synchronized SignalingTransportSelector getInstance(
+      Context context) {
+    if (instance == null) {
+      instance = new SignalingTransportSelector(
+          context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  private SignalingTransportSelector(Context context) {
+    this.context = context;
+    preferences = context.getSharedPreferences(
+        PREFERENCES_NAME, Context.MODE_PRIVATE);
+  }
+
+  /**
+   * Returns the transport remembered for the server of |url| on the current
+   * network, or null if the transports should be raced.
+   */
+  public synchronized Transport getCachedTransport(String url) {
+    String key = getKey(url);
+    String value = preferences.getString(key, null);
+    if (value == null) {
+      return null;
+    }
+    try {
+      int separator = value.indexOf(',');
+      long chosenAtMs = Long.parseLong(value.substring(separator + 1));
+      if (System.currentTimeMillis() - chosenAtMs > CHOICE_TTL_MS) {
+        Log.d(TAG, "Transport choice expired for " + key);
+        return null;
+      }
+      Transport transport = Transport.valueOf(value.substring(0, separator));
+      Log.d(TAG, "Using " + transport + " for " + key);
+      return transport;
+    } catch (IllegalArgumentException e) {
+      // Includes NumberFormatException.
+      Log.e(TAG, "Invalid transport choice: " + value);
+      return null;
+    } catch (IndexOutOfBoundsException e) {
+      Log.e(TAG, "Invalid transport choice: " + value);
+      return null;
+    }
+  }
+
+  /**
+   * Records the outcome of a race for the server of |url|. |winnerMs| is the
+   * time until the probe of |winner| completed, |loserMs| the same for the
+   * other transport, or negative if it failed or did not complete within the
+   * grace period.
+   */
+  public synchronized void reportRace(String url, Transport winner,
+      long winnerMs, long loserMs) {
+    String key = getKey(url);
+    preferences.edit()
+        .putString(key, winner.name() + "," + System.currentTimeMillis())
+        .apply();
+
+    MetricsRegistry metrics = MetricsRegistry.getInstance();
+    metrics.increment(winner == Transport.WEB_SOCKET
+        ? METRIC_WEB_SOCKET_WINS : METRIC_EVENT_STREAM_WINS);
+    metrics.record(METRIC_WINNER_TIME, winnerMs);
+    if (loserMs >= 0) {
+      metrics.record(METRIC_MARGIN, loserMs - winnerMs);
+      lastResult = winner + " by " + (loserMs - winnerMs) + " ms ("
+          + winnerMs + " vs " + loserMs + " ms)";
+    } else {
+      lastResult = winner + " in " + winnerMs + " ms, other transport failed";
+    }
+    Log.d(TAG, "Transport race on " + key + ": " + lastResult);
+  }
+
+  /** Forgets the transport remembered for the server of |url|. */
+  public synchronized void invalidate(String url) {
+    String key = getKey(url);
+    Log.d(TAG, "Transport choice invalidated for " + key);
+    preferences.edit().remove(key).apply();
+  }
+
+  /** Outcome of the last race, for display. */
+  public synchronized String getLastResult() {
+    return lastResult;
+  }
+
+  /**
+   * Returns the network the device is on, e.g. WIFI/"ssid" or MOBILE/apn,
+   * or "none" if it is offline.
+   */
+  public String getNetworkKey() {
+    ConnectivityManager connectivityManager = (ConnectivityManager)
+        context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    return getNetworkKey(connectivityManager.getActiveNetworkInfo());
+  }
+
+  /** Returns the key of network |networkInfo|, see getNetworkKey(). */
+  static String getNetworkKey(NetworkInfo networkInfo) {
+    if (networkInfo == null || !networkInfo.isConnected()) {
+      return "none";
+    }
+    String extraInfo = networkInfo.getExtraInfo();
+    return networkInfo.getTypeName()
+        + (extraInfo != null ? "/" + extraInfo : "");
+  }
+
+  // Choices are kept per server origin, not per room, and network.
+  private String getKey(String url) {
+    String server = url;
+    try {
+      URI uri = new URI(url);
+      if (uri.getHost() != null) {
+        server = uri.getScheme() + "://" + uri.getHost()
+            + (uri.getPort() != -1 ? ":" + uri.getPort() : "");
+      }
+    } catch (URISyntaxException e) {
+      // Fall back to the full URL.
+    }
+    return server + "|" + getNetworkKey();
+  }
+}
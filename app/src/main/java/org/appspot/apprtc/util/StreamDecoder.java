@@ -0,0 +1,148 @@
+package org.appspot.apprtc.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decodes UTF-8 response bodies using per-thread pooled buffers.
+ *
+ * <p>Bytes are read into a reusable byte buffer and decoded straight into a
+ * reusable char buffer, so draining a stream allocates nothing but the
+ * resulting String (readFully) or nothing at all (stream). Bodies larger than
+ * the given limit are rejected with an IOException. The number of bytes read
+ * by the last call on a thread is kept for byte metrics, see
+ * getLastByteCount().
+ */
+public final class StreamDecoder {
+  private static final int BUFFER_SIZE = 8192;
+  // Larger accumulators are not kept around between calls.
+  private static final int MAX_RETAINED_CHARS = 64 * 1024;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * Receives decoded chunks of a body. |buffer| is reused after the call
+   * returns, so implementations must copy anything they keep.
+   */
+  public interface CharSink {
+    public void onChars(char[] buffer, int offset, int length)
+        throws IOException;
+  }
+
+  // Buffers owned by a single thread.
+  private static class Buffers {
+    final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+    final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    final CharsetDecoder decoder = UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    StringBuilder accumulator = new StringBuilder(BUFFER_SIZE);
+    int lastByteCount;
+    final CharSink accumulatorSink = new CharSink() {
+      @Override
+      public void onChars(char[] buffer, int offset, int length) {
+        accumulator.append(buffer, offset, length);
+      }
+    };
+  }
+
+  private static final ThreadLocal<Buffers> buffers =
+      new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+          return new Buffers();
+        }
+      };
+
+  private StreamDecoder() {
+  }
+
+  /**
+   * Returns the number of bytes the last readFully() or stream() call on
+   * this thread read from its stream, before decoding.
+   */
+  public static int getLastByteCount() {
+    return buffers.get().lastByteCount;
+  }
+
+  /**
+   * Returns the contents of |in| as a String. Throws if the body is longer
+   * than |maxBytes|. Does not close |in|.
+   */
+  public static String readFully(InputStream in, int maxBytes)
+      throws IOException {
+    Buffers pool = buffers.get();
+    StringBuilder accumulator = pool.accumulator;
+    accumulator.setLength(0);
+    try {
+      stream(in, maxBytes, pool.accumulatorSink);
+      return accumulator.toString();
+    } finally {
+      if (accumulator.capacity() > MAX_RETAINED_CHARS) {
+        pool.accumulator = new StringBuilder(BUFFER_SIZE);
+      } else {
+        accumulator.setLength(0);
+      }
+    }
+  }
+
+  /**
+   * Decodes |in| and hands the characters to |sink| chunk by chunk, e.g. to
+   * feed a streaming parser. Throws if the body is longer than |maxBytes|.
+   * Does not close |in|. Returns the number of bytes read.
+   */
+  public static int stream(InputStream in, int maxBytes, CharSink sink)
+      throws IOException {
+    Buffers pool = buffers.get();
+    ByteBuffer bytes = pool.bytes;
+    CharBuffer chars = pool.chars;
+    CharsetDecoder decoder = pool.decoder;
+    bytes.clear();
+    chars.clear();
+    decoder.reset();
+    byte[] byteArray = bytes.array();
+    char[] charArray = chars.array();
+    int total = 0;
+    pool.lastByteCount = 0;
+    while (true) {
+      int read = in.read(byteArray, bytes.position(), bytes.remaining());
+      boolean endOfInput = read < 0;
+      if (!endOfInput) {
+        total += read;
+        pool.lastByteCount = total;
+        if (total > maxBytes) {
+          throw new IOException("Body exceeds " + maxBytes + " bytes");
+        }
+        bytes.position(bytes.position() + read);
+      }
+      bytes.flip();
+      // Decode everything available; an incomplete multi-byte sequence at
+      // the end stays in |bytes| until more input arrives.
+      while (true) {
+        boolean overflow =
+            decoder.decode(bytes, chars, endOfInput).isOverflow();
+        if (chars.position() > 0) {
+          sink.onChars(charArray, 0, chars.position());
+          chars.clear();
+        }
+        if (!overflow) {
+          break;
+        }
+      }
+      bytes.compact();
+      if (endOfInput) {
+        break;
+      }
+    }
+    decoder.flush(chars);
+    if (chars.position() > 0) {
+      sink.onChars(charArray, 0, chars.position());
+      chars.clear();
+    }
+    return total;
+  }
+}
@@ -0,0 +1,81 @@
+package android.util;
+
+/**
+ * Stand-in for the Android Base64 class, so SdpCompressor runs on a plain
+ * JVM. Only the NO_WRAP variant SdpCompressor uses is implemented: the
+ * standard alphabet, padded, without line breaks.
+ */
+public final class Base64 {
+  public static final int DEFAULT = 0;
+  public static final int NO_WRAP = 2;
+
+  private static final char[] ALPHABET =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+          .toCharArray();
+  private static final int[] VALUES = new int[128];
+
+  static {
+    java.util.Arrays.fill(VALUES, -1);
+    for (int i = 0; i < ALPHABET.length; i++) {
+      VALUES[ALPHABET[i]] = i;
+    }
+  }
+
+  private Base64() {
+  }
+
+  public static String encodeToString(byte[] input, int flags) {
+    StringBuilder output = new StringBuilder((input.length + 2) / 3 * 4);
+    for (int i = 0; i < input.length; i += 3) {
+      int remaining = input.length - i;
+      int bits = (input[i] & 0xff) << 16;
+      if (remaining > 1) {
+        bits |= (input[i + 1] & 0xff) << 8;
+      }
+      if (remaining > 2) {
+        bits |= input[i + 2] & 0xff;
+      }
+      output.append(ALPHABET[(bits >> 18) & 0x3f]);
+      output.append(ALPHABET[(bits >> 12) & 0x3f]);
+      output.append(remaining > 1 ? ALPHABET[(bits >> 6) & 0x3f] : '=');
+      output.append(remaining > 2 ? ALPHABET[bits & 0x3f] : '=');
+    }
+    return output.toString();
+  }
+
+  public static byte[] decode(String input, int flags) {
+    int length = input.length();
+    while (length > 0 && input.charAt(length - 1) == '=') {
+      length--;
+    }
+    if (length % 4 == 1) {
+      throw new IllegalArgumentException("bad base-64");
+    }
+    byte[] output = new byte[length * 3 / 4];
+    int bits = 0;
+    int count = 0;
+    int position = 0;
+    for (int i = 0; i < length; i++) {
+      char c = input.charAt(i);
+      int value = c < VALUES.length ? VALUES[c] : -1;
+      if (value < 0) {
+        throw new IllegalArgumentException("bad base-64");
+      }
+      bits = (bits << 6) | value;
+      if (++count == 4) {
+        output[position++] = (byte) (bits >> 16);
+        output[position++] = (byte) (bits >> 8);
+        output[position++] = (byte) bits;
+        bits = 0;
+        count = 0;
+      }
+    }
+    if (count == 3) {
+      output[position++] = (byte) (bits >> 10);
+      output[position++] = (byte) (bits >> 2);
+    } else if (count == 2) {
+      output[position++] = (byte) (bits >> 4);
+    }
+    return output;
+  }
+}
@@ -0,0 +1,29 @@
+package android.util;
+
+/**
+ * Stand-in for the Android Log class, so the app's SDP and signaling code
+ * runs on a plain JVM. Messages are dropped; printing them would dominate
+ * the benchmarks.
+ */
+public final class Log {
+  public static final int DEBUG = 3;
+
+  private Log() {
+  }
+
+  public static boolean isLoggable(String tag, int level) {
+    return false;
+  }
+
+  public static int d(String tag, String msg) {
+    return 0;
+  }
+
+  public static int w(String tag, String msg) {
+    return 0;
+  }
+
+  public static int e(String tag, String msg) {
+    return 0;
+  }
+}
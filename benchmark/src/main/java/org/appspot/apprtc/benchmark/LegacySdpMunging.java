@@ -0,0 +1,84 @@
+package org.appspot.apprtc.benchmark;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The regex based SDP munging PeerConnectionClient used before SdpSession,
+ * kept as the baseline of SdpBenchmark.
+ */
+class LegacySdpMunging {
+  private LegacySdpMunging() {
+  }
+
+  static String setStartBitrate(String sdpDescription, int bitrateKbps) {
+    String[] lines = sdpDescription.split("\r\n");
+    int lineIndex = -1;
+    String vp8RtpMap = null;
+    Pattern vp8Pattern =
+        Pattern.compile("^a=rtpmap:(\\d+) VP8/90000[\r]?$");
+    for (int i = 0; i < lines.length; i++) {
+      Matcher vp8Matcher = vp8Pattern.matcher(lines[i]);
+      if (vp8Matcher.matches()) {
+        vp8RtpMap = vp8Matcher.group(1);
+        lineIndex = i;
+        break;
+      }
+    }
+    if (vp8RtpMap == null) {
+      return sdpDescription;
+    }
+    StringBuilder newSdpDescription = new StringBuilder();
+    for (int i = 0; i < lines.length; i++) {
+      newSdpDescription.append(lines[i]).append("\r\n");
+      if (i == lineIndex) {
+        String bitrateSet = "a=fmtp:" + vp8RtpMap
+            + " x-google-start-bitrate=" + bitrateKbps;
+        newSdpDescription.append(bitrateSet).append("\r\n");
+      }
+    }
+    return newSdpDescription.toString();
+  }
+
+  static String preferISAC(String sdpDescription) {
+    String[] lines = sdpDescription.split("\r\n");
+    int mLineIndex = -1;
+    String isac16kRtpMap = null;
+    Pattern isac16kPattern =
+        Pattern.compile("^a=rtpmap:(\\d+) ISAC/16000[\r]?$");
+    for (int i = 0;
+         (i < lines.length) && (mLineIndex == -1 || isac16kRtpMap == null);
+         ++i) {
+      if (lines[i].startsWith("m=audio ")) {
+        mLineIndex = i;
+        continue;
+      }
+      Matcher isac16kMatcher = isac16kPattern.matcher(lines[i]);
+      if (isac16kMatcher.matches()) {
+        isac16kRtpMap = isac16kMatcher.group(1);
+        continue;
+      }
+    }
+    if (mLineIndex == -1 || isac16kRtpMap == null) {
+      return sdpDescription;
+    }
+    String[] origMLineParts = lines[mLineIndex].split(" ");
+    StringBuilder newMLine = new StringBuilder();
+    int origPartIndex = 0;
+    newMLine.append(origMLineParts[origPartIndex++]).append(" ");
+    newMLine.append(origMLineParts[origPartIndex++]).append(" ");
+    newMLine.append(origMLineParts[origPartIndex++]).append(" ");
+    newMLine.append(isac16kRtpMap);
+    for (; origPartIndex < origMLineParts.length; ++origPartIndex) {
+      if (!origMLineParts[origPartIndex].equals(isac16kRtpMap)) {
+        newMLine.append(" ").append(origMLineParts[origPartIndex]);
+      }
+    }
+    lines[mLineIndex] = newMLine.toString();
+    StringBuilder newSdpDescription = new StringBuilder();
+    for (String line : lines) {
+      newSdpDescription.append(line).append("\r\n");
+    }
+    return newSdpDescription.toString();
+  }
+}
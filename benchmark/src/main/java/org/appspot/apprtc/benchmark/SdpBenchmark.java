@@ -0,0 +1,135 @@
+package org.appspot.apprtc.benchmark;
+
+import org.appspot.apprtc.sdp.BandwidthPolicyTransform;
+import org.appspot.apprtc.sdp.CodecPreferenceTransform;
+import org.appspot.apprtc.sdp.SdpSession;
+import org.appspot.apprtc.sdp.SdpTransform;
+import org.appspot.apprtc.sdp.StartBitrateTransform;
+import org.appspot.apprtc.sdp.TrackIdTransform;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of parsing, transforming and serializing every description of
+ * the corpus, and of the regex munging and replaceAll() track renaming the
+ * transforms replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SdpBenchmark {
+  private static final int START_BITRATE = 1000;
+  // Video track of libjingle_answer.sdp, renamed when switching cameras.
+  private static final String TRACK_ID = "ARDAMSv0";
+  private static final String NEW_TRACK_ID = "ARDAMSv0backFacing";
+
+  @Param({
+      "chrome_offer.sdp",
+      "chrome_answer.sdp",
+      "chrome_simulcast_offer.sdp",
+      "chrome_audio_only_offer.sdp",
+      "chrome_datachannel_offer.sdp",
+      "firefox_offer.sdp",
+      "libjingle_answer.sdp"
+  })
+  public String sdpName;
+
+  private String sdp;
+  private SdpSession session;
+  // What PeerConnectionClient applies to a remote description.
+  private List<SdpTransform> transforms;
+  private List<SdpTransform> renameTrack;
+
+  @Setup
+  public void setUp() throws IOException {
+    sdp = load(sdpName);
+    session = SdpSession.parse(sdp);
+    List<String> none = Collections.emptyList();
+    transforms = Arrays.<SdpTransform>asList(
+        new CodecPreferenceTransform("audio",
+            Collections.singletonList("ISAC/16000"), none),
+        new CodecPreferenceTransform("video",
+            Collections.singletonList("VP8"), none),
+        new BandwidthPolicyTransform(64, 300, 1000, 2500),
+        new StartBitrateTransform(null, START_BITRATE));
+    renameTrack = Collections.<SdpTransform>singletonList(
+        new TrackIdTransform(TRACK_ID, NEW_TRACK_ID));
+  }
+
+  @Benchmark
+  public SdpSession parse() {
+    return SdpSession.parse(sdp);
+  }
+
+  @Benchmark
+  public String serialize() {
+    return session.toString();
+  }
+
+  /** Transforms mutate the model, so each operation parses a fresh one. */
+  @Benchmark
+  public String parseTransformSerialize() {
+    return SdpSession.transform(sdp, transforms);
+  }
+
+  /** preferISAC() and setStartBitrate() as they were before SdpSession. */
+  @Benchmark
+  public String legacyRegexMunging() {
+    return LegacySdpMunging.setStartBitrate(
+        LegacySdpMunging.preferISAC(sdp), START_BITRATE);
+  }
+
+  /**
+   * Camera switch track rename. Only libjingle_answer.sdp carries the
+   * track, the other descriptions measure a rename that finds nothing.
+   */
+  @Benchmark
+  public String renameTrack() {
+    return SdpSession.transform(sdp, renameTrack);
+  }
+
+  /** The replaceAll() the track rename replaced. */
+  @Benchmark
+  public String legacyRenameTrack() {
+    return sdp.replaceAll(TRACK_ID, NEW_TRACK_ID);
+  }
+
+  // Returns description |name| of the corpus.
+  static String load(String name) throws IOException {
+    InputStream input = SdpBenchmark.class.getResourceAsStream("/sdp/" + name);
+    if (input == null) {
+      throw new IOException("No corpus file " + name);
+    }
+    try {
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int length;
+      while ((length = input.read(buffer)) != -1) {
+        output.write(buffer, 0, length);
+      }
+      return output.toString("UTF-8");
+    } finally {
+      input.close();
+    }
+  }
+}
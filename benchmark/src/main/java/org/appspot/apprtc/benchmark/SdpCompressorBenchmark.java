@@ -0,0 +1,67 @@
+package org.appspot.apprtc.benchmark;
+
+import org.appspot.apprtc.sdp.SdpCompressor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of compressing and decompressing every description of the
+ * corpus in the compact SDP encoding. The wire size of each description,
+ * plain and compact, is printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SdpCompressorBenchmark {
+  @Param({
+      "chrome_offer.sdp",
+      "chrome_answer.sdp",
+      "chrome_simulcast_offer.sdp",
+      "chrome_audio_only_offer.sdp",
+      "chrome_datachannel_offer.sdp",
+      "firefox_offer.sdp",
+      "libjingle_answer.sdp"
+  })
+  public String sdpName;
+
+  private final SdpCompressor compressor = SdpCompressor.getInstance();
+  private String sdp;
+  private String compressed;
+
+  @Setup
+  public void setUp() throws IOException {
+    sdp = SdpBenchmark.load(sdpName);
+    compressed = compressor.compress(sdp);
+    if (!sdp.equals(compressor.decompress(compressed))) {
+      throw new IOException(sdpName + " does not survive compression");
+    }
+    System.out.println(sdpName + ": " + sdp.length() + " -> "
+        + compressed.length() + " bytes ("
+        + (100 * compressed.length() / sdp.length()) + "%)");
+  }
+
+  @Benchmark
+  public String compress() {
+    return compressor.compress(sdp);
+  }
+
+  @Benchmark
+  public String decompress() throws IOException {
+    return compressor.decompress(compressed);
+  }
+}
@@ -0,0 +1,187 @@
+package org.appspot.apprtc.benchmark;
+
+import org.appspot.apprtc.SignalingMessageCodec;
+import org.appspot.apprtc.SmokeSignalEventDispatcher;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of encoding and decoding SmokeSignals messages with
+ * SignalingMessageCodec and SmokeSignalEventDispatcher, and with the
+ * JSONObject trees they replaced. Messages are encoded as the client POSTs
+ * them and decoded as the server relays them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignalingMessageCodecBenchmark {
+  private static final String PEER = "peer";
+  private static final String TOKEN = "token";
+
+  @Param({"offer", "answer", "icecandidate"})
+  public String messageName;
+
+  private final SignalingMessageCodec codec = new SignalingMessageCodec();
+  private final RecordingEvents events = new RecordingEvents();
+  private SessionDescription offer;
+  private SessionDescription answer;
+  private IceCandidate candidate;
+  private List<IceCandidate> candidates;
+  // Event data of |messageName| as relayed by the server.
+  private String eventData;
+
+  // Keeps the decoded values, so decoding is not optimized away.
+  private static class RecordingEvents
+      implements SmokeSignalEventDispatcher.SmokeSignalEvents {
+    Object last;
+
+    @Override
+    public void onUid(String uid, String token) {
+      last = uid;
+    }
+
+    @Override
+    public void onTrace(String event, String trace, String correlationId,
+        String replyTo) {
+    }
+
+    @Override
+    public void onOffer(String peer, SessionDescription offer,
+        String sdpEncoding) {
+      last = offer;
+    }
+
+    @Override
+    public void onAnswer(String peer, String sdpEncoding) {
+      last = peer;
+    }
+
+    @Override
+    public void onIceCandidate(String peer, IceCandidate candidate) {
+      last = candidate;
+    }
+
+    @Override
+    public void onBuddyLeft(String peer) {
+    }
+
+    @Override
+    public void onNewBuddy() {
+    }
+  }
+
+  @Setup
+  public void setUp() throws IOException, JSONException {
+    offer = new SessionDescription(SessionDescription.Type.OFFER,
+        SdpBenchmark.load("chrome_offer.sdp"));
+    answer = new SessionDescription(SessionDescription.Type.ANSWER,
+        SdpBenchmark.load("chrome_answer.sdp"));
+    candidate = new IceCandidate("audio", 0, "candidate:1 1 udp 2122260223"
+        + " 192.168.1.2 54321 typ host generation 0");
+    candidates = Collections.singletonList(candidate);
+
+    JSONObject data = new JSONObject();
+    data.put("peer", PEER);
+    if (messageName.equals("offer")) {
+      data.put("offer", descriptionJson(offer));
+    } else if (messageName.equals("answer")) {
+      data.put("answer", descriptionJson(answer));
+    } else {
+      data.put("candidate", candidateJson(candidate));
+    }
+    eventData = data.toString();
+  }
+
+  @Benchmark
+  public String encode() {
+    if (messageName.equals("offer")) {
+      return codec.encodeSmokeSignalOffer(PEER, TOKEN, offer, false);
+    } else if (messageName.equals("answer")) {
+      return codec.encodeSmokeSignalAnswer(PEER, TOKEN, answer, false, null);
+    }
+    return codec.encodeSmokeSignalIceCandidates(PEER, TOKEN, candidates);
+  }
+
+  /** The JSONObject trees EventSourceRTCClient built before the codec. */
+  @Benchmark
+  public String legacyEncode() throws JSONException {
+    JSONObject payload = new JSONObject();
+    if (messageName.equals("offer")) {
+      payload.put("offer", descriptionJson(offer));
+    } else if (messageName.equals("answer")) {
+      payload.put("answer", descriptionJson(answer));
+    } else {
+      payload.put("candidate", candidateJson(candidate));
+    }
+    JSONObject json = new JSONObject();
+    json.put("type", messageName);
+    json.put("peer", PEER);
+    json.put("token", TOKEN);
+    json.put("payload", payload);
+    return json.toString();
+  }
+
+  @Benchmark
+  public Object decode() throws IOException {
+    SmokeSignalEventDispatcher.dispatch(messageName, eventData, events);
+    return events.last;
+  }
+
+  /** The JSONObject parsing EventSourceRTCClient did before the codec. */
+  @Benchmark
+  public Object legacyDecode() throws JSONException {
+    JSONObject data = new JSONObject(eventData);
+    String peer = data.getString("peer");
+    if (messageName.equals("offer")) {
+      JSONObject offerJson = data.getJSONObject("offer");
+      return new SessionDescription(
+          SessionDescription.Type.fromCanonicalForm(
+              offerJson.getString("type")),
+          offerJson.getString("sdp"));
+    } else if (messageName.equals("answer")) {
+      return peer;
+    }
+    JSONObject candidateJson = data.getJSONObject("candidate");
+    return new IceCandidate(candidateJson.getString("sdpMid"),
+        candidateJson.getInt("sdpMLineIndex"),
+        candidateJson.getString("candidate"));
+  }
+
+  private static JSONObject descriptionJson(SessionDescription sdp)
+      throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("type", sdp.type.canonicalForm());
+    json.put("sdp", sdp.description);
+    return json;
+  }
+
+  private static JSONObject candidateJson(IceCandidate candidate)
+      throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("candidate", candidate.sdp);
+    json.put("sdpMid", candidate.sdpMid);
+    json.put("sdpMLineIndex", candidate.sdpMLineIndex);
+    return json;
+  }
+}
@@ -0,0 +1,84 @@
+package org.appspot.apprtc.benchmark;
+
+import org.appspot.apprtc.util.StreamDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of draining a response body with StreamDecoder, and with the
+ * Scanner it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamDecoderBenchmark {
+  private static final int MAX_BYTES = 1024 * 1024;
+
+  @Param({"sdp", "room"})
+  public String payloadName;
+
+  private byte[] payload;
+
+  @Setup
+  public void setUp() throws IOException {
+    String body = payloadName.equals("sdp") ? sdpPayload() : roomPayload();
+    payload = body.getBytes("UTF-8");
+  }
+
+  @Benchmark
+  public String streamDecoder() throws IOException {
+    return StreamDecoder.readFully(
+        new ByteArrayInputStream(payload), MAX_BYTES);
+  }
+
+  /**
+   * drainStream() as it was before StreamDecoder, decoding UTF-8 like the
+   * Android default charset does.
+   */
+  @Benchmark
+  public String legacyScanner() {
+    Scanner scanner = new Scanner(new ByteArrayInputStream(payload), "UTF-8")
+        .useDelimiter("\\A");
+    return scanner.hasNext() ? scanner.next() : "";
+  }
+
+  // SDP sized payload: a few KB of attribute lines.
+  private static String sdpPayload() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("{\"type\":\"offer\",\"sdp\":\"v=0\\r\\n");
+    for (int i = 0; i < 80; i++) {
+      builder.append("a=candidate:").append(i)
+          .append(" 1 udp 2122260223 192.168.1.").append(i % 255)
+          .append(" 5").append(1000 + i).append(" typ host\\r\\n");
+    }
+    return builder.append("\"}").toString();
+  }
+
+  // Room configuration sized payload with non-ASCII content.
+  private static String roomPayload() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("{\"params\":{");
+    for (int i = 0; i < 40; i++) {
+      builder.append("\"key").append(i).append("\":\"valeur \u00e9\u20ac")
+          .append(i).append("\",");
+    }
+    return builder.append("\"room_id\":\"r\u00f6\u00f6m\"}}").toString();
+  }
+}